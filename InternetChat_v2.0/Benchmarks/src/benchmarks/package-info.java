@@ -0,0 +1,7 @@
+/**
+ * Runs the JMH benchmarks for the Client and Server hot paths.
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+package benchmarks;
@@ -0,0 +1,58 @@
+package client;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks processing of key exchange information by a Client
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClientKeyExchangeBenchmark
+{
+    /**
+     * Private value; generated values range from 10 to 1009
+     */
+    @Param({"10", "500", "1009"})
+    int val;
+
+    ClientKeyExchange ex;
+    /**
+     * Base and modulo pair received from Server
+     */
+    int[] inf = {5, 997};
+
+    @Setup
+    public void setup()
+    {
+        ex     = new ClientKeyExchange();
+        ex.val = val;
+    }
+
+    @Benchmark
+    public int[] processKeyInfo()
+    {
+        int[] i = inf.clone();
+        ex.processKeyInfo(i);
+        return i;
+    }
+}
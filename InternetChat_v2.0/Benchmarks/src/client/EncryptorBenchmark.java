@@ -0,0 +1,99 @@
+package client;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks encryption and decryption of messages of different lengths
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncryptorBenchmark
+{
+    /**
+     * Key values known to be invertible (mod 97)
+     */
+    static final int[][] KEY = {{6, 24, 1}, {13, 16, 10}, {20, 17, 15}};
+
+    /**
+     * Length of message in characters
+     */
+    @Param({"16", "256", "4096"})
+    int length;
+
+    Encryptor encryptor;
+    /**
+     * Message to encrypt
+     */
+    String plain;
+    /**
+     * Message to decrypt
+     */
+    String cipher;
+
+    /**
+     * Build an Encryptor from fixed key values and a message of the given length
+     */
+    @Setup
+    public void setup()
+    {
+        encryptor = new Encryptor(keyExchanges());
+
+        StringBuilder s = new StringBuilder();
+        for (int i = 0; i < length; i++)
+        {
+            s.append((char) (' ' + i % 95));
+        }
+        plain  = s.toString();
+        cipher = encryptor.encrypt(plain);
+    }
+
+    @Benchmark
+    public String encrypt()
+    {
+        return encryptor.encrypt(plain);
+    }
+
+    @Benchmark
+    public String decrypt()
+    {
+        return encryptor.decrypt(cipher);
+    }
+
+    /**
+     * Matrix of ClientKeyExchanges holding the values of KEY
+     * @return  matrix of ClientKeyExchanges
+     */
+    static ClientKeyExchange[][] keyExchanges()
+    {
+        ClientKeyExchange[][] ex = new ClientKeyExchange[3][3];
+        for (int i = 0; i < 3; i++)
+        {
+            for (int j = 0; j < 3; j++)
+            {
+                ex[i][j]     = new ClientKeyExchange();
+                ex[i][j].key = KEY[i][j];
+            }
+        }
+        return ex;
+    }
+}
@@ -0,0 +1,56 @@
+package client;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks finding the modular inverse of a key matrix
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatricesBenchmark
+{
+    Matrices mat;
+    /**
+     * Key matrix to invert
+     */
+    float[][] key;
+
+    @Setup
+    public void setup()
+    {
+        mat = new Matrices();
+        key = new float[3][3];
+        for (int i = 0; i < 3; i++)
+        {
+            for (int j = 0; j < 3; j++)
+            {
+                key[i][j] = EncryptorBenchmark.KEY[i][j];
+            }
+        }
+    }
+
+    @Benchmark
+    public float[][] matModInv()
+    {
+        return mat.matModInv(key);
+    }
+}
@@ -1,20 +1,27 @@
 package client;
 
-import javax.swing.*;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.Socket;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
 import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Random;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * Opens connection with a server that is already open and creates a UI for user to interact with.
+ * Opens connection with a server that is already open.
  * Chats with other users on this port.
- * Connects to default port.
+ * Reports messages and changes in the connection to a ClientListener, so it can run with or without a UI.
  *
  * @author Caroline Zeng
  * @version 2.0.2
@@ -22,47 +29,103 @@ import java.util.concurrent.locks.ReentrantLock;
 
 public class Client extends Thread {
     /**
-     * Holds host name and port number to connect to
+     * Connection to host.
+     * Replaced when the Client resumes after the connection drops.
      */
-    String[] args;
-    /**
-     * Connection to host
-     */
-    Socket socket;
+    volatile Socket socket;
     /**
      * Input stream
      */
-    PrintWriter out;
+    volatile PrintWriter out;
     /**
      * Output stream
      */
     BufferedReader in;
 
     /**
-     * Displays messages
-     */
-    JTextArea  messageArea;
-    /**
-     * Input from user
+     * Receives messages and changes in the connection
      */
-    JTextField textField;
+    ClientListener listener;
 
     /**
      * Name input by user
      */
     String name;
     /**
-     * IP address or name of server
+     * Opens connections to the server
+     */
+    Transport transport;
+    /**
+     * IP address or name of server, or another description of the transport, for messages
      */
     String serverAddress;
     /**
-     * Server port number
+     * Id given by the server, sent by ExchangeThreads so the server knows which Client they are for
+     */
+    int id;
+    /**
+     * Name the server kept for this Client when it connected; null if every name offered was in use
      */
-    int portNumber;
+    String assigned;
     /**
      * Status of connection
      */
-    boolean open = true;
+    volatile boolean open = true;
+    /**
+     * Ticket from the server to resume or join again with if the connection drops; null if there is none
+     */
+    volatile String ticket;
+    /**
+     * Whether the Client is joining the chat again; messages are not sent meanwhile
+     */
+    volatile boolean joining = false;
+    /**
+     * Milliseconds the server keeps the ticket after the connection drops
+     */
+    int ticketWindow;
+    /**
+     * Milliseconds to wait for the server to connect and answer when resuming
+     */
+    public static final int RESUME_TIMEOUT = 5000;
+    /**
+     * Milliseconds between attempts to resume while the server can't be reached
+     */
+    public static final int RETRY_DELAY = 1000;
+    /**
+     * Sequence number of the last frame received from the server
+     */
+    long lastSeq = 0;
+    /**
+     * Number of the last message sent; the server relays each number only once.
+     * Given out by the Sender, in the order messages are queued.
+     */
+    long lastKey = 0;
+    /**
+     * Messages sent, with their numbers, that may not have reached the server.
+     * Sent again after resuming. Guarded by itself.
+     */
+    ArrayDeque<String> unconfirmed = new ArrayDeque<>();
+    /**
+     * Lines queued with unconfirmed to be written to out, in order; guarded by unconfirmed
+     */
+    StringBuilder toWrite = new StringBuilder();
+    /**
+     * Held while writing toWrite, so batches go out in order without holding unconfirmed,
+     * which receiving takes for every frame
+     */
+    final Object writeLock = new Object();
+    /**
+     * Most messages kept in unconfirmed; older ones are assumed to have arrived
+     */
+    public static final int MAX_UNCONFIRMED = 256;
+    /**
+     * Encrypts and writes messages, so sending never waits for the cipher or the network
+     */
+    Sender sender;
+    /**
+     * Milliseconds to wait for messages already sent to be written when disconnecting
+     */
+    public static final int SEND_TIMEOUT = 1000;
 
     /**
      * Threads that carry out key exchange
@@ -73,40 +136,78 @@ public class Client extends Thread {
      */
     ClientKeyExchange[][] ex = new ClientKeyExchange[3][3];
     /**
-     * Holds key values for encryption; encrypts and decrypts messages
+     * Where private values and new keys come from
+     */
+    Random random = new Random();
+    /**
+     * Number of keys before the current one kept to decrypt messages sent before every Client had changed key
+     */
+    public static final int KEPT_EPOCHS = 3;
+
+    /**
+     * Holds key values for encryption; encrypts and decrypts messages.
+     * Has the newest key the server has confirmed.
+     */
+    volatile Encryptor encryptor;
+    /**
+     * Encryptors for the current and last KEPT_EPOCHS keys, by epoch
+     */
+    HashMap<Integer, Encryptor> keys = new HashMap<>();
+    /**
+     * Carries out key exchange in the background, so messages keep arriving
+     */
+    Thread rekey;
+    /**
+     * Encryptor with the key from the last exchange, until the server confirms it;
+     * null if the exchange was abandoned
+     */
+    volatile Encryptor pending;
+    /**
+     * Encryptor with the key from a PAIR exchange, used only to unwrap the next key
      */
-    Encryptor encryptor;
+    volatile Encryptor pair;
     /**
      * Keeps Client waiting during key exchange
      */
     Lock lock;
 
     /**
-     * Default constructor for client.
-     * Creates placeholder values for the server address and port number.
+     * Constructor for client
+     * @param serverAddress IP address or name of server
+     * @param portNumber    Server port number
+     * @param listener      Receives messages and changes in the connection
      */
-    public Client()
+    public Client(String serverAddress, int portNumber, ClientListener listener)
     {
-        // Not sure exactly what this does
-        this.setDaemon(false);
-        serverAddress = "";
-        portNumber    = -1;
-        lock = new ReentrantLock();
+        this(new TcpTransport(serverAddress, portNumber), listener);
     }
 
     /**
-     * Constructor for client
-     * Allows host to be determined
-     * @param args  host information
+     * Constructor for client reaching the server through any Transport,
+     * such as a UnixTransport or a connection within the same process
+     * @param transport     Opens connections to the server
+     * @param listener      Receives messages and changes in the connection
      */
-    public Client(String[] args)
+    public Client(Transport transport, ClientListener listener)
     {
+        // Not sure exactly what this does
         this.setDaemon(false);
-        this.args     = args;
-        serverAddress = args[0];
-        portNumber    = Integer.parseInt(args[1]);
+        this.transport     = transport;
+        this.serverAddress = transport.toString();
+        this.listener      = listener;
+        this.sender        = new Sender(this);
         lock = new ReentrantLock();
+    }
 
+    /**
+     * Set where private values and new keys come from.
+     * A simulation gives each Client a seeded Random, so a run sends the same values every time.
+     * Must be set before the Client starts.
+     * @param random    source of randomness
+     */
+    public void setRandom(Random random)
+    {
+        this.random = random;
     }
 
     /**
@@ -117,102 +218,93 @@ public class Client extends Thread {
     {
         try
         {
-            // Get info for and establish connection
-            if (serverAddress.equals("") || portNumber == -1)
-            {
-                getServerAddress();
-                getPortNumber();
-            }
-            socket = new Socket(serverAddress, portNumber);
-            out    = new PrintWriter(socket.getOutputStream(), true);
-            in     = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            sender.start();
 
-            // Set up and do key exchange
+            // Set up key exchange
             for (int i = 0; i < 3; i++)
             {
                 for (int j = 0; j < 3; j++)
                 {
-                    ex[i][j] = new ClientKeyExchange();
-                }
-            }
-            for (int i = 0; i < 3; i++)
-            {
-                for (int j = 0; j < 3; j++)
-                {
-                    ClientExchangeThread t = new ClientExchangeThread(this, i, j);
-                    t.start();
-                    t.setName("E");
-                    exchangeThreads.add(t);
+                    ex[i][j] = new ClientKeyExchange(random);
                 }
             }
 
-            // Wait for key exchange to finish before continuing
-            for (ClientExchangeThread t : exchangeThreads)
+            if (!joinChat(null))
             {
-                t.join();
+                disconnect();
+                return;
             }
 
-            getUserName();
-
-            encryptor = new Encryptor(ex);
+            listener.connected(name);
 
             sendMessageA(this.getName() + " has joined");
 
-            try
+            String inputLine;
+            // Keep receiving information
+            while (open)
             {
-                String inputLine;
-                // Keep receiving information
-                while (open)
+                try
                 {
                     inputLine = in.readLine();
+                } catch (IOException e)
+                {
+                    // Connection lost, unless the Socket was closed by disconnect()
+                    inputLine = null;
+                }
 
-                    // Differentiates information received from name selection process
-                    if (!inputLine.equals(null))
+                if (inputLine == null)
+                {
+                    // Server went away without saying so
+                    // If the connection only dropped, get back in without a key exchange,
+                    // or else join again and get the messages missed
+                    if (open && (resumeSession() || rejoin())) continue;
+                    if (open) listener.disconnected("Lost connection to server");
+                    open = false;
+                } else if (inputLine.equals("CLOSED"))
+                {
+                    if (open) listener.disconnected("Server is closed");
+                    open = false;
+                } else if (inputLine.equals(ClientKeyExchange.LIMITED))
+                {
+                    if (open) listener.disconnected("Disconnected for sending messages too fast");
+                    open = false;
+                } else if (inputLine.equals(ClientKeyExchange.KICKED))
+                {
+                    if (open) listener.disconnected("Kicked by the server's admin");
+                    open = false;
+                } else if (!control(inputLine) && !inputLine.equals("NO"))
+                {
+                    // Frames are a sequence number, then the message tagged with the epoch of its key
+                    // Ones from before this Client's first key can't be read
+                    String[] parts = inputLine.split(" ", 3);
+                    long seq;
+                    try
                     {
-                        // New Client joined Server
-                        // Do key exchange again
-                        if (inputLine.equals(ClientKeyExchange.KEY))
-                        {
-                            exchangeThreads.clear();
-                            for (int i = 0; i < 3; i++)
-                            {
-                                for (int j = 0; j < 3; j++)
-                                {
-                                    ClientExchangeThread u = new ClientExchangeThread(this, i, j);
-                                    u.start();
-                                    u.setName("F");
-                                    exchangeThreads.add(u);
-                                }
-                            }
-                            for (ClientExchangeThread t : exchangeThreads)
-                            {
-                                t.join();
-                            }
-                            encryptor = new Encryptor(ex);
-
-                        } else if (inputLine.equals("CLOSED"))
-                        {
-                            messageArea.append("Server is closed\n");
-                            textField.setEditable(false);
-                        } else if (!inputLine.equals("NO")) messageArea.append(encryptor.decrypt(inputLine) + "\n");
+                        seq = parts.length == 3 ? Long.parseLong(parts[0]) : 0;
+                    } catch (NumberFormatException f)
+                    {
+                        seq = 0;
                     }
+                    // Already received before resuming
+                    if (seq <= lastSeq) continue;
+                    lastSeq = seq;
 
+                    Encryptor e = keyFor(parts[1]);
+                    if (e != null) listener.messageReceived(new Message(parts[2], e));
+                    confirm(parts[1] + " " + parts[2]);
                 }
-            } catch (IOException e)
-            {
-                e.printStackTrace();
+
             }
+            sender.close();
             out.println("END");
         } catch (UnknownHostException e)
         {
             // Can't connect to host
-            JOptionPane.showMessageDialog(null, "Don't know about host " + serverAddress);
-            textField.setEditable(false);
+            listener.connectionFailed("Don't know about host " + serverAddress);
         } catch (IOException e)
         {
             // Socket is closed
-            JOptionPane.showMessageDialog(null, "Couldn't get I/O for the connection to host " + serverAddress);
-            textField.setEditable(false);
+            listener.connectionFailed("Couldn't get I/O for the connection to host " + serverAddress);
         } catch (Exception e)
         {
             e.printStackTrace();
@@ -220,114 +312,511 @@ public class Client extends Thread {
     }
 
     /**
-     * Prompt for and save the desired screen name.
+     * Connect to the server and join the chat.
+     * The name is sent with the first line, so the server can keep it while key exchange is carried out,
+     * and say it was accepted along with the id; only if it is in use is another chosen afterwards.
+     * Gives the ticket, if there is one, so the server sends the messages missed since the connection dropped.
+     * @param first name to ask for first, or null to ask the listener
+     * @return      true if the server accepted a name;
+     *              false if the listener gave up
+     * @throws IOException
+     * @throws InterruptedException
      */
-    public void getUserName()
+    public boolean joinChat(String first) throws IOException, InterruptedException
     {
-        String input;
-        try
+        String n = first != null ? first : listener.chooseName(null);
+        if (n == null) return false;
+
+        // Establish connection
+        socket = transport.connect(0);
+        // Ciphertext uses characters outside ASCII, so don't rely on the platform charset
+        out    = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+        in     = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+
+        String t = ticket;
+        ticket   = null;
+        assigned = null;
+        out.println(ClientKeyExchange.HELLO + " " + ClientKeyExchange.VERSION + " " + (t == null ? "-" : t) + " " +
+                lastSeq + " " + URLEncoder.encode(n, StandardCharsets.UTF_8));
+
+        // Server lets Clients in together, and signals when this Client's key exchange starts
+        // It is either with every Client, or with one Client who then wraps a key for this one
+        // If the server abandons it because another Client stalled, it signals again
+        Encryptor old = encryptor;
+        while (encryptor == old)
         {
-            name =  JOptionPane.showInputDialog(
-                    null,
-                    (Object) ("Choose a screen name:"),
-                    "Screen name selection",
-                    JOptionPane.PLAIN_MESSAGE);
+            String signal = in.readLine();
+            if (signal == null) throw new IOException("Server closed before key exchange");
+            control(signal);
+        }
 
-            out.println(name);
+        if (assigned != null)
+        {
+            name = assigned;
+            this.setName(name);
+            return true;
+        }
+        // Name was in use; choose another, one round trip per attempt
+        String next = listener.chooseName(n);
+        return next != null && getUserName(next);
+    }
 
-            if (name == null)
+    /**
+     * Join the chat again after the connection dropped and the Client couldn't resume,
+     * because it missed a key or its ticket expired.
+     * Old keys are kept, so messages missed that were sent with them can be decrypted.
+     * The listener is told the connection was lost, and then that the Client is connected again.
+     * Messages not yet relayed, including those sent meanwhile, are sent again once it is.
+     * @return  true if the Client is back in the chat
+     * @throws InterruptedException
+     */
+    public boolean rejoin() throws InterruptedException
+    {
+        if (ticket == null) return false;
+
+        listener.disconnected("Lost connection to server, joining again");
+        joining = true;
+        try
+        {
+            if (!joinChat(getName())) return false;
+        } catch (IOException e)
+        {
+            return false;
+        }
+        // Send again the messages written while joining, and any the server may not have relayed;
+        // it relays each number only once
+        synchronized (unconfirmed)
+        {
+            joining = false;
+            for (String line : unconfirmed)
             {
-                System.exit(0);
-            } else {
-                while ((input = in.readLine()).equals("NO")) {
-                    name = JOptionPane.showInputDialog(
-                            null,
-                            "Choose a screen name:",
-                            "Screen name selection",
-                            JOptionPane.PLAIN_MESSAGE);
-                    out.println(name);
-                    if (name == null) System.exit(0);
-                }
+                toWrite.append(line).append('\n');
             }
+        }
+        flushPending();
+        listener.connected(name);
+        return open;
+    }
 
-        } catch (Exception e) {}
+    /**
+     * Carry out key exchange for all ClientKeyExchanges.
+     * The server runs one exchange at a time, accepting one connection from every Client,
+     * so each ExchangeThread must finish before the next one connects.
+     * Otherwise the server can pair up different ClientKeyExchanges of different Clients.
+     * @param threadName    name for the ExchangeThreads
+     * @return              true if all exchanges finished;
+     *                      false if the server abandoned one
+     * @throws InterruptedException
+     */
+    public boolean doExchange(String threadName) throws InterruptedException
+    {
+        exchangeThreads.clear();
+        for (int i = 0; i < 3; i++)
+        {
+            for (int j = 0; j < 3; j++)
+            {
+                ClientExchangeThread t = new ClientExchangeThread(this, i, j);
+                t.setName(threadName);
+                exchangeThreads.add(t);
+                t.start();
+                t.join();
+                if (!t.done) return false;
+            }
+        }
+        return true;
+    }
 
-        this.setName(name);
-        textField.setEditable(true);
+    /**
+     * Start a key exchange in the background.
+     * Messages are still sent with the old key until the server confirms the new one.
+     * @param threadName    name for the ExchangeThreads
+     * @param pairwise      true if the key is only for unwrapping the next key
+     * @throws InterruptedException
+     */
+    public void startRekey(final String threadName, final boolean pairwise) throws InterruptedException
+    {
+        // Server signals again only after the last exchange is over on its side
+        if (rekey != null) rekey.join();
+
+        pair = null;
+        if (!pairwise) pending = null;
+        rekey = new Thread(getName() + "Rekey")
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    // Keep the old key if it was abandoned; the server will signal again
+                    if (doExchange(threadName))
+                    {
+                        if (pairwise) pair = new Encryptor(ex);
+                        else pending = new Encryptor(ex);
+                    }
+                } catch (InterruptedException e) {}
+            }
+        };
+        rekey.setDaemon(true);
+        rekey.start();
     }
 
     /**
-     * Prompt for address of server to connect to
+     * Start using the key from the last exchange, once the server has confirmed every Client has it
+     * @param epoch number the server gave the key
+     * @throws InterruptedException
      */
-    public void getServerAddress()
+    public void useKey(int epoch) throws InterruptedException
     {
-        textField.setEditable(false);
-        serverAddress = JOptionPane.showInputDialog(
-                null,
-                "Enter IP Address of the server:",
-                "Welcome to the Chatter",
-                JOptionPane.QUESTION_MESSAGE);
-        if (serverAddress == null) System.exit(0);
+        // The server confirms once the last ExchangeThread is done; the Encryptor is only just being made
+        if (rekey != null) rekey.join();
+        Encryptor e = pending;
+        pending     = null;
+        if (e == null) return;
+
+        e.epoch = epoch;
+        synchronized (keys)
+        {
+            keys.put(epoch, e);
+            keys.remove(epoch - KEPT_EPOCHS - 1);
+        }
+        encryptor = e;
     }
 
     /**
-     * Prompt for port number of server to connect to
+     * Find the Encryptor for a message's epoch tag
+     * @param tag   epoch a message was tagged with
+     * @return      Encryptor with the key of that epoch, or null if this Client doesn't have it
      */
-    public void getPortNumber()
+    public Encryptor keyFor(String tag)
     {
-        String input = JOptionPane.showInputDialog(
-                null,
-                "Enter Port Number of the server:",
-                "Welcome to the Chatter",
-                JOptionPane.QUESTION_MESSAGE);
-
-        if (input == null) System.exit(0);
-        boolean isInt = true;
         try
         {
-            portNumber = Integer.parseInt(input);
-        } catch (Exception e)
+            synchronized (keys)
+            {
+                return keys.get(Integer.parseInt(tag));
+            }
+        } catch (NumberFormatException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Act on a line from the server that is about key exchange
+     * @param line  line from the server
+     * @return      true if the line was about key exchange
+     * @throws InterruptedException
+     */
+    public boolean control(String line) throws InterruptedException
+    {
+        if (line.equals(ClientKeyExchange.KEY))
+        {
+            // New Client joined Server
+            // Do key exchange again
+            startRekey(encryptor == null ? "E" : "F", false);
+            return true;
+        } else if (line.equals(ClientKeyExchange.PAIR))
+        {
+            // New Client joined Server, and gets the next key from this one or through this one
+            startRekey("P", true);
+            return true;
+        } else if (line.equals(ClientKeyExchange.WRAP))
         {
-            isInt = false;
-            while (!isInt)
+            sendWrappedKey();
+            return true;
+        } else if (line.startsWith(ClientKeyExchange.WRAP + " "))
+        {
+            unwrapKey(line);
+            return true;
+        } else if (line.startsWith(ClientKeyExchange.EPOCH + " "))
+        {
+            useKey(Integer.parseInt(line.substring(ClientKeyExchange.EPOCH.length() + 1)));
+            return true;
+        } else if (line.startsWith(ClientKeyExchange.ID + " "))
+        {
+            String[] parts = line.split(" ");
+            id = Integer.parseInt(parts[1]);
+            if (parts.length > 2) assigned = URLDecoder.decode(parts[2], StandardCharsets.UTF_8);
+            return true;
+        } else if (line.equals(ClientKeyExchange.PING))
+        {
+            // Server checking this Client is still there
+            out.println(ClientKeyExchange.PONG);
+            return true;
+        } else if (line.startsWith(ClientKeyExchange.TICKET + " "))
+        {
+            String[] parts = line.split(" ");
+            ticketWindow   = Integer.parseInt(parts[2]);
+            ticket         = parts[1];
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Get back into the chat after the connection dropped, using the ticket from the server.
+     * Keeps the name and key, so the other Clients don't have to carry out key exchange again.
+     * Keeps trying until the server answers or the ticket expires.
+     * @return  true if the server let this Client back in;
+     *          false if there is no ticket, or the Client has to join again
+     * @throws InterruptedException
+     */
+    public boolean resumeSession() throws InterruptedException
+    {
+        // The server gives a new ticket if it lets this Client back in; otherwise this one is used to join again
+        String t = ticket;
+        // Missed a key while disconnected, or was in the middle of changing key
+        if (t == null || encryptor == null || pending != null || pair != null) return false;
+
+        long end = System.currentTimeMillis() + ticketWindow;
+        while (open && System.currentTimeMillis() < end)
+        {
+            Socket s = null;
+            try
             {
-                try
+                s = transport.connect(RESUME_TIMEOUT);
+                s.setSoTimeout(RESUME_TIMEOUT);
+                PrintWriter o    = new PrintWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8), true);
+                BufferedReader i = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+                o.println(ClientKeyExchange.RESUME + " " + t + " " + encryptor.epoch + " " + lastSeq);
+
+                String answer = i.readLine();
+                if (answer == null || !answer.startsWith(ClientKeyExchange.RESUMED + " "))
                 {
-                    input = JOptionPane.showInputDialog(
-                            null,
-                            "Enter Port Number of the server:",
-                            "Welcome to the Chatter",
-                            JOptionPane.QUESTION_MESSAGE);
-                    if (input == null) System.exit(0);
-                    portNumber = Integer.parseInt(input);
-                    isInt      = true;
-                } catch (Exception e1)
+                    s.close();
+                    return false;
+                }
+                long relayed = Long.parseLong(answer.substring(ClientKeyExchange.RESUMED.length() + 1));
+                s.setSoTimeout(0);
+                socket = s;
+
+                // Send again the messages the server didn't relay; the frames missed follow the answer
+                synchronized (unconfirmed)
                 {
-                    isInt = false;
+                    out = o;
+                    in  = i;
+                    // Lines waiting for the old connection are among these
+                    toWrite.setLength(0);
+                    for (Iterator<String> it = unconfirmed.iterator(); it.hasNext(); )
+                    {
+                        String line = it.next();
+                        if (Long.parseLong(line.substring(0, line.indexOf(' '))) <= relayed) it.remove();
+                        else toWrite.append(line).append('\n');
+                    }
                 }
+                flushPending();
+                // disconnect() was called meanwhile
+                if (!open) s.close();
+                return true;
+            } catch (IOException e)
+            {
+                // Server not reachable yet
+                try
+                {
+                    if (s != null) s.close();
+                } catch (IOException f) {}
+                Thread.sleep(RETRY_DELAY);
             }
         }
+        return false;
     }
 
     /**
-     * Sends encrypted message to server with name of client attached
-     * @param s message to send
+     * Make a new key for Clients joining, and send it to the server encrypted with the key from the
+     * PAIR exchange, for the Clients joining, and with the current key, for every other Client.
+     * The server only sees the encrypted values.
+     * @throws InterruptedException
      */
-    public void sendMessage(String s)
+    public void sendWrappedKey() throws InterruptedException
     {
-        s = getName() + ": " + s;
-        s = encryptor.encrypt(s);
+        if (rekey != null) rekey.join();
+        Encryptor p = pair;
+        Encryptor g = encryptor;
+        // PAIR exchange was abandoned; the server will give up on this Client
+        if (p == null || g == null) return;
+
+        int[] next = Encryptor.generateKeyValues(random);
+        String s   = ClientKeyExchange.WRAP;
+        for (int v : p.wrap(next)) s += " " + v;
+        for (int v : g.wrap(next)) s += " " + v;
         out.println(s);
     }
 
     /**
-     * Sends encrypted message to server without name of client attached
+     * Get the next key from the values a sponsoring Client sent with sendWrappedKey.
+     * It is used once the server confirms it, like a key from key exchange.
+     * @param line  WRAP line from the server
+     * @throws InterruptedException
+     */
+    public void unwrapKey(String line) throws InterruptedException
+    {
+        if (rekey != null) rekey.join();
+        String[] parts = line.split(" ");
+        if (parts.length != 19) return;
+
+        // Clients in the PAIR exchange use the first values; the others use the second
+        Encryptor p = pair;
+        Encryptor g = p != null ? p : encryptor;
+        int offset  = p != null ? 1 : 10;
+        pair        = null;
+        if (g == null) return;
+
+        int[] values = new int[9];
+        for (int i = 0; i < 9; i++)
+        {
+            values[i] = Integer.parseInt(parts[offset + i]);
+        }
+        pending = new Encryptor(g.unwrap(values));
+    }
+
+    /**
+     * Ask the listener for a screen name and send it until the server accepts one.
+     * Key exchanges for other Clients joining meanwhile are carried out as well.
+     * @param first name to send first, or null to ask the listener
+     * @return      true if the server accepted a name;
+     *              false if the listener gave up or the connection ended
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    public boolean getUserName(String first) throws IOException, InterruptedException
+    {
+        String input;
+        name = first != null ? first : listener.chooseName(null);
+
+        while (name != null)
+        {
+            out.println(name);
+            input = in.readLine();
+
+            // Messages for the chat are not for this Client yet
+            while (input != null && !input.equals("NO") && !input.equals("OK"))
+            {
+                control(input);
+                input = in.readLine();
+            }
+
+            if (input == null) return false;
+            if (input.equals("OK"))
+            {
+                this.setName(name);
+                return true;
+            }
+            name = listener.chooseName(name);
+        }
+        return false;
+    }
+
+    /**
+     * Sends encrypted message to server with name of client attached.
+     * Only queues it, so never waits; the listener is told what happens to it.
      * @param s message to send
+     * @return  number of the message, or 0 if too many messages are waiting
      */
-    public void sendMessageA(String s)
+    public long sendMessage(String s)
     {
-        s = encryptor.encrypt(s);
-        out.println(s);
+        return sendMessageA(getName() + ": " + s);
+    }
+
+    /**
+     * Sends encrypted message to server without name of client attached.
+     * Only queues it, so never waits; the listener is told what happens to it.
+     * @param s message to send
+     * @return  number of the message, or 0 if too many messages are waiting
+     */
+    public long sendMessageA(String s)
+    {
+        return sender.add(s);
+    }
+
+    /**
+     * Encrypt and write messages from the Sender, with one flush.
+     * Each is kept until the server relays it back, so it can be sent again after resuming.
+     * @param batch messages in order of their numbers
+     * @return      true if they were written, or kept to be written once the connection is back;
+     *              false if the Client is closed or has no key
+     */
+    boolean write(ArrayList<Sender.Outgoing> batch)
+    {
+        // Tag with the key's epoch, so others can decrypt it even after they change key
+        // Number it, so it can be sent again after resuming without being relayed twice
+        Encryptor e = encryptor;
+        if (!open || e == null) return false;
+
+        // Encrypted before taking the lock, so receiving isn't held up; written after letting go of it
+        String[] lines = new String[batch.size()];
+        for (int i = 0; i < lines.length; i++)
+        {
+            Sender.Outgoing o = batch.get(i);
+            lines[i]          = o.number + " " + e.epoch + " " + e.encrypt(o.text);
+        }
+
+        synchronized (unconfirmed)
+        {
+            for (String line : lines)
+            {
+                unconfirmed.add(line);
+                if (unconfirmed.size() > MAX_UNCONFIRMED) unconfirmed.poll();
+                // The server would take them for a name
+                if (!joining) toWrite.append(line).append('\n');
+            }
+        }
+        flushPending();
+        return true;
+    }
+
+    /**
+     * Write the lines queued in toWrite to the current connection, with one flush.
+     * The lock on unconfirmed is only held to take them, so a write waiting on the network
+     * never holds up receiving.
+     */
+    void flushPending()
+    {
+        synchronized (writeLock)
+        {
+            String all;
+            PrintWriter o;
+            synchronized (unconfirmed)
+            {
+                if (toWrite.length() == 0) return;
+                all = toWrite.toString();
+                o   = out;
+                toWrite.setLength(0);
+            }
+            o.print(all);
+            o.flush();
+        }
+    }
+
+    /**
+     * Check whether a frame from the server is a message from this Client, and if so tell the listener
+     * it was delivered. It no longer needs to be kept, nor do messages sent before it, since the server
+     * relays each Client's messages in order.
+     * @param message   frame without its sequence number: the epoch, then the encrypted message
+     */
+    void confirm(String message)
+    {
+        long number = 0;
+        synchronized (unconfirmed)
+        {
+            int found = 0;
+            for (String line : unconfirmed)
+            {
+                found++;
+                int space = line.indexOf(' ');
+                if (line.length() - space - 1 == message.length() &&
+                        line.regionMatches(space + 1, message, 0, message.length()))
+                {
+                    number = Long.parseLong(line.substring(0, space));
+                    break;
+                }
+            }
+            if (number == 0) return;
+            for (; found > 0; found--)
+            {
+                unconfirmed.poll();
+            }
+        }
+        listener.messageStatus(number, Sender.Status.DELIVERED);
     }
 
     /**
@@ -337,4 +826,29 @@ public class Client extends Thread {
     {
         sendMessageA(this.getName() + " has left the chat");
     }
+
+    /**
+     * Leave the chat and close the connection.
+     * The listener is not told about the closed connection.
+     */
+    public void disconnect()
+    {
+        boolean wasOpen = open;
+        try
+        {
+            // Messages already sent go out before leaving
+            if (wasOpen && encryptor != null)
+            {
+                sendEndMessage();
+                sender.drain(SEND_TIMEOUT);
+            }
+        } catch (InterruptedException e) {}
+        open = false;
+        sender.close();
+        try
+        {
+            out.println("END");
+            socket.close();
+        } catch (Exception e) {}
+    }
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package client;
 
 import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.Socket;
@@ -34,6 +35,11 @@ public class ClientExchangeThread extends Thread {
      * Coordinates of ExchangeThread's private values
      */
     int x, y;
+    /**
+     * Whether the exchange finished.
+     * False if the server abandoned it.
+     */
+    volatile boolean done = false;
 
     /**
      * Constructor for ClientExchangeThread
@@ -60,9 +66,11 @@ public class ClientExchangeThread extends Thread {
         try
         {
             // Open new connection with server specifically for exchange
-            socket           = new Socket(client.serverAddress, client.portNumber);
+            socket           = client.transport.connect(0);
+            socket.setTcpNoDelay(true);
             out              = new PrintWriter(socket.getOutputStream(), true);
             in               = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            out.println(ClientKeyExchange.EXCHANGE + " " + client.id + " " + (x * 3 + y));
             String inputLine = in.readLine();
 
             // As long as the server does not signal the exchange as over, keep waiting for new information
@@ -88,15 +96,23 @@ public class ClientExchangeThread extends Thread {
                     inputLine = in.readLine();
                 }
             }
+            // Server gave up on the exchange
+            if (inputLine == null) throw new EOFException("Exchange abandoned");
 
             // Shift key to private variable
             client.ex[x][y].exDone();
-            // Allow Client thread to continue
-            client.lock.unlock();
-            socket.close();
+            done = true;
         } catch (Exception e)
         {
-            e.printStackTrace();
+            // Server abandoned the exchange, or went away; done stays false
+        } finally
+        {
+            // Allow Client thread to continue
+            client.lock.unlock();
+            try
+            {
+                if (socket != null) socket.close();
+            } catch (Exception e) {}
         }
     }
 }
\ No newline at end of file
@@ -1,5 +1,8 @@
 package client;
 
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
 /**
  * Client side of key exchange.
  * Processing methods and information storage for key exchange.
@@ -39,6 +42,88 @@ public class ClientKeyExchange {
      * Signal from server that key exchange is not done
      */
     public static final String CONTINUE = "CONTINUE";
+    /**
+     * First line sent by a Client on its connection to the server.
+     * A Client joining again after its connection dropped follows it with its ticket and the sequence number
+     * of the last frame it received, and is sent the frames it missed once it is in.
+     */
+    public static final String JOIN = "JOIN";
+    /**
+     * First line sent by a Client joining that chooses its name before connecting, followed by VERSION,
+     * its ticket or "-", the sequence number of the last frame it received, and the names it would take
+     * in order of preference, each URL encoded. The server keeps the first name not in use for it while
+     * the key exchange runs, and gives it after the id in ID; with no name after the id, every name was
+     * in use, and the Client chooses one once it has the key, as after JOIN.
+     */
+    public static final String HELLO = "HELLO";
+    /**
+     * Version of the lines sent after HELLO; the server answers NO to other versions
+     */
+    public static final int VERSION = 1;
+    /**
+     * First line sent by a Client ExchangeThread on its connection to the server,
+     * followed by the Client's id and the number (0 to 8) of the exchange it is for
+     */
+    public static final String EXCHANGE = "EXCHANGE";
+    /**
+     * Line from server giving a Client the id its ExchangeThreads send after EXCHANGE,
+     * and, to a Client that sent HELLO, the name kept for it
+     */
+    public static final String ID = "ID";
+    /**
+     * Line from server, followed by a number, confirming that every Client has the key from the last exchange.
+     * Messages sent with that key are tagged with the number.
+     */
+    public static final String EPOCH = "EPOCH";
+    /**
+     * Signal from server to carry out key exchange with only the joining Clients and one sponsoring Client
+     */
+    public static final String PAIR = "PAIRKEY";
+    /**
+     * Signal from server asking the sponsoring Client for a new key.
+     * The sponsor answers with WRAP followed by the new key's values encrypted with the key from the
+     * PAIR exchange, then with the current key; the server sends the answer on to every Client.
+     */
+    public static final String WRAP = "WRAPKEY";
+    /**
+     * Line from server, followed by a ticket and the milliseconds it is kept after the connection drops.
+     * A Client whose connection drops sends RESUME, the ticket, the epoch of its key and the sequence number
+     * of the last frame it received on a new connection. The server answers RESUMED and the number of the last
+     * message from the Client it relayed, then sends the frames missed; or answers NO if the Client has to join again.
+     * The ticket can also be given with JOIN.
+     */
+    public static final String TICKET = "TICKET";
+    /**
+     * First line sent by a Client getting back into the chat after its connection dropped
+     */
+    public static final String RESUME = "RESUME";
+    /**
+     * Line from server letting a Client back into the chat with the same name and key
+     */
+    public static final String RESUMED = "RESUMED";
+    /**
+     * Line from server before it disconnects a Client for sending more than its rate limit.
+     * The Client does not resume or join again.
+     */
+    public static final String LIMITED = "LIMITED";
+    /**
+     * Line from server before it disconnects a Client kicked by an admin.
+     * The Client does not resume or join again.
+     */
+    public static final String KICKED = "KICKED";
+    /**
+     * Line from server to a Client that has sent nothing for a while; the Client answers PONG
+     */
+    public static final String PING = "PING";
+    /**
+     * Answer from a Client to PING
+     */
+    public static final String PONG = "PONG";
+    /**
+     * Line sent before the first line of every connection to a node of a cluster, followed by the URL encoded
+     * name of the chat room; the node passes the connection to the node the room is placed on
+     */
+    public static final String ROOM = "ROOM";
 
     /**
      * Constructor for ClientKeyExchange
@@ -48,12 +133,30 @@ public class ClientKeyExchange {
         generatePrivateVal();
     }
 
+    /**
+     * Constructor for ClientKeyExchange with a private value from the given source of randomness
+     * @param random    where the private value comes from
+     */
+    public ClientKeyExchange(Random random)
+    {
+        generatePrivateVal(random);
+    }
+
     /**
      * Generate a random private value for key exchange
      */
     public void generatePrivateVal()
     {
-        val = (int) (Math.random() * 1000) + 10;
+        generatePrivateVal(ThreadLocalRandom.current());
+    }
+
+    /**
+     * Generate a private value for key exchange from the given source of randomness
+     * @param random    where the value comes from
+     */
+    public void generatePrivateVal(Random random)
+    {
+        val = random.nextInt(1000) + 10;
     }
 
     /**
@@ -0,0 +1,56 @@
+package client;
+
+/**
+ * Receives events from a Client.
+ * Methods are called on the Client's own Thread, except where noted.
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+
+public interface ClientListener
+{
+    /**
+     * Choose a screen name to send to the server.
+     * The first is chosen before connecting, and sent with the first line, so joining takes no extra round trip.
+     * @param rejected  name the server refused because it is already in use, or null for the first name
+     * @return          name to send, or null to give up and disconnect
+     */
+    String chooseName(String rejected);
+
+    /**
+     * Called once the server has accepted the screen name and messages can be sent.
+     * Called again if the Client joins again after its connection dropped.
+     * @param name  screen name accepted by the server
+     */
+    void connected(String name);
+
+    /**
+     * Called for each message relayed by the server.
+     * The message is decrypted when its text is first asked for.
+     * @param message   message received
+     */
+    void messageReceived(Message message);
+
+    /**
+     * Called when a message sent with Client.sendMessage is written, relayed back by the server, or can't be sent.
+     * Called on the Client's own Thread or its Sender's.
+     * @param number    number returned by Client.sendMessage
+     * @param status    what happened to the message
+     */
+    void messageStatus(long number, Sender.Status status);
+
+    /**
+     * Called when the server closes or the connection is lost.
+     * If the Client is joining again, connected is called once it is back in.
+     * Not called when the Client is disconnected with Client.disconnect().
+     * @param reason    description of why the connection ended
+     */
+    void disconnected(String reason);
+
+    /**
+     * Called when a connection to the server could not be opened
+     * @param reason    description of the failure
+     */
+    void connectionFailed(String reason);
+}
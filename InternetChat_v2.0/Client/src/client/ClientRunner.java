@@ -10,10 +10,9 @@ public class ClientRunner
 {
     public static void main(String[] args)
     {
-        Client client      = new Client();
-        ClientUI w         = new ClientUI(client);
-        client.messageArea = w.messageArea;
-        client.textField   = w.textField;
-        client.start();
+        ClientUI w           = new ClientUI();
+        String serverAddress = w.getServerAddress();
+        int portNumber       = w.getPortNumber();
+        w.connect(serverAddress, portNumber);
     }
 }
@@ -1,19 +1,21 @@
 package client;
 
 import javax.swing.*;
-import javax.swing.text.DefaultCaret;
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 
 /**
- * UI for client end of Chat
+ * UI for client end of Chat.
+ * Listens to its Client and shows what it receives.
  *
  * @author Caroline Zeng
  * @version 2.0.0
  */
 
-public class ClientUI extends JFrame {
+public class ClientUI extends JFrame implements ClientListener {
     /**
      * Panel to hold reconnection info collection
      */
@@ -47,62 +49,43 @@ public class ClientUI extends JFrame {
      */
     JTextField textField = new JTextField(50);
     /**
-     * Messages sent to everyone
+     * Shows what happened to the last message sent
      */
-    JTextArea messageArea = new JTextArea(8, 40);
+    JLabel status = new JLabel(" ");
+    /**
+     * Number of the last message sent; only used on the event dispatch thread
+     */
+    long lastSent = 0;
+    /**
+     * Messages sent to everyone.
+     * Decrypted when first shown.
+     */
+    MessageListModel messages = new MessageListModel();
+    /**
+     * Shows messages; only visible rows are laid out
+     */
+    JList<Message> messageList = new JList<>(messages);
     /**
      * Client object for UI.
      * Handles all connection and networking
      */
     static Client client;
 
-    /**
-     * ActionListener for server reconnection
-     */
-    private static abstract class ConnectActionListener implements ActionListener
-    {
-        JTextField textField;
-        JTextArea messageArea;
-        /**
-         * Constructor for ConnectActionListener
-         * @param t JTextField for user input of messages to send
-         * @param m JTextArea displaying all messages sent thus far
-         */
-        public ConnectActionListener(JTextField t, JTextArea m)
-        {
-            textField   = t;
-            messageArea = m;
-        }
-    }
-
     /**
      * Constructor for ClientUI
-     * @param c client connected to server
      */
-    public ClientUI(Client c)
+    public ClientUI()
     {
-        client = c;
-        messageArea.setEditable(false);
         textField.setEditable(false);
 
         // Add an ActionListener that makes a new client tied to this ClientUI
         // Effectively just connects to a new server
-        connect.addActionListener(new ConnectActionListener(textField, messageArea)
+        connect.addActionListener(new ActionListener()
         {
             public void actionPerformed(ActionEvent e)
             {
-                try {
-                    client.sendEndMessage();
-                    client.out.println("END");
-                } catch (Exception f) {}
-                client.open        = false;
-                String hostName    = serverName.getText();
-                int portNumber     = (int) port.getValue();
-                client             = new Client(new String[] {hostName, "" + portNumber});
-                client.textField   = this.textField;
-                client.messageArea = messageArea;
-                client.start();
-                textField.setEditable(true);
+                if (client != null) client.disconnect();
+                connect(serverName.getText(), (int) port.getValue());
             }
         });
 
@@ -112,11 +95,7 @@ public class ClientUI extends JFrame {
             @Override
             public void actionPerformed(ActionEvent e)
             {
-                try
-                {
-                    client.sendEndMessage();
-                    client.out.println("END");
-                } catch (Exception n) {}
+                if (client != null) client.disconnect();
                 System.exit(0);
             }
         });
@@ -141,13 +120,22 @@ public class ClientUI extends JFrame {
         // Responds to pressing the enter key in the textfield by sending
         // the contents of the text field to the server.
         // Then clear the text area in preparation for the next message.
+        // The Client only queues it, so typing is never held up by the network
         textField.addActionListener(new ActionListener()
         {
             public void actionPerformed(ActionEvent e)
             {
                 String s = textField.getText();
-                client.sendMessage(s);
-                textField.setText("");
+                lastSent = client.sendMessage(s);
+                if (lastSent > 0)
+                {
+                    status.setText("Sending...");
+                    textField.setText("");
+                } else
+                {
+                    // Keep the text so it can be sent again
+                    status.setText("Not sent: too many messages waiting");
+                }
             }
         });
 
@@ -176,18 +164,173 @@ public class ClientUI extends JFrame {
         server.add(connect);
 
         t.add(textField);
+        t.add(status);
         t.add(help);
         t.add(quit);
 
-        DefaultCaret caret = (DefaultCaret)messageArea.getCaret();
-        caret.setUpdatePolicy(DefaultCaret.ALWAYS_UPDATE);
+        // Fixed cell sizes keep JList from rendering every row to measure the list
+        // Cells still stretch to the width of the list
+        messageList.setFixedCellHeight(messageList.getFontMetrics(messageList.getFont()).getHeight() + 2);
+        messageList.setFixedCellWidth(100);
+        messageList.setVisibleRowCount(8);
+
+        // Follow new messages, unless the user has scrolled back
+        messages.addListDataListener(new ListDataListener()
+        {
+            @Override
+            public void intervalAdded(final ListDataEvent e)
+            {
+                if (messageList.getLastVisibleIndex() >= e.getIndex0() - 1)
+                {
+                    // Scroll once the list has been resized for the new rows
+                    SwingUtilities.invokeLater(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            messageList.ensureIndexIsVisible(messages.getSize() - 1);
+                        }
+                    });
+                }
+            }
+
+            @Override
+            public void intervalRemoved(ListDataEvent e) {}
+
+            @Override
+            public void contentsChanged(ListDataEvent e) {}
+        });
 
         getContentPane().add(server, "East");
         getContentPane().add(t, "North");
-        getContentPane().add(new JScrollPane(messageArea), "Center");
+        getContentPane().add(new JScrollPane(messageList), "Center");
 
         pack();
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setVisible(true);
     }
+
+    /**
+     * Make a new Client tied to this ClientUI and connect it to a server
+     * @param serverAddress IP address or name of server
+     * @param portNumber    Server port number
+     */
+    public void connect(String serverAddress, int portNumber)
+    {
+        textField.setEditable(false);
+        client = new Client(serverAddress, portNumber, this);
+        client.start();
+    }
+
+    /**
+     * Prompt for and return the desired screen name.
+     * Closes the program if the user cancels.
+     * @param rejected  name already in use on the server, or null
+     * @return          name input by user
+     */
+    @Override
+    public String chooseName(String rejected)
+    {
+        String name = JOptionPane.showInputDialog(
+                null,
+                "Choose a screen name:",
+                "Screen name selection",
+                JOptionPane.PLAIN_MESSAGE);
+        if (name == null) System.exit(0);
+        return name;
+    }
+
+    @Override
+    public void connected(String name)
+    {
+        setEditable(true);
+    }
+
+    @Override
+    public void messageReceived(Message message)
+    {
+        messages.add(message);
+    }
+
+    @Override
+    public void messageStatus(final long number, final Sender.Status status)
+    {
+        SwingUtilities.invokeLater(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if (status == Sender.Status.FAILED) ClientUI.this.status.setText("Not sent");
+                else if (number == lastSent) ClientUI.this.status.setText(status == Sender.Status.SENT ? "Sent" : "Delivered");
+            }
+        });
+    }
+
+    @Override
+    public void disconnected(String reason)
+    {
+        messages.add(new Message(reason));
+        setEditable(false);
+    }
+
+    @Override
+    public void connectionFailed(String reason)
+    {
+        JOptionPane.showMessageDialog(null, reason);
+        setEditable(false);
+    }
+
+    /**
+     * Allow or stop typing messages, from any Thread
+     * @param editable  whether messages can be typed
+     */
+    private void setEditable(final boolean editable)
+    {
+        SwingUtilities.invokeLater(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                textField.setEditable(editable);
+            }
+        });
+    }
+
+    /**
+     * Prompt for address of server to connect to.
+     * Closes the program if the user cancels.
+     * @return  IP address or name of server
+     */
+    public String getServerAddress()
+    {
+        String serverAddress = JOptionPane.showInputDialog(
+                null,
+                "Enter IP Address of the server:",
+                "Welcome to the Chatter",
+                JOptionPane.QUESTION_MESSAGE);
+        if (serverAddress == null) System.exit(0);
+        return serverAddress;
+    }
+
+    /**
+     * Prompt for port number of server to connect to.
+     * Keeps prompting until a number is given, and closes the program if the user cancels.
+     * @return  Server port number
+     */
+    public int getPortNumber()
+    {
+        while (true)
+        {
+            String input = JOptionPane.showInputDialog(
+                    null,
+                    "Enter Port Number of the server:",
+                    "Welcome to the Chatter",
+                    JOptionPane.QUESTION_MESSAGE);
+            if (input == null) System.exit(0);
+            try
+            {
+                return Integer.parseInt(input);
+            } catch (NumberFormatException e) {}
+        }
+    }
 }
\ No newline at end of file
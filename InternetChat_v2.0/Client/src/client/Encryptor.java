@@ -1,5 +1,8 @@
 package client;
 
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
 /**
  * Encrypts and decrypts Strings
  *
@@ -17,6 +20,10 @@ public class Encryptor extends ClientKeyExchange {
      */
     private float[][] inv;
     Matrices mat;
+    /**
+     * Number the server gave the key; sent in front of every message encrypted with it
+     */
+    int epoch;
 
     /**
      * Constructor for encryptor.
@@ -28,9 +35,98 @@ public class Encryptor extends ClientKeyExchange {
         mat = new Matrices();
         key = new float[3][3];
         getKey(ex);
+        makeInvertible();
+        inv = mat.matModInv(key);
+    }
+
+    /**
+     * Constructor for an Encryptor with key values that did not come from a key exchange,
+     * such as a key wrapped for this Client by another
+     * @param values    9 key values, row by row
+     */
+    public Encryptor(int[] values)
+    {
+        mat = new Matrices();
+        key = new float[3][3];
+        for (int i = 0; i < 9; i++)
+        {
+            key[i / 3][i % 3] = values[i];
+        }
         inv = mat.matModInv(key);
     }
 
+    /**
+     * Generate random key values for a new Encryptor
+     * @return  9 key values, row by row, whose matrix can be inverted (mod 97)
+     */
+    public static int[] generateKeyValues()
+    {
+        return generateKeyValues(ThreadLocalRandom.current());
+    }
+
+    /**
+     * Generate key values for a new Encryptor from the given source of randomness
+     * @param random    where the values come from
+     * @return          9 key values, row by row, whose matrix can be inverted (mod 97)
+     */
+    public static int[] generateKeyValues(Random random)
+    {
+        Matrices m = new Matrices();
+        float[][] k;
+        do
+        {
+            k = m.generateKey(3, random);
+        } while ((int) m.getDet(k) % 97 == 0);
+
+        int[] values = new int[9];
+        for (int i = 0; i < 9; i++)
+        {
+            values[i] = (int) k[i / 3][i % 3];
+        }
+        return values;
+    }
+
+    /**
+     * Encrypts key values using key, to send another key to Clients with this one
+     * @param values    9 key values
+     * @return          9 encrypted values
+     */
+    public int[] wrap(int[] values)
+    {
+        return apply(key, values);
+    }
+
+    /**
+     * Decrypts key values encrypted with wrap
+     * @param values    9 encrypted values
+     * @return          9 key values
+     */
+    public int[] unwrap(int[] values)
+    {
+        return apply(inv, values);
+    }
+
+    /**
+     * Multiply key values by a matrix, 3 at a time, as encrypt and decrypt do with characters
+     * @param m         key or inverse of key
+     * @param values    9 values
+     * @return          9 resulting values
+     */
+    private int[] apply(float[][] m, int[] values)
+    {
+        int[] ret = new int[9];
+        for (int i = 0; i < 3; i++)
+        {
+            float[][] part = mat.matrixMultiply(m, new float[][] {{values[3 * i], values[3 * i + 1], values[3 * i + 2]}});
+            part           = mat.modMat(part, 97);
+            for (int j = 0; j < 3; j++)
+            {
+                ret[3 * i + j] = (int) part[0][j];
+            }
+        }
+        return ret;
+    }
+
     /**
      * Encrypts a String using key
      * @param s message to encrypt
@@ -82,4 +178,16 @@ public class Encryptor extends ClientKeyExchange {
             }
         }
     }
+
+    /**
+     * Changes key values from a key exchange that give a key with no inverse (mod 97), about 1 time in 97.
+     * Every Client changes the same values the same way, so they still share the key.
+     */
+    private void makeInvertible()
+    {
+        for (int i = 0; (int) mat.getDet(key) % 97 == 0; i = (i + 1) % 3)
+        {
+            key[i][i] = (key[i][i] + 1) % 97;
+        }
+    }
 }
\ No newline at end of file
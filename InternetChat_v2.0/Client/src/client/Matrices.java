@@ -1,6 +1,8 @@
 package client;
 
 import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Operations on matrices
@@ -355,6 +357,17 @@ public class Matrices {
      * @return          a dimension x dimension matrix of random values
      */
     public float[][] generateKey(int dimension)
+    {
+        return generateKey(dimension, ThreadLocalRandom.current());
+    }
+
+    /**
+     * Generates a key matrix from the given source of randomness
+     * @param dimension size of key matrix
+     * @param random    where the values come from
+     * @return          a dimension x dimension matrix of random values
+     */
+    public float[][] generateKey(int dimension, Random random)
     {
         float det = 0;
         float[][] key = new float[dimension][dimension];
@@ -365,7 +378,7 @@ public class Matrices {
             {
                 for (int y = 0; y < dimension; y++)
                 {
-                    key[x][y] = (int)(Math.random() * 97);
+                    key[x][y] = random.nextInt(97);
                 }
             }
             det = getDet(key);
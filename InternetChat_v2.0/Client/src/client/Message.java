@@ -0,0 +1,67 @@
+package client;
+
+/**
+ * Message received from the server.
+ * Holds the encrypted text and the Encryptor whose key it was sent with,
+ * and decrypts only when the text is first asked for.
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+
+public class Message
+{
+    /**
+     * Text as received from the server
+     */
+    String cipher;
+    /**
+     * Encryptor with the key the message was sent with
+     */
+    Encryptor encryptor;
+    /**
+     * Decrypted text; null until first asked for
+     */
+    String text;
+
+    /**
+     * Constructor for an encrypted Message
+     * @param cipher    text as received from the server
+     * @param encryptor Encryptor with the key the message was sent with
+     */
+    public Message(String cipher, Encryptor encryptor)
+    {
+        this.cipher    = cipher;
+        this.encryptor = encryptor;
+    }
+
+    /**
+     * Constructor for a Message that is not encrypted, such as a notice from the Client
+     * @param text  text of message
+     */
+    public Message(String text)
+    {
+        this.text = text;
+    }
+
+    /**
+     * Get the decrypted text, decrypting it the first time
+     * @return  decrypted text
+     */
+    public String getText()
+    {
+        if (text == null)
+        {
+            text      = encryptor.decrypt(cipher);
+            cipher    = null;
+            encryptor = null;
+        }
+        return text;
+    }
+
+    @Override
+    public String toString()
+    {
+        return getText();
+    }
+}
@@ -0,0 +1,150 @@
+package client;
+
+import javax.swing.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayDeque;
+
+/**
+ * List of Messages for a JList.
+ * Messages can be added from any Thread; they are added to the list in batches on the event dispatch thread.
+ * Only the most recent Messages are kept, in a ring; older Messages are removed from the top.
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+
+public class MessageListModel extends AbstractListModel<Message>
+{
+    /**
+     * Version of the serialized form
+     */
+    private static final long serialVersionUID = 1L;
+    /**
+     * Number of Messages kept by default
+     */
+    public static final int MAX_MESSAGES = 100000;
+    /**
+     * Milliseconds between batches by default
+     */
+    public static final int FLUSH_DELAY = 50;
+
+    /**
+     * Messages in the list; the oldest is at start
+     */
+    Message[] ring;
+    /**
+     * Index in ring of the first Message in the list
+     */
+    int start;
+    /**
+     * Number of Messages in the list
+     */
+    int size;
+    /**
+     * Messages not yet in the list.
+     * Guarded by itself.
+     */
+    ArrayDeque<Message> pending = new ArrayDeque<>();
+    /**
+     * Adds pending Messages to the list on the event dispatch thread
+     */
+    Timer timer;
+
+    /**
+     * Constructor for MessageListModel with default limits
+     */
+    public MessageListModel()
+    {
+        this(MAX_MESSAGES, FLUSH_DELAY);
+    }
+
+    /**
+     * Constructor for MessageListModel
+     * @param maxMessages   most Messages kept
+     * @param delay         milliseconds between batches
+     */
+    public MessageListModel(int maxMessages, int delay)
+    {
+        ring  = new Message[maxMessages];
+        timer = new Timer(delay, new ActionListener()
+        {
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                flush();
+            }
+        });
+        timer.start();
+    }
+
+    /**
+     * Queue a Message to be added to the list.
+     * Can be called from any Thread.
+     * @param m Message to add
+     */
+    public void add(Message m)
+    {
+        synchronized (pending)
+        {
+            pending.add(m);
+            // Messages past the limit would be removed as soon as they are added
+            if (pending.size() > ring.length) pending.poll();
+        }
+    }
+
+    /**
+     * Add pending Messages to the list in one batch, removing the oldest Messages if the ring is full.
+     * Runs on the event dispatch thread.
+     */
+    void flush()
+    {
+        Message[] batch;
+        synchronized (pending)
+        {
+            if (pending.isEmpty()) return;
+            batch = pending.toArray(new Message[0]);
+            pending.clear();
+        }
+
+        int removed = Math.max(0, size + batch.length - ring.length);
+        if (removed > 0)
+        {
+            for (int i = 0; i < removed; i++)
+            {
+                ring[(start + i) % ring.length] = null;
+            }
+            start = (start + removed) % ring.length;
+            size -= removed;
+            fireIntervalRemoved(this, 0, removed - 1);
+        }
+
+        int first = size;
+        for (Message m : batch)
+        {
+            ring[(start + size) % ring.length] = m;
+            size++;
+        }
+        fireIntervalAdded(this, first, size - 1);
+    }
+
+    @Override
+    public int getSize()
+    {
+        return size;
+    }
+
+    @Override
+    public Message getElementAt(int index)
+    {
+        return ring[(start + index) % ring.length];
+    }
+
+    /**
+     * Stop adding Messages to the list
+     */
+    public void stop()
+    {
+        timer.stop();
+    }
+}
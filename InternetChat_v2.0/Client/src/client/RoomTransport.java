@@ -0,0 +1,65 @@
+package client;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reaches a chat room of a cluster through any of its nodes, over another Transport.
+ * Every connection first names the room, so the node can pass it to the node the room is on.
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+
+public class RoomTransport implements Transport
+{
+    /**
+     * Reaches a node of the cluster
+     */
+    Transport transport;
+    /**
+     * Name of the chat room
+     */
+    String room;
+
+    /**
+     * Constructor for RoomTransport
+     * @param transport reaches a node of the cluster
+     * @param room      name of the chat room
+     */
+    public RoomTransport(Transport transport, String room)
+    {
+        this.transport = transport;
+        this.room      = room;
+    }
+
+    /**
+     * Open a connection to the node, naming the room
+     * @param timeout   most milliseconds to wait for the node; 0 to wait forever
+     * @return          connected Socket, ready for the first line
+     * @throws IOException  if the node can't be reached
+     */
+    @Override
+    public Socket connect(int timeout) throws IOException
+    {
+        Socket s = transport.connect(timeout);
+        try
+        {
+            s.getOutputStream().write((ClientKeyExchange.ROOM + " " +
+                    URLEncoder.encode(room, StandardCharsets.UTF_8) + "\n").getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e)
+        {
+            s.close();
+            throw e;
+        }
+        return s;
+    }
+
+    @Override
+    public String toString()
+    {
+        return transport + " room " + room;
+    }
+}
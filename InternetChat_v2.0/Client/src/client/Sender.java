@@ -0,0 +1,206 @@
+package client;
+
+import java.util.ArrayList;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Encrypts and writes a Client's messages on its own Thread, so whoever sends them,
+ * such as the UI, never waits for the cipher or the network.
+ * Messages wait in a bounded queue, are numbered in the order they are queued,
+ * and are written in batches, with one flush per batch.
+ * The Client's listener is told when each message is written, when the server relays it back, or if it can't be sent.
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+
+public class Sender extends Thread
+{
+    /**
+     * What happened to a message
+     */
+    public enum Status
+    {
+        /**
+         * Written to the server, or kept to be written again once the connection is back
+         */
+        SENT,
+        /**
+         * Relayed by the server to every Client
+         */
+        DELIVERED,
+        /**
+         * Not sent, because too many messages were waiting or the Client is disconnected
+         */
+        FAILED
+    }
+
+    /**
+     * Most messages waiting to be sent
+     */
+    public static final int CAPACITY = 256;
+    /**
+     * Most messages written at once
+     */
+    public static final int BATCH = 32;
+
+    /**
+     * A message waiting to be sent
+     */
+    static class Outgoing
+    {
+        /**
+         * Number of the message; the server relays each number only once
+         */
+        long number;
+        /**
+         * Text of the message
+         */
+        String text;
+
+        /**
+         * Constructor for Outgoing
+         * @param number    number of the message
+         * @param text      text of the message
+         */
+        Outgoing(long number, String text)
+        {
+            this.number = number;
+            this.text   = text;
+        }
+    }
+
+    /**
+     * Client whose messages are sent
+     */
+    Client client;
+    /**
+     * Messages waiting, in order of their numbers
+     */
+    ArrayBlockingQueue<Outgoing> queue = new ArrayBlockingQueue<>(CAPACITY);
+    /**
+     * Number of messages queued and not yet written; guarded by this Sender
+     */
+    int unsent = 0;
+    /**
+     * Whether the Sender is closed; messages still waiting are not sent
+     */
+    volatile boolean closed = false;
+
+    /**
+     * Constructor for Sender
+     * @param client    Client whose messages are sent
+     */
+    public Sender(Client client)
+    {
+        this.client = client;
+        this.setName("Sender");
+        this.setDaemon(true);
+    }
+
+    /**
+     * Queue a message, numbering it after every message queued before it.
+     * Never waits.
+     * @param text  text of the message
+     * @return      number of the message, or 0 if it can't be queued
+     */
+    public long add(String text)
+    {
+        long number;
+        // Numbers go up in the order messages are written, or the server takes later ones for repeats
+        synchronized (queue)
+        {
+            if (!closed)
+            {
+                number = ++client.lastKey;
+                if (queue.offer(new Outgoing(number, text)))
+                {
+                    synchronized (this)
+                    {
+                        unsent++;
+                    }
+                    return number;
+                }
+            } else
+            {
+                number = 0;
+            }
+        }
+        if (number > 0) client.listener.messageStatus(number, Status.FAILED);
+        return 0;
+    }
+
+    /**
+     * Encrypt and write messages as they are queued, until closed
+     */
+    @Override
+    public void run()
+    {
+        ArrayList<Outgoing> batch = new ArrayList<>();
+        try
+        {
+            while (!closed)
+            {
+                batch.add(queue.take());
+                queue.drainTo(batch, BATCH - 1);
+
+                boolean written = client.write(batch);
+                synchronized (this)
+                {
+                    // Already 0 if closed meanwhile
+                    unsent = Math.max(0, unsent - batch.size());
+                    notifyAll();
+                }
+                for (Outgoing o : batch)
+                {
+                    client.listener.messageStatus(o.number, written ? Status.SENT : Status.FAILED);
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e)
+        {
+            // Closed
+        }
+    }
+
+    /**
+     * Wait until every message queued has been written
+     * @param millis    most milliseconds to wait
+     * @return          true if every message was written
+     * @throws InterruptedException
+     */
+    public synchronized boolean drain(long millis) throws InterruptedException
+    {
+        long end = System.currentTimeMillis() + millis;
+        long left;
+        while (!closed && unsent > 0)
+        {
+            if ((left = end - System.currentTimeMillis()) <= 0) return false;
+            wait(left);
+        }
+        return unsent == 0;
+    }
+
+    /**
+     * Stop sending, and report messages still waiting as not sent
+     */
+    public void close()
+    {
+        ArrayList<Outgoing> left = new ArrayList<>();
+        synchronized (queue)
+        {
+            closed = true;
+            queue.drainTo(left);
+        }
+        synchronized (this)
+        {
+            unsent = 0;
+            notifyAll();
+        }
+        interrupt();
+        for (Outgoing o : left)
+        {
+            client.listener.messageStatus(o.number, Status.FAILED);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package client;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+
+/**
+ * Reaches the server over TCP
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+
+public class TcpTransport implements Transport
+{
+    /**
+     * IP address or name of server
+     */
+    String host;
+    /**
+     * Server port number
+     */
+    int port;
+
+    /**
+     * Constructor for TcpTransport
+     * @param host  IP address or name of server
+     * @param port  Server port number
+     */
+    public TcpTransport(String host, int port)
+    {
+        this.host = host;
+        this.port = port;
+    }
+
+    /**
+     * Open a TCP connection to the server
+     * @param timeout   most milliseconds to wait for the server; 0 to wait forever
+     * @return          connected Socket
+     * @throws IOException  UnknownHostException if the host can't be found
+     */
+    @Override
+    public Socket connect(int timeout) throws IOException
+    {
+        InetSocketAddress address = new InetSocketAddress(host, port);
+        if (address.isUnresolved()) throw new UnknownHostException(host);
+
+        Socket s = new Socket();
+        try
+        {
+            s.connect(address, timeout);
+        } catch (IOException e)
+        {
+            s.close();
+            throw e;
+        }
+        return s;
+    }
+
+    @Override
+    public String toString()
+    {
+        return host;
+    }
+}
@@ -0,0 +1,23 @@
+package client;
+
+import java.io.IOException;
+import java.net.Socket;
+
+/**
+ * How a Client reaches the server, such as over TCP or a Unix domain socket.
+ * The Client and its ExchangeThreads open every connection through it.
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+
+public interface Transport
+{
+    /**
+     * Open a connection to the server
+     * @param timeout   most milliseconds to wait for the server; 0 to wait forever
+     * @return          connected Socket
+     * @throws IOException  if the server can't be reached
+     */
+    Socket connect(int timeout) throws IOException;
+}
@@ -0,0 +1,48 @@
+package client;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Reaches a server on the same machine over a Unix domain socket, skipping the TCP stack.
+ * Needs Java 16 or later at run time.
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+
+public class UnixTransport implements Transport
+{
+    /**
+     * Path of the server's socket file
+     */
+    String path;
+
+    /**
+     * Constructor for UnixTransport
+     * @param path  path of the server's socket file
+     */
+    public UnixTransport(String path)
+    {
+        this.path = path;
+    }
+
+    /**
+     * Connect to the server's socket file; there is nothing to wait for, so the timeout is ignored
+     * @param timeout   ignored
+     * @return          connected ChannelSocket
+     * @throws IOException  if nothing is listening on the path
+     */
+    @Override
+    public Socket connect(int timeout) throws IOException
+    {
+        return new ChannelSocket(SocketChannel.open(ChannelSocket.unixAddress(path)));
+    }
+
+    @Override
+    public String toString()
+    {
+        return path;
+    }
+}
@@ -0,0 +1,242 @@
+package loadgen;
+
+import client.TcpTransport;
+import client.Transport;
+import client.UnixTransport;
+import server.MemoryServerSocket;
+import server.RateLimiter;
+import server.Server;
+import server.UnixServerSocket;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connects many simulated users to a server and sends messages at a fixed rate.
+ * Reports end-to-end latency and throughput when done.
+ *
+ * Arguments (all optional):
+ *   --host name        server to connect to (default localhost)
+ *   --port number      server port (default 4000)
+ *   --clients number   simulated users (default 10)
+ *   --rate number      messages per second sent by each user (default 1)
+ *   --duration number  seconds to send messages for (default 10)
+ *   --threads number   threads sending messages (default 4)
+ *   --transport name   tcp, unix or memory (default tcp); memory always starts a Server in this process
+ *   --path file        socket file for the unix transport (default /tmp/internetchat.sock)
+ *   --local            start a Server on the port, or socket file, in this process
+ *   --wrap-joins       have the local Server wrap keys for joining users
+ *   --rate-limit m c a have the local Server limit each user to m messages and c characters per second,
+ *                      and throttle, drop or disconnect (a) over the limit
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+
+public class LoadGenerator
+{
+    String host   = "localhost";
+    int port      = 4000;
+    int clients   = 10;
+    double rate   = 1;
+    int duration  = 10;
+    int threads   = 4;
+    boolean local = false;
+    boolean wrap  = false;
+
+    String transport = "tcp";
+    String path      = "/tmp/internetchat.sock";
+
+    double messageLimit          = 0;
+    double charLimit             = 0;
+    RateLimiter.Action overLimit = RateLimiter.Action.THROTTLE;
+
+    /**
+     * Users connected to the server
+     */
+    ArrayList<SimulatedUser> users = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception
+    {
+        LoadGenerator g = new LoadGenerator();
+        g.parse(args);
+        g.run();
+        System.exit(0);
+    }
+
+    /**
+     * Read settings from command line arguments
+     * @param args  command line arguments
+     */
+    void parse(String[] args)
+    {
+        for (int i = 0; i < args.length; i++)
+        {
+            switch (args[i])
+            {
+                case "--host":     host     = args[++i];                     break;
+                case "--port":     port     = Integer.parseInt(args[++i]);   break;
+                case "--clients":  clients  = Integer.parseInt(args[++i]);   break;
+                case "--rate":     rate     = Double.parseDouble(args[++i]); break;
+                case "--duration": duration = Integer.parseInt(args[++i]);   break;
+                case "--threads":  threads  = Integer.parseInt(args[++i]);   break;
+                case "--local":    local    = true;                          break;
+                case "--transport": transport = args[++i];                   break;
+                case "--path":     path     = args[++i];                     break;
+                case "--wrap-joins": wrap   = true;                          break;
+                case "--rate-limit":
+                    messageLimit = Double.parseDouble(args[++i]);
+                    charLimit    = Double.parseDouble(args[++i]);
+                    overLimit    = RateLimiter.Action.valueOf(args[++i].toUpperCase());
+                    break;
+                default: throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+    }
+
+    /**
+     * Connect users, send messages for the set duration, then print results
+     * @throws Exception
+     */
+    void run() throws Exception
+    {
+        Server server = null;
+        Transport t;
+        switch (transport)
+        {
+            case "tcp":
+                t = new TcpTransport(host, port);
+                if (local) server = new Server(port);
+                break;
+            case "unix":
+                t = new UnixTransport(path);
+                if (local) server = new Server(new UnixServerSocket(path));
+                break;
+            case "memory":
+                final MemoryServerSocket memory = new MemoryServerSocket();
+                t = new Transport()
+                {
+                    @Override
+                    public Socket connect(int timeout) throws IOException
+                    {
+                        return memory.connect();
+                    }
+
+                    @Override
+                    public String toString()
+                    {
+                        return "memory";
+                    }
+                };
+                server = new Server(memory);
+                break;
+            default: throw new IllegalArgumentException("Unknown transport " + transport);
+        }
+        if (server != null)
+        {
+            server.setWrapJoins(wrap);
+            server.setRateLimit(messageLimit, charLimit, overLimit);
+            server.start();
+        }
+
+        // Users all join at once; the server lets them in together
+        long joinStart = System.nanoTime();
+        ArrayList<SimulatedUser> joining = new ArrayList<>();
+        for (int i = 0; i < clients; i++)
+        {
+            SimulatedUser u = new SimulatedUser(t, "user" + i);
+            u.client.start();
+            joining.add(u);
+        }
+        for (SimulatedUser u : joining)
+        {
+            u.ready.await();
+            if (u.connected) users.add(u);
+        }
+        double joinTime = (System.nanoTime() - joinStart) / 1e9;
+        System.out.printf("Connected %d users in %.2f s%n", users.size(), joinTime);
+
+        // Spread sends evenly over each period
+        ScheduledExecutorService senders = Executors.newScheduledThreadPool(threads);
+        long period                      = (long) (1e9 / rate);
+        for (int i = 0; i < users.size(); i++)
+        {
+            SimulatedUser u = users.get(i);
+            senders.scheduleAtFixedRate(u::send, period * i / users.size(), period, TimeUnit.NANOSECONDS);
+        }
+
+        long start = System.nanoTime();
+        Thread.sleep(duration * 1000L);
+        senders.shutdownNow();
+        senders.awaitTermination(5, TimeUnit.SECONDS);
+        long end = System.nanoTime();
+
+        // Let messages still being relayed arrive
+        Thread.sleep(1000);
+        for (SimulatedUser u : users)
+        {
+            u.client.disconnect();
+        }
+        for (SimulatedUser u : users)
+        {
+            u.client.join(1000);
+        }
+        if (server != null) server.close();
+
+        report((end - start) / 1e9);
+    }
+
+    /**
+     * Print latency percentiles and throughput
+     * @param seconds   time messages were sent for
+     */
+    void report(double seconds)
+    {
+        long sent       = 0;
+        int received    = 0;
+        long unreadable = 0;
+        for (SimulatedUser u : users)
+        {
+            sent       += u.sent;
+            received   += u.received;
+            unreadable += u.unreadable;
+        }
+
+        long[] all = new long[received];
+        int k      = 0;
+        for (SimulatedUser u : users)
+        {
+            System.arraycopy(u.latencies, 0, all, k, u.received);
+            k += u.received;
+        }
+        Arrays.sort(all);
+
+        System.out.printf("Users:       %d%n", users.size());
+        System.out.printf("Sent:        %d (%.1f msg/s)%n", sent, sent / seconds);
+        System.out.printf("Delivered:   %d (%.1f msg/s)%n", received, received / seconds);
+        System.out.printf("Unreadable:  %d%n", unreadable);
+        if (received > 0)
+        {
+            System.out.printf("Latency p50: %.3f ms%n", percentile(all, 0.50) / 1e6);
+            System.out.printf("Latency p99: %.3f ms%n", percentile(all, 0.99) / 1e6);
+            System.out.printf("Latency max: %.3f ms%n", all[all.length - 1] / 1e6);
+        }
+    }
+
+    /**
+     * Find a percentile of sorted values
+     * @param sorted    values in ascending order
+     * @param p         percentile between 0 and 1
+     * @return          value at the percentile
+     */
+    static long percentile(long[] sorted, double p)
+    {
+        int i = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(i, sorted.length - 1))];
+    }
+}
@@ -0,0 +1,139 @@
+package loadgen;
+
+import client.Client;
+import client.ClientListener;
+import client.Message;
+import client.Sender;
+import client.Transport;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * One user connected to the server by the LoadGenerator.
+ * Records the latency of every load message it receives.
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+
+public class SimulatedUser implements ClientListener
+{
+    /**
+     * Marks messages sent by the LoadGenerator; followed by the send time in nanoseconds
+     */
+    static final String MARK = "lg ";
+
+    /**
+     * Headless Client of this user
+     */
+    Client client;
+    /**
+     * Screen name asked for
+     */
+    String name;
+    /**
+     * Released once the Client is connected, or has failed to connect
+     */
+    CountDownLatch ready = new CountDownLatch(1);
+    /**
+     * Whether the Client connected
+     */
+    volatile boolean connected;
+
+    /**
+     * Latencies in nanoseconds of messages received.
+     * Only written by the Client's Thread.
+     */
+    long[] latencies = new long[1024];
+    /**
+     * Number of latencies recorded
+     */
+    int received;
+    /**
+     * Number of messages received that could not be read
+     */
+    int unreadable;
+    /**
+     * Number of messages sent
+     */
+    volatile long sent;
+
+    /**
+     * Constructor for SimulatedUser
+     * @param transport     Opens connections to the server
+     * @param name          screen name to ask for
+     */
+    public SimulatedUser(Transport transport, String name)
+    {
+        this.name = name;
+        client    = new Client(transport, this);
+        client.setDaemon(true);
+    }
+
+    /**
+     * Send a load message stamped with the current time
+     */
+    public void send()
+    {
+        client.sendMessage(MARK + System.nanoTime());
+        sent++;
+    }
+
+    @Override
+    public String chooseName(String rejected)
+    {
+        return rejected == null ? name : rejected + "_";
+    }
+
+    @Override
+    public void connected(String name)
+    {
+        connected = true;
+        ready.countDown();
+    }
+
+    @Override
+    public void messageReceived(Message m)
+    {
+        long now = System.nanoTime();
+        // Decrypted messages are padded with spaces to a multiple of 3 characters
+        String message = m.getText().trim();
+        int i          = message.indexOf(": " + MARK);
+
+        if (i < 0)
+        {
+            // Join and leave messages are not load messages
+            if (!message.endsWith(" has joined") && !message.endsWith(" has left the chat")) unreadable++;
+            return;
+        }
+        try
+        {
+            long time = Long.parseLong(message.substring(i + 2 + MARK.length()));
+            if (received == latencies.length) latencies = Arrays.copyOf(latencies, received * 2);
+            latencies[received++] = now - time;
+        } catch (NumberFormatException e)
+        {
+            unreadable++;
+        }
+    }
+
+    @Override
+    public void messageStatus(long number, Sender.Status status)
+    {
+        // Latency is measured from the message coming back
+    }
+
+    @Override
+    public void disconnected(String reason)
+    {
+        connected = false;
+    }
+
+    @Override
+    public void connectionFailed(String reason)
+    {
+        System.err.println(name + ": " + reason);
+        ready.countDown();
+    }
+}
@@ -0,0 +1,341 @@
+package server;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.URLDecoder;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Accepts all connections to a Server.
+ * Each connection first says whether it is a Client joining or a Client ExchangeThread,
+ * and is passed to the Server's join queue, with a new Handler, or exchange queue.
+ * ExchangeThreads also say which Client and which exchange they are for.
+ * Clients that send HELLO also give the names they would take, and one is kept for them straight away.
+ * Clients whose connection dropped can instead resume with a ticket, and are answered straight away.
+ * On a port with a channel, first lines are read by a ServerGroup of its own, with a Selector, so connections
+ * slow to send one take no Thread; they are then sorted on the Acceptor's Thread.
+ * Other ServerSockets, such as a UnixServerSocket or one in memory, have their first lines read by
+ * a few greeting Threads, so a connection slow to send one doesn't hold up the others.
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+
+public class Acceptor extends Thread
+{
+    /**
+     * Milliseconds a new connection has to say what it is
+     */
+    public static final int HELLO_TIMEOUT = 5000;
+    /**
+     * Most characters in the first line of a connection
+     */
+    public static final int HELLO_LENGTH = 512;
+    /**
+     * Most first lines read at once without a channel; every Client opens a connection for each exchange
+     * at the same time
+     */
+    public static final int GREETERS = 256;
+    /**
+     * Most connections waiting for a greeting Thread; more are closed
+     */
+    public static final int BACKLOG = 4096;
+    /**
+     * Milliseconds an idle greeting Thread is kept
+     */
+    public static final int GREETER_IDLE = 1000;
+
+    /**
+     * Server accepting connections
+     */
+    Server server;
+    /**
+     * Threads reading first lines, without a channel
+     */
+    ThreadPoolExecutor greeters;
+
+    /**
+     * Constructor for Acceptor
+     * @param server    Server accepting connections
+     */
+    public Acceptor(Server server)
+    {
+        this.server = server;
+        this.setName("Acceptor" + server.portNumber);
+        this.setDaemon(true);
+
+        final String port = "Greeter" + server.portNumber + "-";
+        greeters = new ThreadPoolExecutor(GREETERS, GREETERS, GREETER_IDLE, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(BACKLOG), new ThreadFactory()
+        {
+            int count = 0;
+
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, port + count++);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        greeters.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Accept connections until the Server closes, reading their first lines with a Selector if the port has a channel
+     */
+    @Override
+    public void run()
+    {
+        ServerSocketChannel channel = server.serverSocket.getChannel();
+        if (channel != null) listen(channel);
+        else greet();
+        greeters.shutdownNow();
+    }
+
+    /**
+     * Read first lines on a ServerGroup of its own, and sort the connections on this Thread, until interrupted
+     * @param channel   channel of the port
+     */
+    void listen(ServerSocketChannel channel)
+    {
+        final LinkedBlockingQueue<Server.Arrival> greeted = new LinkedBlockingQueue<>();
+        ServerGroup listener;
+        try
+        {
+            listener = new ServerGroup(server.wheel);
+        } catch (IOException e)
+        {
+            // Out of file descriptors; accept on this Thread instead
+            e.printStackTrace();
+            greet();
+            return;
+        }
+        listener.setName("Listener" + server.portNumber);
+        listener.serve(channel, new ServerGroup.Door()
+        {
+            @Override
+            public int lines()
+            {
+                return 1;
+            }
+
+            @Override
+            public boolean isOpen()
+            {
+                return server.open;
+            }
+
+            @Override
+            public void enter(Socket socket, String[] lines)
+            {
+                if (lines[0].startsWith(ServerKeyExchange.EXCHANGE + " "))
+                {
+                    // Takes no lock, so a key exchange never waits behind Clients being sorted
+                    sort(server, socket, lines[0]);
+                    return;
+                }
+                // Sorting the rest takes the Server's locks, which the Selector's Thread mustn't wait on
+                Server.Arrival a = new Server.Arrival();
+                a.socket         = socket;
+                a.hello          = lines[0];
+                greeted.add(a);
+            }
+        });
+        listener.start();
+
+        try
+        {
+            while (true)
+            {
+                Server.Arrival a = greeted.take();
+                if (server.open)
+                {
+                    sort(server, a.socket, a.hello);
+                    continue;
+                }
+                try
+                {
+                    a.socket.close();
+                } catch (IOException e) {}
+            }
+        } catch (InterruptedException e)
+        {
+            // Server closed
+        } finally
+        {
+            listener.close();
+        }
+    }
+
+    /**
+     * Accept connections until the ServerSocket is closed, handing each to a greeting Thread
+     */
+    void greet()
+    {
+        while (!server.serverSocket.isClosed())
+        {
+            try
+            {
+                final Socket socket = server.serverSocket.accept();
+                // The time to say what it is counts from now, however long it waits for a greeting Thread
+                final long deadline = server.clock.nanoTime() + TimeUnit.MILLISECONDS.toNanos(HELLO_TIMEOUT);
+                try
+                {
+                    greeters.execute(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            sort(socket, deadline);
+                        }
+                    });
+                } catch (RejectedExecutionException e)
+                {
+                    // Too many connections saying nothing
+                    socket.close();
+                }
+            } catch (SocketException e)
+            {
+                // ServerSocket closed
+            } catch (IOException e)
+            {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Read the first line of a connection and pass the connection to the Server.
+     * Connections that say nothing by the deadline, or something unknown, are closed.
+     * @param socket    new connection
+     * @param deadline  Server clock time in nanoseconds the whole line has to arrive by
+     */
+    void sort(Socket socket, long deadline)
+    {
+        try
+        {
+            String hello = readLine(socket, server.clock, deadline);
+            socket.setSoTimeout(0);
+            sort(server, socket, hello);
+        } catch (IOException e)
+        {
+            try
+            {
+                socket.close();
+            } catch (IOException f) {}
+        }
+    }
+
+    /**
+     * Pass a connection to a Server by what its first line says it is.
+     * Connections that said something unknown, or nothing, are closed.
+     * Also used by a ServerGroup, which reads first lines itself.
+     * @param server    Server the connection is to
+     * @param socket    new connection
+     * @param hello     first line of the connection, or null if it didn't send one
+     */
+    static void sort(Server server, Socket socket, String hello)
+    {
+        try
+        {
+            if (server.draining)
+            {
+                // The Server is about to close
+                socket.getOutputStream().write("NO\n".getBytes(StandardCharsets.UTF_8));
+                socket.close();
+            } else if (ServerKeyExchange.JOIN.equals(hello))
+            {
+                server.joins.add(new Handler(socket, server));
+            } else if (hello != null && hello.startsWith(ServerKeyExchange.JOIN + " "))
+            {
+                // Joining again after the connection dropped, with a ticket and the last frame received
+                String[] parts = hello.split(" ");
+                Handler h      = new Handler(socket, server);
+                server.returning(h, parts[1], Long.parseLong(parts[2]));
+                server.joins.add(h);
+            } else if (hello != null && hello.startsWith(ServerKeyExchange.HELLO + " "))
+            {
+                // Version, ticket or "-", last frame received, then names in order of preference
+                String[] parts = hello.split(" ");
+                if (Integer.parseInt(parts[1]) != ServerKeyExchange.VERSION)
+                {
+                    socket.getOutputStream().write("NO\n".getBytes(StandardCharsets.UTF_8));
+                    socket.close();
+                    return;
+                }
+                Handler h = new Handler(socket, server);
+                if (!parts[2].equals("-")) server.returning(h, parts[2], Long.parseLong(parts[3]));
+                for (int i = 4; i < parts.length && !h.named; i++)
+                {
+                    String name = URLDecoder.decode(parts[i], StandardCharsets.UTF_8);
+                    if (server.reserveName(name))
+                    {
+                        h.setName(name);
+                        h.named = true;
+                    }
+                }
+                server.joins.add(h);
+            } else if (hello != null && hello.startsWith(ServerKeyExchange.EXCHANGE + " "))
+            {
+                String[] parts = hello.split(" ");
+                ServerExchangeThread t =
+                        new ServerExchangeThread(server, socket, Integer.parseInt(parts[1]));
+                t.round = Integer.parseInt(parts[2]);
+                server.exchangeSockets.add(t);
+            } else if (hello != null && hello.startsWith(ServerKeyExchange.RESUME + " "))
+            {
+                String[] parts = hello.split(" ");
+                if (!server.resumeClient(socket, parts[1], Integer.parseInt(parts[2]), Long.parseLong(parts[3])))
+                {
+                    // The Client has to join again
+                    socket.getOutputStream().write("NO\n".getBytes(StandardCharsets.UTF_8));
+                    socket.close();
+                }
+            } else
+            {
+                socket.close();
+            }
+        } catch (IOException | RuntimeException e)
+        {
+            // Includes hellos with a missing or garbled id, ticket, epoch or sequence number
+            try
+            {
+                socket.close();
+            } catch (IOException f) {}
+        }
+    }
+
+    /**
+     * Read one line without buffering past it, all of it by a deadline however slowly it arrives
+     * @param socket    connection to read from
+     * @param clock     clock the deadline is by
+     * @param deadline  clock time in nanoseconds the line has to arrive by
+     * @return          line read, or null if the connection closed first
+     * @throws IOException  SocketTimeoutException if the deadline passes first
+     */
+    static String readLine(Socket socket, Clock clock, long deadline) throws IOException
+    {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while (true)
+        {
+            long left = TimeUnit.NANOSECONDS.toMillis(deadline - clock.nanoTime());
+            if (left <= 0) throw new SocketTimeoutException("Hello timed out");
+            socket.setSoTimeout((int) left);
+            if ((c = socket.getInputStream().read()) == -1) return null;
+            if (c == '\n') return line.toString();
+            if (c != '\r') line.append((char) c);
+            // Hello lines are short
+            if (line.length() > HELLO_LENGTH) return null;
+        }
+    }
+}
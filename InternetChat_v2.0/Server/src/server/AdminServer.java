@@ -0,0 +1,899 @@
+package server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Shows what running Servers are doing as JSON over HTTP, and lets an admin act on them.
+ * Views, with GET: /rooms, /users, /queues, /rekeys, /throughput and /actions;
+ * /users and /rekeys take ?room= for one room, and /actions ?id= for one action.
+ * Actions, with POST: /kick?room=&amp;name=, /drain?room= and /rekey?room=.
+ * They are answered at once with 202 and the action's number, and carried out on a Thread of their own,
+ * one at a time in each room; /actions shows how each went.
+ * Each Server watched is a room, named when it is added; every room of a ClusterNode added is watched too.
+ * Requests are answered on THREADS Threads of its own, which only hold a Server's lock to copy what they show,
+ * so admin traffic takes no Thread from Clients, Handlers, RelayLinks or a ServerGroup.
+ * Requests a web page on another site makes, which carry its Origin, are refused.
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+
+public class AdminServer
+{
+    /**
+     * Threads answering requests
+     */
+    public static final int THREADS = 2;
+    /**
+     * Most actions /actions remembers
+     */
+    public static final int ACTION_HISTORY = 100;
+
+    /**
+     * Takes requests
+     */
+    HttpServer http;
+    /**
+     * Answers requests
+     */
+    ExecutorService executor;
+    /**
+     * Carries out actions, on a Thread for each one running
+     */
+    ExecutorService actions;
+    /**
+     * Actions by number, oldest first; guarded by itself
+     */
+    LinkedHashMap<Integer, Action> history = new LinkedHashMap<>();
+    /**
+     * Number of the next action; guarded by history
+     */
+    int nextAction = 1;
+    /**
+     * Servers watched, by room name; guarded by itself
+     */
+    LinkedHashMap<String, Server> servers = new LinkedHashMap<>();
+    /**
+     * ClusterNodes whose rooms are watched; guarded by servers
+     */
+    ArrayList<ClusterNode> nodes = new ArrayList<>();
+    /**
+     * Counts at the last /throughput, by Server: time in milliseconds, broadcasts and deliveries;
+     * guarded by itself
+     */
+    HashMap<Server, long[]> samples = new HashMap<>();
+    /**
+     * When the AdminServer was made, in milliseconds
+     */
+    long started = System.currentTimeMillis();
+
+    /**
+     * An action asked for with POST, and how it went
+     */
+    static class Action
+    {
+        /**
+         * Number of the action
+         */
+        int id;
+        /**
+         * Room it acts on
+         */
+        String room;
+        /**
+         * Path it was asked for on, such as rekey
+         */
+        String name;
+        /**
+         * When it was asked for, in milliseconds
+         */
+        long started = System.currentTimeMillis();
+        /**
+         * Milliseconds it took, or -1 while it is running; guarded by history
+         */
+        long millis = -1;
+        /**
+         * JSON answer once it is over, either its result or an error; guarded by history
+         */
+        String result;
+    }
+
+    /**
+     * Answers one path.
+     * Parameters come from the query string; errors are answered as JSON with a status.
+     */
+    private abstract class Page implements HttpHandler
+    {
+        /**
+         * GET for a view, POST for an action
+         */
+        String method;
+
+        /**
+         * Constructor for Page
+         * @param method    GET for a view, POST for an action
+         */
+        Page(String method)
+        {
+            this.method = method;
+        }
+
+        /**
+         * Make the answer to a request
+         * @param params    parameters of the request
+         * @return          JSON answer
+         * @throws Exception    NoSuchElementException for a room or client that isn't there,
+         *                      IllegalArgumentException for a missing parameter
+         */
+        abstract String answer(Map<String, String> params) throws Exception;
+
+        /**
+         * Status of a request answered without an error
+         * @return  200
+         */
+        int success()
+        {
+            return 200;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException
+        {
+            int status = success();
+            String body;
+            try
+            {
+                if (foreign(exchange))
+                {
+                    status = 403;
+                    body   = error("Requests from other sites are refused");
+                } else if (!exchange.getRequestMethod().equals(method))
+                {
+                    status = 405;
+                    exchange.getResponseHeaders().set("Allow", method);
+                    body   = error("Use " + method);
+                } else
+                {
+                    body = answer(params(exchange.getRequestURI().getRawQuery()));
+                }
+            } catch (NoSuchElementException e)
+            {
+                status = 404;
+                body   = error(e.getMessage());
+            } catch (IllegalStateException e)
+            {
+                status = 409;
+                body   = error(e.getMessage());
+            } catch (IllegalArgumentException e)
+            {
+                status = 400;
+                body   = error(e.getMessage());
+            } catch (InterruptedException e)
+            {
+                status = 503;
+                body   = error("Admin closing");
+            } catch (Exception e)
+            {
+                status = 500;
+                body   = error(String.valueOf(e));
+            }
+
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody())
+            {
+                out.write(bytes);
+            }
+        }
+    }
+
+    /**
+     * Answers an action: checks it can be carried out, then carries it out on a Thread of its own
+     */
+    private abstract class Act extends Page
+    {
+        /**
+         * Path it answers, such as rekey
+         */
+        String name;
+
+        /**
+         * Constructor for Act
+         * @param name  path it answers, such as rekey
+         */
+        Act(String name)
+        {
+            super("POST");
+            this.name = name;
+        }
+
+        /**
+         * Carry out the action
+         * @param server    Server of the room
+         * @param params    parameters of the request
+         * @return          JSON result
+         * @throws Exception    NoSuchElementException for a client that isn't there
+         */
+        abstract String act(Server server, Map<String, String> params) throws Exception;
+
+        /**
+         * Status of an action started
+         * @return  202, as it isn't over yet
+         */
+        @Override
+        int success()
+        {
+            return 202;
+        }
+
+        @Override
+        String answer(final Map<String, String> params)
+        {
+            final Server server = room(required(params, "room"));
+            final Action action = start(params.get("room"), name);
+            try
+            {
+                actions.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        String result;
+                        try
+                        {
+                            result = act(server, params);
+                        } catch (InterruptedException e)
+                        {
+                            result = error("Admin closing");
+                        } catch (Exception e)
+                        {
+                            result = error(e instanceof NoSuchElementException ? e.getMessage() : String.valueOf(e));
+                        }
+                        finish(action, result);
+                    }
+                });
+            } catch (RejectedExecutionException e)
+            {
+                finish(action, error("Admin closing"));
+            }
+            return "{\"action\":" + action.id + ",\"status\":" + quote("/actions?id=" + action.id) + "}";
+        }
+    }
+
+    /**
+     * Constructor for AdminServer
+     * @param address   address and port to take requests on, such as on the loopback interface only
+     * @throws IOException  if the port can't be opened
+     */
+    public AdminServer(InetSocketAddress address) throws IOException
+    {
+        http     = HttpServer.create(address, 0);
+        executor = Executors.newFixedThreadPool(THREADS, new ThreadFactory()
+        {
+            int count = 0;
+
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "Admin" + count++);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        http.setExecutor(executor);
+        actions = Executors.newCachedThreadPool(new ThreadFactory()
+        {
+            int count = 0;
+
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "AdminAction" + count++);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+        http.createContext("/rooms", new Page("GET")
+        {
+            @Override
+            String answer(Map<String, String> params)
+            {
+                return rooms();
+            }
+        });
+        http.createContext("/users", new Page("GET")
+        {
+            @Override
+            String answer(Map<String, String> params)
+            {
+                return users(params.get("room"));
+            }
+        });
+        http.createContext("/queues", new Page("GET")
+        {
+            @Override
+            String answer(Map<String, String> params)
+            {
+                return queues();
+            }
+        });
+        http.createContext("/rekeys", new Page("GET")
+        {
+            @Override
+            String answer(Map<String, String> params)
+            {
+                return rekeys(params.get("room"));
+            }
+        });
+        http.createContext("/throughput", new Page("GET")
+        {
+            @Override
+            String answer(Map<String, String> params)
+            {
+                return throughput();
+            }
+        });
+        http.createContext("/actions", new Page("GET")
+        {
+            @Override
+            String answer(Map<String, String> params)
+            {
+                return actions(params.get("id"));
+            }
+        });
+        http.createContext("/kick", new Act("kick")
+        {
+            @Override
+            String answer(Map<String, String> params)
+            {
+                required(params, "name");
+                return super.answer(params);
+            }
+
+            @Override
+            String act(Server server, Map<String, String> params) throws InterruptedException
+            {
+                String name = params.get("name");
+                if (!server.kick(name)) throw new NoSuchElementException("No client " + name);
+                return "{\"kicked\":" + quote(name) + "}";
+            }
+        });
+        http.createContext("/drain", new Act("drain")
+        {
+            @Override
+            String act(Server server, Map<String, String> params) throws InterruptedException
+            {
+                boolean sent = server.drain(Server.ROUND_TIMEOUT);
+                return "{\"drained\":true,\"sent\":" + sent + "}";
+            }
+        });
+        http.createContext("/rekey", new Act("rekey")
+        {
+            @Override
+            String act(Server server, Map<String, String> params) throws InterruptedException
+            {
+                boolean changed = server.rekey();
+                synchronized (server)
+                {
+                    return "{\"rekeyed\":" + changed + ",\"epoch\":" + server.epoch + "}";
+                }
+            }
+        });
+    }
+
+    /**
+     * Watch a Server
+     * @param room      name to show it by, such as its port
+     * @param server    Server to watch
+     */
+    public void addServer(String room, Server server)
+    {
+        synchronized (servers)
+        {
+            servers.put(room, server);
+        }
+    }
+
+    /**
+     * Watch every room of a ClusterNode, as they are opened
+     * @param node  ClusterNode to watch
+     */
+    public void addNode(ClusterNode node)
+    {
+        synchronized (servers)
+        {
+            nodes.add(node);
+        }
+    }
+
+    /**
+     * Start taking requests
+     */
+    public void start()
+    {
+        http.start();
+    }
+
+    /**
+     * Stop taking requests; Servers watched are left running
+     */
+    public void close()
+    {
+        http.stop(0);
+        executor.shutdownNow();
+        actions.shutdownNow();
+    }
+
+    /**
+     * Whether a request comes from a web page on another site, rather than from curl or a page served here.
+     * Browsers send the Origin of the page with every POST, and with GETs made by script.
+     * @param exchange  request
+     * @return          true if its Origin isn't this AdminServer
+     */
+    static boolean foreign(HttpExchange exchange)
+    {
+        String origin = exchange.getRequestHeaders().getFirst("Origin");
+        if (origin == null) return false;
+        String host = exchange.getRequestHeaders().getFirst("Host");
+        return host == null || !(origin.equals("http://" + host) || origin.equals("https://" + host));
+    }
+
+    /**
+     * Remember a new action, forgetting the oldest past ACTION_HISTORY
+     * @param room  room it acts on
+     * @param name  path it was asked for on
+     * @return      the action
+     * @throws IllegalStateException    if an action is still running in the room
+     */
+    Action start(String room, String name)
+    {
+        synchronized (history)
+        {
+            for (Action a : history.values())
+            {
+                if (a.room.equals(room) && a.millis < 0)
+                {
+                    throw new IllegalStateException("Action " + a.id + " is still running in " + room);
+                }
+            }
+            Action action = new Action();
+            action.id     = nextAction++;
+            action.room   = room;
+            action.name   = name;
+            history.put(action.id, action);
+            if (history.size() > ACTION_HISTORY)
+            {
+                // Forget the oldest that is over
+                for (Action a : history.values())
+                {
+                    if (a.millis >= 0)
+                    {
+                        history.remove(a.id);
+                        break;
+                    }
+                }
+            }
+            return action;
+        }
+    }
+
+    /**
+     * Record how an action went
+     * @param action    action that is over
+     * @param result    JSON result, or error
+     */
+    void finish(Action action, String result)
+    {
+        synchronized (history)
+        {
+            action.result = result;
+            action.millis = System.currentTimeMillis() - action.started;
+        }
+    }
+
+    /**
+     * Every room watched
+     * @return  Servers by room name, in the order added
+     */
+    LinkedHashMap<String, Server> watched()
+    {
+        synchronized (servers)
+        {
+            LinkedHashMap<String, Server> all = new LinkedHashMap<>(servers);
+            for (ClusterNode node : nodes)
+            {
+                all.putAll(node.rooms());
+            }
+            return all;
+        }
+    }
+
+    /**
+     * Server of a room watched
+     * @param room  name of the room
+     * @return      its Server
+     * @throws NoSuchElementException   if no room of that name is watched
+     */
+    Server room(String room)
+    {
+        Server server = watched().get(room);
+        if (server == null) throw new NoSuchElementException("No room " + room);
+        return server;
+    }
+
+    /**
+     * Rooms with their clients, key epoch and state
+     * @return  JSON view
+     */
+    String rooms()
+    {
+        StringBuilder json = new StringBuilder("{\"rooms\":[");
+        String sep         = "";
+        for (Map.Entry<String, Server> e : watched().entrySet())
+        {
+            Server s = e.getValue();
+            synchronized (s)
+            {
+                json.append(sep).append("{\"name\":").append(quote(e.getKey()))
+                        .append(",\"port\":").append(s.portNumber)
+                        .append(",\"open\":").append(s.open)
+                        .append(",\"draining\":").append(s.draining)
+                        .append(",\"clients\":").append(s.handlers.size())
+                        .append(",\"epoch\":").append(s.epoch)
+                        .append(",\"rekeying\":").append(s.rekeying)
+                        .append(",\"nextFrame\":").append(s.frames.next())
+                        .append(",\"wrapJoins\":").append(s.wrapJoins)
+                        .append('}');
+            }
+            sep = ",";
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * Clients connected, with what is waiting to be written to each
+     * @param room  name of the only room to show, or null for every room
+     * @return      JSON view
+     */
+    String users(String room)
+    {
+        StringBuilder json = new StringBuilder("{\"users\":[");
+        String sep         = "";
+        for (Map.Entry<String, Server> e : rooms(room).entrySet())
+        {
+            long now = e.getValue().clock.millis();
+            for (Handler h : handlers(e.getValue()))
+            {
+                SocketAddress address = h.clientSocket.getRemoteSocketAddress();
+                json.append(sep).append("{\"room\":").append(quote(e.getKey()))
+                        .append(",\"id\":").append(h.id)
+                        .append(",\"name\":").append(quote(h.getName()))
+                        .append(",\"joined\":").append(h.joined)
+                        .append(",\"catchingUp\":").append(h.catchingUp)
+                        .append(",\"address\":").append(quote(String.valueOf(address != null ? address : h.clientSocket)))
+                        .append(",\"idleMillis\":").append(now - h.lastHeard)
+                        .append(",\"outbox\":").append(h.outbox.depth())
+                        .append('}');
+                sep = ",";
+            }
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * What is waiting in each room, and on each RelayLink between ClusterNodes
+     * @return  JSON view
+     */
+    String queues()
+    {
+        StringBuilder json = new StringBuilder("{\"rooms\":[");
+        String sep         = "";
+        for (Map.Entry<String, Server> e : watched().entrySet())
+        {
+            Server s      = e.getValue();
+            long depth    = 0;
+            long chars    = 0;
+            long deepest  = 0;
+            String behind = null;
+            for (Handler h : handlers(s))
+            {
+                long d = h.outbox.depth();
+                depth += d;
+                chars += h.outbox.queuedChars();
+                if (d > deepest)
+                {
+                    deepest = d;
+                    behind  = h.getName();
+                }
+            }
+            json.append(sep).append("{\"name\":").append(quote(e.getKey()))
+                    .append(",\"joining\":").append(s.joins.size())
+                    .append(",\"exchangeSockets\":").append(s.exchangeSockets.size())
+                    .append(",\"outboxes\":").append(depth)
+                    .append(",\"outboxChars\":").append(chars)
+                    .append(",\"deepest\":").append(deepest)
+                    .append(",\"deepestUser\":").append(behind != null ? quote(behind) : "null")
+                    .append('}');
+            sep = ",";
+        }
+
+        json.append("],\"relay\":[");
+        sep = "";
+        for (RelayLink link : links())
+        {
+            json.append(sep).append("{\"from\":").append(quote(link.node.id))
+                    .append(",\"to\":").append(quote(link.to))
+                    .append(",\"waiting\":").append(link.depth())
+                    .append('}');
+            sep = ",";
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * Latest key changes of each room, oldest first
+     * @param room  name of the only room to show, or null for every room
+     * @return      JSON view
+     */
+    String rekeys(String room)
+    {
+        StringBuilder json = new StringBuilder("{\"rekeys\":[");
+        String sep         = "";
+        for (Map.Entry<String, Server> e : rooms(room).entrySet())
+        {
+            ArrayList<Server.Rekey> history;
+            long now;
+            synchronized (e.getValue())
+            {
+                history = new ArrayList<>(e.getValue().rekeys);
+                now     = e.getValue().clock.millis();
+            }
+            for (Server.Rekey r : history)
+            {
+                json.append(sep).append("{\"room\":").append(quote(e.getKey()))
+                        .append(",\"epoch\":").append(r.epoch)
+                        .append(",\"agoMillis\":").append(now - r.at)
+                        .append(",\"millis\":").append(r.millis)
+                        .append(",\"clients\":").append(r.clients)
+                        .append(",\"joining\":").append(r.joining)
+                        .append(",\"wrapped\":").append(r.wrapped)
+                        .append(",\"forced\":").append(r.forced)
+                        .append('}');
+                sep = ",";
+            }
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * Messages broadcast and frames written by each room, in all and per second since the last /throughput,
+     * and batches sent on each RelayLink
+     * @return  JSON view
+     */
+    String throughput()
+    {
+        long now           = System.currentTimeMillis();
+        StringBuilder json = new StringBuilder("{\"uptimeMillis\":").append(now - started).append(",\"rooms\":[");
+        String sep         = "";
+        for (Map.Entry<String, Server> e : watched().entrySet())
+        {
+            Server s = e.getValue();
+            long broadcasts;
+            long chars;
+            long deliveries;
+            synchronized (s)
+            {
+                broadcasts = s.broadcasts;
+                chars      = s.broadcastChars;
+                deliveries = s.deliveries;
+            }
+
+            long[] last;
+            synchronized (samples)
+            {
+                last = samples.put(s, new long[] {now, broadcasts, deliveries});
+            }
+            if (last == null) last = new long[] {started, 0, 0};
+            double seconds = Math.max(1, now - last[0]) / 1000.0;
+
+            json.append(sep).append("{\"name\":").append(quote(e.getKey()))
+                    .append(",\"broadcasts\":").append(broadcasts)
+                    .append(",\"characters\":").append(chars)
+                    .append(",\"deliveries\":").append(deliveries)
+                    .append(",\"broadcastsPerSecond\":").append(Math.round((broadcasts - last[1]) / seconds))
+                    .append(",\"deliveriesPerSecond\":").append(Math.round((deliveries - last[2]) / seconds))
+                    .append('}');
+            sep = ",";
+        }
+
+        json.append("],\"relay\":[");
+        sep = "";
+        for (RelayLink link : links())
+        {
+            long batches  = link.batches;
+            long messages = link.messages;
+            json.append(sep).append("{\"from\":").append(quote(link.node.id))
+                    .append(",\"to\":").append(quote(link.to))
+                    .append(",\"added\":").append(link.added)
+                    .append(",\"batches\":").append(batches)
+                    .append(",\"messages\":").append(messages)
+                    .append(",\"perBatch\":").append(batches > 0 ? messages / batches : 0)
+                    .append('}');
+            sep = ",";
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * Actions asked for, oldest first, and how each went
+     * @param id    number of the only action to show, or null for every action remembered
+     * @return      JSON view
+     * @throws NoSuchElementException   if no such action is remembered
+     */
+    String actions(String id)
+    {
+        StringBuilder json = new StringBuilder("{\"actions\":[");
+        String sep         = "";
+        synchronized (history)
+        {
+            ArrayList<Action> shown = new ArrayList<>(history.values());
+            if (id != null)
+            {
+                Action one = null;
+                try
+                {
+                    one = history.get(Integer.valueOf(id));
+                } catch (NumberFormatException e)
+                {
+                    // Not a number, so not an action
+                }
+                if (one == null) throw new NoSuchElementException("No action " + id);
+                shown.clear();
+                shown.add(one);
+            }
+            for (Action a : shown)
+            {
+                json.append(sep).append("{\"id\":").append(a.id)
+                        .append(",\"room\":").append(quote(a.room))
+                        .append(",\"action\":").append(quote(a.name))
+                        .append(",\"running\":").append(a.millis < 0)
+                        .append(",\"millis\":").append(a.millis < 0 ? System.currentTimeMillis() - a.started : a.millis)
+                        .append(",\"result\":").append(a.result != null ? a.result : "null")
+                        .append('}');
+                sep = ",";
+            }
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * Rooms to show
+     * @param room  name of the only room to show, or null for every room
+     * @return      Servers by room name
+     * @throws NoSuchElementException   if the room isn't watched
+     */
+    private Map<String, Server> rooms(String room)
+    {
+        if (room == null) return watched();
+        Map<String, Server> one = new LinkedHashMap<>();
+        one.put(room, room(room));
+        return one;
+    }
+
+    /**
+     * Handlers of a Server's Clients, copied under its lock
+     * @param server    Server
+     * @return          its Handlers
+     */
+    private static ArrayList<Handler> handlers(Server server)
+    {
+        synchronized (server)
+        {
+            return new ArrayList<>(server.handlers);
+        }
+    }
+
+    /**
+     * RelayLinks of every ClusterNode watched
+     * @return  RelayLinks
+     */
+    private ArrayList<RelayLink> links()
+    {
+        ArrayList<ClusterNode> watching;
+        synchronized (servers)
+        {
+            watching = new ArrayList<>(nodes);
+        }
+        ArrayList<RelayLink> all = new ArrayList<>();
+        for (ClusterNode node : watching)
+        {
+            synchronized (node.links)
+            {
+                all.addAll(node.links.values());
+            }
+        }
+        return all;
+    }
+
+    /**
+     * Parameters of a query string
+     * @param query raw query string, or null
+     * @return      decoded parameters by name
+     */
+    static Map<String, String> params(String query)
+    {
+        HashMap<String, String> params = new HashMap<>();
+        if (query == null) return params;
+        for (String pair : query.split("&"))
+        {
+            int eq = pair.indexOf('=');
+            if (eq < 0) params.put(URLDecoder.decode(pair, StandardCharsets.UTF_8), "");
+            else params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                    URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    /**
+     * A parameter that must be given
+     * @param params    parameters of the request
+     * @param name      name of the parameter
+     * @return          its value
+     * @throws IllegalArgumentException if it wasn't given
+     */
+    static String required(Map<String, String> params, String name)
+    {
+        String value = params.get(name);
+        if (value == null || value.isEmpty()) throw new IllegalArgumentException("Missing " + name);
+        return value;
+    }
+
+    /**
+     * JSON answer for an error
+     * @param message   what went wrong
+     * @return          JSON object with the message
+     */
+    static String error(String message)
+    {
+        return "{\"error\":" + quote(message) + "}";
+    }
+
+    /**
+     * Quote a string for JSON
+     * @param s string
+     * @return  JSON string, or null
+     */
+    static String quote(String s)
+    {
+        if (s == null) return "null";
+        StringBuilder q = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') q.append('\\').append(c);
+            else if (c < 0x20) q.append(String.format("\\u%04x", (int) c));
+            else q.append(c);
+        }
+        return q.append('"').toString();
+    }
+}
@@ -0,0 +1,32 @@
+package server;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for a message relayed to all Clients of a Server
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+
+@Name("server.Broadcast")
+@Label("Broadcast")
+@Category({"InternetChat", "Messages"})
+@Description("One sendMessage call relaying a line to every connected Client")
+public class BroadcastEvent extends Event
+{
+    /**
+     * Number of Handlers the message was written to
+     */
+    @Label("Recipients")
+    int recipients;
+    /**
+     * Length of the relayed line in characters
+     */
+    @Label("Length")
+    int length;
+}
@@ -0,0 +1,320 @@
+package server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolFamily;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketOption;
+import java.net.SocketTimeoutException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Socket over a SocketChannel, for connections that aren't TCP, such as Unix domain sockets,
+ * so the rest of the Server can treat every connection the same way.
+ * The channel is non-blocking; a read or write that has to wait opens a Selector for it the first time,
+ * so connections that never wait, such as most key exchange connections, open none.
+ * Supports streams, read timeouts, the send buffer size, TCP options where the channel has them, and closing.
+ * The same as client.ChannelSocket; change both together.
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+
+public class ChannelSocket extends Socket
+{
+    /**
+     * Connection
+     */
+    SocketChannel channel;
+    /**
+     * Waits for something to read; null until a read has to wait, guarded by this ChannelSocket
+     */
+    Selector readable;
+    /**
+     * Waits for room to write; null until a write has to wait, guarded by this ChannelSocket
+     */
+    Selector writable;
+    /**
+     * Milliseconds a read waits before timing out; 0 to wait forever
+     */
+    volatile int timeout = 0;
+    /**
+     * Reads from the channel
+     */
+    InputStream in;
+    /**
+     * Writes to the channel
+     */
+    OutputStream out;
+
+    /**
+     * Constructor for ChannelSocket
+     * @param channel   connected channel; it is made non-blocking, so reads can time out
+     * @throws IOException
+     */
+    public ChannelSocket(SocketChannel channel) throws IOException
+    {
+        this.channel = channel;
+        channel.configureBlocking(false);
+
+        in = new InputStream()
+        {
+            @Override
+            public int read() throws IOException
+            {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public synchronized int read(byte[] b, int off, int len) throws IOException
+            {
+                if (len == 0) return 0;
+                ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+                long end          = System.currentTimeMillis() + timeout;
+                while (true)
+                {
+                    int n = channel.read(buffer);
+                    if (n != 0) return n;
+
+                    long left = end - System.currentTimeMillis();
+                    if (timeout > 0 && left <= 0) throw new SocketTimeoutException("Read timed out");
+                    select(SelectionKey.OP_READ, timeout > 0 ? left : 0);
+                }
+            }
+        };
+
+        out = new OutputStream()
+        {
+            @Override
+            public void write(int b) throws IOException
+            {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public synchronized void write(byte[] b, int off, int len) throws IOException
+            {
+                ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+                while (buffer.hasRemaining())
+                {
+                    if (channel.write(buffer) > 0) continue;
+                    select(SelectionKey.OP_WRITE, 0);
+                }
+            }
+        };
+    }
+
+    /**
+     * Wait until the channel is ready
+     * @param op        SelectionKey.OP_READ or SelectionKey.OP_WRITE
+     * @param millis    most milliseconds to wait; 0 to wait forever
+     * @throws IOException  if the ChannelSocket was closed
+     */
+    private void select(int op, long millis) throws IOException
+    {
+        try
+        {
+            Selector selector = selector(op);
+            selector.select(millis);
+            selector.selectedKeys().clear();
+        } catch (ClosedSelectorException e)
+        {
+            throw new SocketException("Socket is closed");
+        }
+    }
+
+    /**
+     * Selector waiting for the channel to be ready, opened the first time it is needed
+     * @param op    SelectionKey.OP_READ or SelectionKey.OP_WRITE
+     * @return      readable or writable
+     * @throws IOException  if the ChannelSocket was closed
+     */
+    private synchronized Selector selector(int op) throws IOException
+    {
+        Selector selector = op == SelectionKey.OP_READ ? readable : writable;
+        if (selector != null) return selector;
+
+        selector = Selector.open();
+        try
+        {
+            channel.register(selector, op);
+        } catch (IOException e)
+        {
+            selector.close();
+            throw new SocketException("Socket is closed");
+        }
+        if (op == SelectionKey.OP_READ) readable = selector;
+        else writable = selector;
+        return selector;
+    }
+
+    /**
+     * Address of a Unix domain socket.
+     * Needs Java 16 or later at run time; looked up by name, since the project builds for Java 11.
+     * @param path  path of the socket file
+     * @return      UnixDomainSocketAddress for the path
+     * @throws IOException  if Unix domain sockets aren't available
+     */
+    public static SocketAddress unixAddress(String path) throws IOException
+    {
+        try
+        {
+            return (SocketAddress) Class.forName("java.net.UnixDomainSocketAddress")
+                    .getMethod("of", String.class).invoke(null, path);
+        } catch (ReflectiveOperationException e)
+        {
+            throw new IOException("Unix domain sockets need Java 16 or later", e);
+        }
+    }
+
+    /**
+     * Protocol family of Unix domain sockets
+     * @return  StandardProtocolFamily.UNIX
+     * @throws IOException  if Unix domain sockets aren't available
+     */
+    public static ProtocolFamily unixFamily() throws IOException
+    {
+        try
+        {
+            return StandardProtocolFamily.valueOf("UNIX");
+        } catch (IllegalArgumentException e)
+        {
+            throw new IOException("Unix domain sockets need Java 16 or later", e);
+        }
+    }
+
+    @Override
+    public InputStream getInputStream()
+    {
+        return in;
+    }
+
+    @Override
+    public OutputStream getOutputStream()
+    {
+        return out;
+    }
+
+    @Override
+    public void setSoTimeout(int timeout)
+    {
+        this.timeout = timeout;
+    }
+
+    @Override
+    public int getSoTimeout()
+    {
+        return timeout;
+    }
+
+    @Override
+    public void setSendBufferSize(int size) throws SocketException
+    {
+        setChannelOption(StandardSocketOptions.SO_SNDBUF, size);
+    }
+
+    @Override
+    public void setTcpNoDelay(boolean on) throws SocketException
+    {
+        setChannelOption(StandardSocketOptions.TCP_NODELAY, on);
+    }
+
+    @Override
+    public void setKeepAlive(boolean on) throws SocketException
+    {
+        setChannelOption(StandardSocketOptions.SO_KEEPALIVE, on);
+    }
+
+    /**
+     * Set an option of the channel, if it supports it
+     * @param option    option to set
+     * @param value     value to set it to
+     * @param <T>       type of the value
+     * @throws SocketException
+     */
+    private <T> void setChannelOption(SocketOption<T> option, T value) throws SocketException
+    {
+        try
+        {
+            if (channel.supportedOptions().contains(option)) channel.setOption(option, value);
+        } catch (IOException e)
+        {
+            throw new SocketException(e.getMessage());
+        }
+    }
+
+    @Override
+    public void shutdownInput() throws IOException
+    {
+        channel.shutdownInput();
+    }
+
+    @Override
+    public void shutdownOutput() throws IOException
+    {
+        channel.shutdownOutput();
+    }
+
+    @Override
+    public boolean isConnected()
+    {
+        return channel.isConnected();
+    }
+
+    /**
+     * Address of the other end, such as for an AdminServer
+     * @return  address, or null if it isn't known
+     */
+    @Override
+    public SocketAddress getRemoteSocketAddress()
+    {
+        try
+        {
+            return channel.getRemoteAddress();
+        } catch (IOException e)
+        {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean isClosed()
+    {
+        return !channel.isOpen();
+    }
+
+    /**
+     * Close the channel, waking any Thread waiting to read or write, which then fails
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+        synchronized (this)
+        {
+            for (Selector selector : new Selector[] {readable, writable})
+            {
+                if (selector == null) continue;
+                selector.wakeup();
+                selector.close();
+            }
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ChannelSocket[" + channel + "]";
+    }
+}
@@ -0,0 +1,69 @@
+package server;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Where a Server gets the time for key exchange deadlines, ticket windows, heartbeats and rate limits,
+ * and how it waits for them and pauses.
+ * SYSTEM is the wall clock; a simulation can run the Server in virtual time instead.
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+
+public interface Clock
+{
+    /**
+     * The wall clock
+     */
+    Clock SYSTEM = new Clock()
+    {
+        @Override
+        public long nanoTime()
+        {
+            return System.nanoTime();
+        }
+
+        @Override
+        public <E> E poll(BlockingQueue<E> queue, long nanos) throws InterruptedException
+        {
+            return queue.poll(nanos, TimeUnit.NANOSECONDS);
+        }
+    };
+
+    /**
+     * Current time, only for measuring how long something takes, as with System.nanoTime()
+     * @return  nanoseconds since some fixed time
+     */
+    long nanoTime();
+
+    /**
+     * Current time, only for measuring how long something takes
+     * @return  milliseconds since some fixed time
+     */
+    default long millis()
+    {
+        return TimeUnit.NANOSECONDS.toMillis(nanoTime());
+    }
+
+    /**
+     * Take from a queue, waiting if it is empty
+     * @param queue queue to take from
+     * @param nanos most nanoseconds to wait
+     * @param <E>   type of the elements
+     * @return      element taken, or null if the time was up first
+     * @throws InterruptedException
+     */
+    <E> E poll(BlockingQueue<E> queue, long nanos) throws InterruptedException;
+
+    /**
+     * Pause, as with Thread.sleep
+     * @param millis    milliseconds to pause for
+     * @throws InterruptedException
+     */
+    default void sleep(long millis) throws InterruptedException
+    {
+        Thread.sleep(millis);
+    }
+}
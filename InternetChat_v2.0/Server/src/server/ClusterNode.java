@@ -0,0 +1,621 @@
+package server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URLDecoder;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One node of a cluster of Servers, so chat rooms are spread over many processes or machines.
+ * Each room is placed on one node by a HashRing, and runs there as a Server on the node's ServerGroup,
+ * as a key exchange needs every Client of the room on the same Server.
+ * Clients can connect to any node: each connection names its room first, then says what it is as usual.
+ * Both lines are read by the node's ServerGroup, along with those of every other connection, as a Door.
+ * A node opens at most MAX_ROOMS rooms, and closes rooms once they have been empty for a while.
+ * A connection for a room on this node goes to the room's Server; one for a room on another node is passed
+ * to that node through the Relay, and its lines go back and forth on a RelayLink to that node,
+ * batched with every other connection between the two nodes.
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+
+public class ClusterNode implements ServerGroup.Door, Relay.Receiver
+{
+    /**
+     * Most rooms open on a node at once; connections for more are closed
+     */
+    public static final int MAX_ROOMS = 1000;
+    /**
+     * Milliseconds between looks for empty rooms; rooms found empty on two in a row are closed
+     */
+    public static final int ROOM_SWEEP = 30000;
+
+    /**
+     * Sets up each room's Server before it takes Clients, such as with the options and listeners of a Server
+     */
+    public interface RoomSetup
+    {
+        /**
+         * Set up a room's Server
+         * @param room      name of the room
+         * @param server    Server of the room, not yet taking Clients
+         */
+        void setUp(String room, Server server);
+    }
+
+    /**
+     * Connection from a Client to this node for a room on another node.
+     * Reads lines from the Client and sends them on as IN messages, and writes lines from OUT messages
+     * to the Client on an Outbox, so a slow Client never holds up the RelayLink.
+     */
+    private class Forward extends Thread
+    {
+        /**
+         * Connection from the Client
+         */
+        Socket socket;
+        /**
+         * Sends to the node the room is on
+         */
+        RelayLink link;
+        /**
+         * Stream number of the connection
+         */
+        String stream;
+        /**
+         * Writes lines to the Client, in order
+         */
+        Outbox outbox;
+        /**
+         * Whether the room's node closed the connection
+         */
+        volatile boolean shut = false;
+
+        /**
+         * Constructor for Forward
+         * @param socket    connection from the Client
+         * @param link      sends to the node the room is on
+         * @param stream    stream number of the connection
+         * @throws IOException
+         */
+        Forward(Socket socket, RelayLink link, String stream) throws IOException
+        {
+            this.socket = socket;
+            this.link   = link;
+            this.stream = stream;
+            outbox      = new Outbox("Forward" + stream + "Out", new PrintWriter(
+                    new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true), true);
+            this.setName("Forward" + stream);
+            this.setDaemon(true);
+        }
+
+        /**
+         * Send lines from the Client on until either end closes the connection
+         */
+        @Override
+        public void run()
+        {
+            outbox.start();
+            try
+            {
+                BufferedReader in = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+                String line;
+                while ((line = in.readLine()) != null)
+                {
+                    // The RelayLink stayed full; the connection is closed rather than queueing without end
+                    if (!link.put(Relay.IN + " " + stream + " " + line)) break;
+                }
+            } catch (IOException e)
+            {
+                // Connection dropped, or shut by the room's node
+            } finally
+            {
+                forwards.remove(stream);
+                if (!shut) link.add(Relay.CLOSE + " " + stream);
+                try
+                {
+                    // Lines the room's node sent before it closed the connection
+                    if (shut) outbox.drain(Server.ROUND_TIMEOUT);
+                } catch (InterruptedException e) {}
+                outbox.close();
+                try
+                {
+                    socket.close();
+                } catch (IOException e) {}
+            }
+        }
+
+        /**
+         * Pass on a line to the Client
+         * @param line  line without its line break
+         */
+        void deliver(String line)
+        {
+            try
+            {
+                // Never waits; everything from the room's node goes in one lane, in order
+                outbox.add(line);
+            } catch (InterruptedException e) {}
+        }
+
+        /**
+         * The room's node closed the connection; the Client gets the lines before it, then the connection closes
+         */
+        void shut()
+        {
+            shut = true;
+            try
+            {
+                socket.shutdownInput();
+            } catch (IOException e)
+            {
+                try
+                {
+                    socket.close();
+                } catch (IOException f) {}
+            }
+        }
+    }
+
+    /**
+     * Name of the node
+     */
+    String id;
+    /**
+     * Takes connections from Clients
+     */
+    ServerSocketChannel channel;
+    /**
+     * Carries messages to other nodes
+     */
+    Relay relay;
+    /**
+     * Places rooms on nodes
+     */
+    HashRing ring;
+    /**
+     * Accepts connections, and runs the Servers of rooms on this node
+     */
+    ServerGroup group;
+    /**
+     * Sets up each room's Server
+     */
+    RoomSetup setup = null;
+    /**
+     * Servers of rooms on this node, by name; guarded by itself
+     */
+    HashMap<String, Server> rooms = new HashMap<>();
+    /**
+     * Most rooms open at once
+     */
+    int maxRooms = MAX_ROOMS;
+    /**
+     * Milliseconds between looks for empty rooms
+     */
+    int sweepTime = ROOM_SWEEP;
+    /**
+     * Rooms found empty on the last look, with the connections they had been passed by then;
+     * only used by the look
+     */
+    HashMap<Server, Long> empty = new HashMap<>();
+    /**
+     * Sends to each other node, by name; guarded by itself
+     */
+    HashMap<String, RelayLink> links = new HashMap<>();
+    /**
+     * Connections to this node for rooms on other nodes, by stream number
+     */
+    ConcurrentHashMap<String, Forward> forwards = new ConcurrentHashMap<>();
+    /**
+     * Connections from other nodes to rooms on this node, by node and stream number
+     */
+    ConcurrentHashMap<String, RelaySocket> hosted = new ConcurrentHashMap<>();
+    /**
+     * Number of the next stream; guarded by forwards
+     */
+    long nextStream = 0;
+    /**
+     * Whether the node is open
+     */
+    volatile boolean open = true;
+
+    /**
+     * Constructor for ClusterNode
+     * @param id            name of the node, as on the HashRing
+     * @param portNumber    port Clients connect to; 0 for any free port
+     * @param relay         carries messages to other nodes
+     * @param ring          places rooms on nodes; shared with the other nodes in the process, if any
+     * @throws IOException  if the port can't be opened, or the node can't be bound to the Relay
+     */
+    public ClusterNode(String id, int portNumber, Relay relay, HashRing ring) throws IOException
+    {
+        this.id    = id;
+        this.relay = relay;
+        this.ring  = ring;
+        channel    = ServerSocketChannel.open();
+        try
+        {
+            channel.bind(new InetSocketAddress(portNumber));
+            group = new ServerGroup();
+            relay.bind(id, this);
+        } catch (IOException e)
+        {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Set how each room's Server is set up
+     * @param setup sets up each room's Server before it takes Clients
+     */
+    public void setRoomSetup(RoomSetup setup)
+    {
+        this.setup = setup;
+    }
+
+    /**
+     * Start accepting connections
+     */
+    public void start()
+    {
+        group.start();
+        group.serve(channel, this);
+        scheduleSweep();
+    }
+
+    /**
+     * Look for empty rooms after sweepTime, on a Thread of the ServerGroup, as looking waits on each room
+     */
+    void scheduleSweep()
+    {
+        group.wheel.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if (!open) return;
+                group.coordinators.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        sweep();
+                        scheduleSweep();
+                    }
+                });
+            }
+        }, sweepTime);
+    }
+
+    /**
+     * Close rooms that were empty on the last look and still are, with no connections passed to them since,
+     * and forget rooms that were closed, such as by draining
+     */
+    void sweep()
+    {
+        HashMap<Server, Long> found = new HashMap<>();
+        ArrayList<Server> idle      = new ArrayList<>();
+        for (Server server : rooms().values())
+        {
+            // Outside the lock on rooms, so a busy room never holds up connections to others
+            long mark = server.emptyMark();
+            if (mark < 0) continue;
+            found.put(server, mark);
+            Long last = empty.get(server);
+            if (last != null && last == mark) idle.add(server);
+        }
+        empty = found;
+
+        ArrayList<Server> closing = new ArrayList<>();
+        synchronized (rooms)
+        {
+            for (Iterator<Map.Entry<String, Server>> it = rooms.entrySet().iterator(); it.hasNext(); )
+            {
+                Server server = it.next().getValue();
+                // Connections are passed to rooms under the lock, so none can arrive once this finds none did
+                if (!server.open || (idle.contains(server) && server.arrived() == found.get(server)))
+                {
+                    it.remove();
+                    empty.remove(server);
+                    closing.add(server);
+                }
+            }
+        }
+        for (Server server : closing)
+        {
+            if (server.open) server.close();
+        }
+    }
+
+    /**
+     * Number of lines a connection sends before it is passed on
+     * @return  2: the room, then the first line as to any Server
+     */
+    @Override
+    public int lines()
+    {
+        return 2;
+    }
+
+    /**
+     * Whether the node is open
+     * @return  false once closed
+     */
+    @Override
+    public boolean isOpen()
+    {
+        return open;
+    }
+
+    /**
+     * Pass a connection to its room, here or on another node, once the ServerGroup has read which room it is for
+     * and its first line. Connections that name no room are closed.
+     * Never waits: a room here sorts the connection on its own Thread, and one on another node is sent on.
+     * @param socket    new connection
+     * @param lines     room line and first line
+     */
+    @Override
+    public void enter(Socket socket, String[] lines)
+    {
+        try
+        {
+            String first = lines[0];
+            String hello = lines[1];
+            if (!first.startsWith(ServerKeyExchange.ROOM + " "))
+            {
+                socket.close();
+                return;
+            }
+
+            String room  = first.substring(ServerKeyExchange.ROOM.length() + 1);
+            String owner = ring.owner(URLDecoder.decode(room, StandardCharsets.UTF_8));
+            if (owner == null || owner.equals(id))
+            {
+                enterRoom(URLDecoder.decode(room, StandardCharsets.UTF_8), socket, hello);
+                return;
+            }
+
+            RelayLink link = link(owner);
+            Forward f;
+            synchronized (forwards)
+            {
+                f = new Forward(socket, link, Long.toString(nextStream++));
+                forwards.put(f.stream, f);
+            }
+            link.add(Relay.OPEN + " " + f.stream + " " + room + " " + hello);
+            f.start();
+        } catch (IOException | RuntimeException e)
+        {
+            // Includes garbled room names
+            try
+            {
+                socket.close();
+            } catch (IOException f) {}
+        }
+    }
+
+    /**
+     * Pass a connection to a room on this node, opening the room if needed
+     * @param name      name of the room
+     * @param socket    connection
+     * @param hello     its first line
+     * @throws IOException  if the node is closed, or has too many rooms to open another
+     */
+    void enterRoom(String name, Socket socket, String hello) throws IOException
+    {
+        synchronized (rooms)
+        {
+            // Under the lock, so a sweep never closes a room just passed a connection
+            room(name).arrive(socket, hello);
+        }
+    }
+
+    /**
+     * Server of a room on this node, opened and set up the first time it is asked for
+     * @param name  name of the room
+     * @return      Server of the room
+     * @throws IOException  if the node is closed, or has too many rooms to open another
+     */
+    Server room(String name) throws IOException
+    {
+        synchronized (rooms)
+        {
+            if (!open) throw new SocketException("Node closed");
+            Server server = rooms.get(name);
+            // Opened again after it was drained
+            if (server == null || !server.open)
+            {
+                if (server == null && rooms.size() >= maxRooms) throw new SocketException("Too many rooms");
+                server = group.openRoom();
+                if (setup != null) setup.setUp(name, server);
+                rooms.put(name, server);
+            }
+            return server;
+        }
+    }
+
+    /**
+     * Rooms on this node
+     * @return  Servers of the rooms by name, in no order
+     */
+    public Map<String, Server> rooms()
+    {
+        synchronized (rooms)
+        {
+            return new HashMap<>(rooms);
+        }
+    }
+
+    /**
+     * RelayLink to another node, started the first time it is asked for
+     * @param node  name of the node
+     * @return      RelayLink to the node
+     */
+    RelayLink link(String node)
+    {
+        synchronized (links)
+        {
+            RelayLink link = links.get(node);
+            if (link == null)
+            {
+                link = new RelayLink(this, node);
+                links.put(node, link);
+                link.start();
+            }
+            return link;
+        }
+    }
+
+    /**
+     * Take a batch of messages from another node; on its RelayLink's Thread with a LoopbackRelay
+     * @param from  node that sent them
+     * @param batch messages
+     */
+    @Override
+    public void received(String from, List<String> batch)
+    {
+        for (String message : batch)
+        {
+            String[] parts = message.split(" ", 3);
+            try
+            {
+                if (parts[0].equals(Relay.OPEN))
+                {
+                    // Room name, then the Client's first line
+                    String[] rest = parts[2].split(" ", 2);
+                    RelaySocket s = new RelaySocket(this, link(from), parts[1]);
+                    hosted.put(from + " " + parts[1], s);
+                    try
+                    {
+                        enterRoom(URLDecoder.decode(rest[0], StandardCharsets.UTF_8), s, rest[1]);
+                    } catch (IOException | RuntimeException e)
+                    {
+                        // Too many rooms, a garbled room name, or this node is closing
+                        s.close();
+                    }
+                } else if (parts[0].equals(Relay.IN))
+                {
+                    RelaySocket s = hosted.get(from + " " + parts[1]);
+                    if (s != null) s.deliver(parts.length > 2 ? parts[2] : "");
+                } else if (parts[0].equals(Relay.CLOSE))
+                {
+                    RelaySocket s = hosted.remove(from + " " + parts[1]);
+                    if (s != null) s.end();
+                } else if (parts[0].equals(Relay.OUT))
+                {
+                    for (String stream : parts[1].split(","))
+                    {
+                        Forward f = forwards.get(stream);
+                        if (f != null) f.deliver(parts.length > 2 ? parts[2] : "");
+                    }
+                } else if (parts[0].equals(Relay.SHUT))
+                {
+                    Forward f = forwards.get(parts[1]);
+                    if (f != null) f.shut();
+                }
+            } catch (RuntimeException e)
+            {
+                // Garbled message; the connection it was for times out
+            }
+        }
+    }
+
+    /**
+     * Forget a connection from another node once its room closed it
+     * @param node      node the Client connected to
+     * @param stream    stream number of the connection
+     */
+    void forget(String node, String stream)
+    {
+        hosted.remove(node + " " + stream);
+    }
+
+    /**
+     * Close every connection through a node that can't be reached; their Clients resume or join again
+     * @param node  name of the node
+     */
+    void lost(String node)
+    {
+        for (Map.Entry<String, Forward> e : forwards.entrySet())
+        {
+            if (e.getValue().link.to.equals(node)) e.getValue().shut();
+        }
+        for (Map.Entry<String, RelaySocket> e : hosted.entrySet())
+        {
+            if (e.getKey().startsWith(node + " ")) e.getValue().end();
+        }
+    }
+
+    /**
+     * Number of messages waiting to go to other nodes
+     * @return  messages queued on every RelayLink
+     */
+    public int relayDepth()
+    {
+        int depth = 0;
+        synchronized (links)
+        {
+            for (RelayLink link : links.values())
+            {
+                depth += link.depth();
+            }
+        }
+        return depth;
+    }
+
+    /**
+     * Stop the node: close its rooms, every connection through it, and its RelayLinks
+     */
+    public void close()
+    {
+        open = false;
+        relay.unbind(id);
+        try
+        {
+            channel.close();
+        } catch (IOException e) {}
+
+        synchronized (rooms)
+        {
+            for (Server server : rooms.values())
+            {
+                server.close();
+            }
+            rooms.clear();
+        }
+        for (Forward f : forwards.values())
+        {
+            f.shut();
+        }
+        synchronized (links)
+        {
+            for (RelayLink link : links.values())
+            {
+                link.close();
+            }
+        }
+        group.close();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "Node " + id + " on port " + channel.socket().getLocalPort();
+    }
+}
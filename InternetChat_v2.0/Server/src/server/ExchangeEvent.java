@@ -0,0 +1,55 @@
+package server;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event for one round of key exchange carried out by a Server.
+ * Covers accepting the exchange Sockets and running the ExchangeTree.
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+
+@Name("server.Exchange")
+@Label("Key Exchange")
+@Category({"InternetChat", "Key Exchange"})
+@Description("One doExchange round for a single ServerKeyExchange")
+public class ExchangeEvent extends Event
+{
+    /**
+     * Port of the Server carrying out the exchange
+     */
+    @Label("Port")
+    int port;
+    /**
+     * x-coordinate of associated ServerKeyExchange
+     */
+    @Label("Row")
+    int row;
+    /**
+     * y-coordinate of associated ServerKeyExchange
+     */
+    @Label("Column")
+    int column;
+    /**
+     * Number of Clients taking part in the exchange
+     */
+    @Label("Participants")
+    int participants;
+    /**
+     * Nanoseconds spent accepting exchange Sockets from Clients
+     */
+    @Label("Accept Time")
+    @Timespan
+    long acceptTime;
+    /**
+     * Number of Clients evicted for stalling, leaving, or being slowest when the key exchange ran out of time
+     */
+    @Label("Evicted")
+    int evicted;
+}
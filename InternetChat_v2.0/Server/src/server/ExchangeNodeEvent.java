@@ -0,0 +1,33 @@
+package server;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for one step of an ExchangeTreeNode.
+ * Duration is time spent waiting on the node's Clients.
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+
+@Name("server.ExchangeNode")
+@Label("Exchange Node Step")
+@Category({"InternetChat", "Key Exchange"})
+@Description("processSelf or finish on one ExchangeTreeNode")
+public class ExchangeNodeEvent extends Event
+{
+    /**
+     * Step being carried out, either "processSelf" or "finish"
+     */
+    @Label("Step")
+    String step;
+    /**
+     * Number of Clients associated with the node
+     */
+    @Label("Participants")
+    int participants;
+}
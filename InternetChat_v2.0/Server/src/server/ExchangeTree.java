@@ -1,6 +1,6 @@
 package server;
 
-import javax.swing.tree.DefaultTreeModel;
+import java.io.IOException;
 import java.util.Arrays;
 
 /**
@@ -10,7 +10,7 @@ import java.util.Arrays;
  * @version 1.0.0
  */
 
-public class ExchangeTree extends DefaultTreeModel {
+public class ExchangeTree {
     /**
      * All Nodes in Tree
      */
@@ -31,7 +31,6 @@ public class ExchangeTree extends DefaultTreeModel {
      */
     public ExchangeTree(ExchangeTreeNode root, int[] info)
     {
-        super(root);
         this.root = root;
 
         // Make sure Sockets of all ExchangeThreads stay open
@@ -45,8 +44,9 @@ public class ExchangeTree extends DefaultTreeModel {
 
     /**
      * Carry out key exchange
+     * @throws IOException  if a Client stalls or leaves; its ExchangeThread is marked as failed
      */
-    public void doExchange()
+    public void doExchange() throws IOException
     {
         // Tree is made up only of root node; only process within itself
         if (nodes == 1)
@@ -55,12 +55,12 @@ public class ExchangeTree extends DefaultTreeModel {
         } else
         {
             // Do exchange in each child branch
-            int[] temp1 = doe(inf, (ExchangeTreeNode) root.getFirstChild());
-            int[] temp2 = doe(inf, (ExchangeTreeNode) root.getLastChild());
+            int[] temp1 = doe(inf, root.getFirstChild());
+            int[] temp2 = doe(inf, root.getLastChild());
 
             // Pass each branch's information to the other branch, and finish the exchange
-            finish(temp1, (ExchangeTreeNode) root.getLastChild());
-            finish(temp2, (ExchangeTreeNode) root.getFirstChild());
+            finish(temp1, root.getLastChild());
+            finish(temp2, root.getFirstChild());
 
         }
     }
@@ -71,8 +71,9 @@ public class ExchangeTree extends DefaultTreeModel {
      * @param n     node to process
      * @return      if node isn't a leaf, result from the branch
      *              else, result from node
+     * @throws IOException  if a Client stalls or leaves
      */
-    public int[] doe(int[] inf, ExchangeTreeNode n)
+    public int[] doe(int[] inf, ExchangeTreeNode n) throws IOException
     {
         // If the node is a leaf (i.e. no children), process within self
         if (n.isLeaf())
@@ -82,9 +83,9 @@ public class ExchangeTree extends DefaultTreeModel {
         } else
         {
             // Process one branch
-            int[] temp = doe(inf, (ExchangeTreeNode) n.getFirstChild());
+            int[] temp = doe(inf, n.getFirstChild());
             // Pass resulting information to other branch, and process in other branch
-            return       doe(temp, (ExchangeTreeNode) n.getLastChild());
+            return       doe(temp, n.getLastChild());
         }
     }
 
@@ -93,8 +94,9 @@ public class ExchangeTree extends DefaultTreeModel {
      * Make sure private key never passes through Server side
      * @param inf   information to process
      * @param n     node to be processed
+     * @throws IOException  if a Client stalls or leaves
      */
-    public void finish(int[] inf, ExchangeTreeNode n)
+    public void finish(int[] inf, ExchangeTreeNode n) throws IOException
     {
         // If the node is a leaf (i.e. no children), process within self
         if (n.isLeaf())
@@ -103,12 +105,12 @@ public class ExchangeTree extends DefaultTreeModel {
         } else
         {
             // Do exchange in each child branch independently
-            int[] temp1 = doe(inf, (ExchangeTreeNode) n.getFirstChild());
-            int[] temp2 = doe(inf, (ExchangeTreeNode) n.getLastChild());
+            int[] temp1 = doe(inf, n.getFirstChild());
+            int[] temp2 = doe(inf, n.getLastChild());
 
             // Pass each branch's information to the other branch, and finish each branch independently
-            finish(temp1, (ExchangeTreeNode) n.getLastChild());
-            finish(temp2, (ExchangeTreeNode) n.getFirstChild());
+            finish(temp1, n.getLastChild());
+            finish(temp2, n.getFirstChild());
         }
     }
 
@@ -127,10 +129,10 @@ public class ExchangeTree extends DefaultTreeModel {
         else
         {
             int count = 1;   // Start by counting the root.
-            count += countNodes((ExchangeTreeNode) root.getFirstChild());
+            count += countNodes(root.getFirstChild());
             // Add the number of nodes
             //     in the left subtree.
-            count += countNodes((ExchangeTreeNode) root.getLastChild());
+            count += countNodes(root.getLastChild());
             // Add the number of nodes
             //    in the right subtree.
             return count;  // Return the total.
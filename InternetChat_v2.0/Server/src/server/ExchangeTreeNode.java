@@ -1,6 +1,6 @@
 package server;
 
-import javax.swing.tree.DefaultMutableTreeNode;
+import java.io.IOException;
 
 /**
  * Node in ExchangeTree
@@ -9,7 +9,7 @@ import javax.swing.tree.DefaultMutableTreeNode;
  * @version 1.0.0
  */
 
-public class ExchangeTreeNode extends DefaultMutableTreeNode
+public class ExchangeTreeNode
 {
     /**
      * Threads carrying out key exchange
@@ -23,6 +23,10 @@ public class ExchangeTreeNode extends DefaultMutableTreeNode
      * Base and modulo received from associated Client
      */
     int[] info;
+    /**
+     * Child nodes, in the order they were added
+     */
+    ExchangeTreeNode first, last;
 
     /**
      * Constructor for ExchangeTreeNode
@@ -33,12 +37,54 @@ public class ExchangeTreeNode extends DefaultMutableTreeNode
         exchangeThreads = s;
     }
 
+    /**
+     * Add a child node.
+     * A node has at most two children.
+     * @param child node to add
+     */
+    public void add(ExchangeTreeNode child)
+    {
+        if (first == null) first = child;
+        else last = child;
+    }
+
+    /**
+     * Get the first child node
+     * @return  first child node added, or null if this node is a leaf
+     */
+    public ExchangeTreeNode getFirstChild()
+    {
+        return first;
+    }
+
+    /**
+     * Get the last child node
+     * @return  last child node added, or null if this node is a leaf
+     */
+    public ExchangeTreeNode getLastChild()
+    {
+        return last == null ? first : last;
+    }
+
+    /**
+     * Check if node has children
+     * @return  true if this node has no children
+     */
+    public boolean isLeaf()
+    {
+        return first == null;
+    }
+
     /**
      * Process information through Clients associated with node's ExchangeThreads when exchange is not over
      * @param inf   information to process
+     * @throws IOException  if a Client stalls or leaves
      */
-    public void processSelf(int[] inf)
+    public void processSelf(int[] inf) throws IOException
     {
+        ExchangeNodeEvent event = new ExchangeNodeEvent();
+        event.begin();
+
         int[] temp = inf.clone();
 
         for (ServerExchangeThread e : exchangeThreads)
@@ -50,14 +96,20 @@ public class ExchangeTreeNode extends DefaultMutableTreeNode
 
         result = temp[0];
         info   = temp;
+
+        commit(event, "processSelf");
     }
 
     /**
      * Process information through Clients associated with node's ExchangeThreads when exchange is over
      * @param inf   information to process
+     * @throws IOException  if a Client stalls or leaves
      */
-    public void finish(int[] inf)
+    public void finish(int[] inf) throws IOException
     {
+        ExchangeNodeEvent event = new ExchangeNodeEvent();
+        event.begin();
+
         int[] temp = inf.clone();
         int size   = exchangeThreads.length;
 
@@ -94,5 +146,22 @@ public class ExchangeTreeNode extends DefaultMutableTreeNode
             t.sendToClient(temp);
             t.out.println(ServerKeyExchange.DONE);
         }
+
+        commit(event, "finish");
+    }
+
+    /**
+     * Record a step of this node if Flight Recorder is recording it
+     * @param event event begun at the start of the step
+     * @param step  name of the step
+     */
+    private void commit(ExchangeNodeEvent event, String step)
+    {
+        if (event.shouldCommit())
+        {
+            event.step         = step;
+            event.participants = exchangeThreads.length;
+            event.commit();
+        }
     }
 }
\ No newline at end of file
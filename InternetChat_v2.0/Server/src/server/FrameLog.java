@@ -0,0 +1,335 @@
+package server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * Keeps the frames a Server has broadcast, by sequence number, so Clients that missed some can get them again.
+ * The newest frames are kept in memory. Older ones are written to files when they leave memory,
+ * and read back from them only when asked for.
+ * Clients are never sent frames older than Inbox.LIMIT, so only that many are kept in all:
+ * the files are segments of a few thousand frames each, and the oldest is deleted once none of its frames are needed.
+ * If the files can't be written, older frames are forgotten instead.
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+
+public class FrameLog
+{
+    /**
+     * Number of frames kept in memory by default
+     */
+    public static final int RING_SIZE = 4096;
+    /**
+     * Number of frames kept in files by default; with those in memory, as many as a Client is ever sent
+     */
+    public static final int KEPT = Inbox.LIMIT - RING_SIZE;
+    /**
+     * Number of segments the frames kept in files are split over, besides the one being written
+     */
+    public static final int SEGMENTS = 4;
+
+    /**
+     * Frames that left memory, written one after another in UTF-8 to a file deleted when it is closed
+     */
+    static class Segment
+    {
+        /**
+         * Sequence number of the first frame
+         */
+        long first;
+        /**
+         * Offset of each frame in the file; fixed once written
+         */
+        long[] offsets;
+        /**
+         * Number of frames written; guarded by the FrameLog
+         */
+        int count = 0;
+        /**
+         * Bytes written; guarded by the FrameLog
+         */
+        long length = 0;
+        /**
+         * Writes and reads the file; reads may happen at any time, from any Thread
+         */
+        FileChannel channel;
+
+        /**
+         * Constructor for Segment.
+         * Creates its file.
+         * @param first     sequence number of the first frame
+         * @param frames    most frames it holds
+         * @throws IOException
+         */
+        Segment(long first, int frames) throws IOException
+        {
+            this.first = first;
+            offsets    = new long[frames];
+            channel    = FileChannel.open(Files.createTempFile("frames", ".log"), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+        }
+
+        /**
+         * Write a frame to the end of the file
+         * @param frame frame to write
+         * @throws IOException
+         */
+        void write(String frame) throws IOException
+        {
+            ByteBuffer b   = ByteBuffer.wrap(frame.getBytes(StandardCharsets.UTF_8));
+            offsets[count] = length;
+            while (b.hasRemaining())
+            {
+                channel.write(b, length + b.position());
+            }
+            length += b.limit();
+            count++;
+        }
+
+        /**
+         * Close and delete the file; reads under way fail
+         */
+        void close()
+        {
+            try
+            {
+                channel.close();
+            } catch (IOException e) {}
+        }
+    }
+
+    /**
+     * Frames to read from one Segment, chosen while holding the FrameLog and read after letting go of it
+     */
+    static class Span
+    {
+        /**
+         * Segment holding the frames
+         */
+        Segment segment;
+        /**
+         * Sequence number of the first frame to read
+         */
+        long from;
+        /**
+         * Sequence number after the last frame to read
+         */
+        long to;
+        /**
+         * Offset in the file after the last frame to read
+         */
+        long end;
+    }
+
+    /**
+     * Newest frames, at their sequence number modulo the length
+     */
+    String[] ring;
+    /**
+     * Sequence number of the next frame; the first frame is 1
+     */
+    long next = 1;
+    /**
+     * Number of frames kept in files
+     */
+    int kept;
+    /**
+     * Most frames in one Segment
+     */
+    int segmentFrames;
+    /**
+     * Segments kept, oldest first
+     */
+    ArrayDeque<Segment> segments = new ArrayDeque<>();
+    /**
+     * Number of frames that left memory; frames 1 to spilled
+     */
+    long spilled = 0;
+    /**
+     * Whether the files could not be written; frames leaving memory are then forgotten
+     */
+    boolean failed = false;
+
+    /**
+     * Constructor for FrameLog with the default number of frames kept in memory and in files
+     */
+    public FrameLog()
+    {
+        this(RING_SIZE, KEPT);
+    }
+
+    /**
+     * Constructor for FrameLog
+     * @param ringSize  number of frames kept in memory
+     * @param kept      number of frames kept in files once they leave memory; 0 to forget them
+     */
+    public FrameLog(int ringSize, int kept)
+    {
+        ring               = new String[ringSize];
+        this.kept          = Math.max(0, kept);
+        this.segmentFrames = Math.max(1, (this.kept + SEGMENTS - 1) / SEGMENTS);
+    }
+
+    /**
+     * Add a frame, writing the oldest frame in memory to a file if memory is full
+     * @param frame frame without its sequence number
+     * @return      sequence number given to the frame
+     */
+    public synchronized long append(String frame)
+    {
+        long seq = next++;
+        int slot = (int) (seq % ring.length);
+        if (ring[slot] != null) spill(ring[slot]);
+        ring[slot] = frame;
+        return seq;
+    }
+
+    /**
+     * Get a frame
+     * @param seq   sequence number of the frame
+     * @return      the frame, or null if there is no such frame or it was forgotten
+     */
+    public String get(long seq)
+    {
+        return get(seq, seq + 1)[0];
+    }
+
+    /**
+     * Get a run of frames.
+     * Frames in files are read after letting go of the FrameLog, so appending doesn't wait for them.
+     * @param from  sequence number of the first frame
+     * @param to    sequence number after the last frame
+     * @return      the frames in order, each null if there is no such frame or it was forgotten
+     */
+    public String[] get(long from, long to)
+    {
+        String[] frames       = new String[(int) Math.max(0, to - from)];
+        ArrayList<Span> spans = new ArrayList<>();
+        synchronized (this)
+        {
+            for (long seq = Math.max(from, spilled + 1); seq < Math.min(to, next); seq++)
+            {
+                frames[(int) (seq - from)] = ring[(int) (seq % ring.length)];
+            }
+            for (Segment s : segments)
+            {
+                long a = Math.max(from, s.first);
+                long b = Math.min(to, s.first + s.count);
+                if (a >= b) continue;
+
+                Span span    = new Span();
+                span.segment = s;
+                span.from    = a;
+                span.to      = b;
+                span.end     = b < s.first + s.count ? s.offsets[(int) (b - s.first)] : s.length;
+                spans.add(span);
+            }
+        }
+
+        for (Span span : spans)
+        {
+            read(span, frames, from);
+        }
+        return frames;
+    }
+
+    /**
+     * Read the frames of a Span from its file with one read
+     * @param span      frames to read
+     * @param frames    where to put them, by sequence number
+     * @param from      sequence number at the start of frames
+     */
+    void read(Span span, String[] frames, long from)
+    {
+        Segment s    = span.segment;
+        long start   = s.offsets[(int) (span.from - s.first)];
+        ByteBuffer b = ByteBuffer.allocate((int) (span.end - start));
+        try
+        {
+            while (b.hasRemaining())
+            {
+                if (s.channel.read(b, start + b.position()) == -1) return;
+            }
+        } catch (ClosedChannelException e)
+        {
+            // The segment was deleted meanwhile; its frames are forgotten
+            return;
+        } catch (IOException e)
+        {
+            e.printStackTrace();
+            return;
+        }
+
+        byte[] bytes = b.array();
+        for (long seq = span.from; seq < span.to; seq++)
+        {
+            int a = (int) (s.offsets[(int) (seq - s.first)] - start);
+            int z = (int) ((seq + 1 < span.to ? s.offsets[(int) (seq + 1 - s.first)] : span.end) - start);
+            frames[(int) (seq - from)] = new String(bytes, a, z - a, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Get the sequence number the next frame will be given
+     * @return  sequence number of the next frame
+     */
+    public synchronized long next()
+    {
+        return next;
+    }
+
+    /**
+     * Write a frame leaving memory to the newest Segment, starting a new one when it is full,
+     * and delete the oldest once every frame in it is older than the frames kept
+     * @param frame frame to write
+     */
+    void spill(String frame)
+    {
+        long seq = ++spilled;
+        if (failed || kept == 0) return;
+
+        try
+        {
+            Segment s = segments.peekLast();
+            if (s == null || s.count == s.offsets.length)
+            {
+                s = new Segment(seq, segmentFrames);
+                segments.add(s);
+            }
+            s.write(frame);
+
+            Segment oldest = segments.peekFirst();
+            while (oldest.first + oldest.count <= seq - kept + 1)
+            {
+                segments.removeFirst().close();
+                oldest = segments.peekFirst();
+            }
+        } catch (IOException e)
+        {
+            e.printStackTrace();
+            failed = true;
+        }
+    }
+
+    /**
+     * Close and delete the files
+     */
+    public synchronized void close()
+    {
+        for (Segment s : segments)
+        {
+            s.close();
+        }
+        segments.clear();
+        failed = true;
+    }
+}
@@ -3,8 +3,11 @@ package server;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Thread to handle the information coming from the associated client
@@ -23,6 +26,68 @@ public class Handler extends Thread
      * Associated server
      */
     Server server;
+    /**
+     * Id the client's ExchangeThreads give when they connect
+     */
+    int id;
+    /**
+     * Whether the client has chosen its name and is in the chat
+     */
+    volatile boolean joined = false;
+    /**
+     * Whether the client's name was kept for it when it connected,
+     * so it is let into the chat once it has the key, without choosing a name
+     */
+    boolean named = false;
+    /**
+     * Ticket the client can resume with if its connection drops; null if it has none
+     */
+    String ticket;
+    /**
+     * Time in milliseconds, by the Server's Clock, until which the ticket can be used.
+     * Set once the client has left.
+     */
+    volatile long resumeBy = Long.MAX_VALUE;
+    /**
+     * Time in milliseconds, by the Server's Clock, until which the ticket can be used to join again
+     * and be sent the messages missed.
+     * Set once the client has left.
+     */
+    volatile long inboxBy = Long.MAX_VALUE;
+    /**
+     * Sequence number of the first frame to send the client once it is in the chat,
+     * if it is joining again after its connection dropped; 0 if none
+     */
+    long inbox = 0;
+    /**
+     * Whether the client is being sent frames it missed; new frames are not sent to it meanwhile
+     */
+    volatile boolean catchingUp = false;
+    /**
+     * Number of the last message from the client that was relayed
+     */
+    long lastKey = 0;
+    /**
+     * Sequence number of the first frame broadcast after the client connected
+     */
+    long fromSeq;
+    /**
+     * Time in milliseconds of the Server's Clock a line was last read from the client
+     */
+    volatile long lastHeard;
+    /**
+     * Time in milliseconds of the Server's Clock the client was sent PING, if it has not sent anything since;
+     * Long.MIN_VALUE otherwise
+     */
+    long pingedAt = Long.MIN_VALUE;
+    /**
+     * Next check that the client is still there; null if it isn't checked
+     */
+    TimerWheel.Timeout heartbeat;
+    /**
+     * Limits messages from the client; null if there are no limits
+     */
+    RateLimiter limiter;
     /**
      * Read incoming information from client
      */
@@ -31,53 +96,81 @@ public class Handler extends Thread
      * Send information to client
      */
     PrintWriter out;
+    /**
+     * Writes to the client on its own Thread, control lines before frames
+     */
+    Outbox outbox;
 
     /**
      * Constructor for Handler.
      * Get basic objects needed for connection.
+     * Streams are opened here so the Server can send to this Handler as soon as it is added.
      * @param clientSocket  Connection to client
      * @param s             Associated server
+     * @throws IOException
      */
-    public Handler(Socket clientSocket, Server s)
+    public Handler(Socket clientSocket, Server s) throws IOException
     {
         this.clientSocket = clientSocket;
         this.server       = s;
+        this.limiter      = s.newRateLimiter();
         this.setName("H" + this.getName().substring(this.getName().length()-1));
+
+        // Establish input and output streams
+        in  = new BufferedReader(new InputStreamReader(clientSocket.getInputStream(), StandardCharsets.UTF_8));
+        out = new PrintWriter(new OutputStreamWriter(clientSocket.getOutputStream(), StandardCharsets.UTF_8), true);
+
+        // Frames the client is behind on wait in the Outbox rather than the socket,
+        // where control lines can go before them
+        clientSocket.setSendBufferSize(Outbox.SEND_BUFFER);
+        outbox = new Outbox(getName() + "Out", out, s.spillOutbound);
+        outbox.start();
+    }
+
+    /**
+     * Send a control line to the client, ahead of any frames waiting to be written.
+     * Never waits for the client.
+     * @param line  line to send
+     */
+    public void send(String line)
+    {
+        outbox.addControl(line);
+    }
+
+    /**
+     * Send frames to the client, after those already waiting to be written.
+     * If the client is slow, waits for room, unless frames are spilled to a file.
+     * @param text  one or more frames, without the last new line
+     * @throws InterruptedException
+     */
+    public void sendFrames(String text) throws InterruptedException
+    {
+        outbox.add(text);
+    }
+
+    /**
+     * Send frames to the client, after those already waiting to be written, if there is room for them now.
+     * Never waits, so a broadcast under the Server's lock isn't held up by a slow client.
+     * @param text  one or more frames, without the last new line
+     * @return      true if they were queued; false if the client is too far behind to take them
+     */
+    public boolean offerFrames(String text)
+    {
+        return outbox.offer(text);
     }
 
     /**
      * Run the Handler Thread.
      * Receive and send information with the client.
+     * A client that resumed is already in the chat, and one given a name when it connected
+     * is let in by the Server, so neither chooses a name.
      */
     public void run()
     {
         try
         {
-            // Establish input and output streams
-            in  = new BufferedReader(new InputStreamReader((clientSocket.getInputStream())));
-            out = new PrintWriter(clientSocket.getOutputStream(), true);
-
-            String n = in.readLine();
-
-            if (n != null) {
-                // Get name from client, and make sure it does not already exist in the chat
-                // Continues to prompt for name until unique name is given
-                while (!server.addName(n)) {
-                    out.println("NO");
-                    n = in.readLine();
-                    if (n == null) this.interrupt();
-                }
-            } else {
-                this.interrupt();
-            }
-            out.println("OK");
-
-            try {
-                // Set name of Thread to name from client
-                this.setName(n);
-                // Add name to existing pool of names
-                server.names.add(this.getName());
-            } catch (Exception e) {}
+            if (!joined && !named) negotiateName();
+
             // Inform other users already connected of entrance
             String inputLine;
 
@@ -85,21 +178,213 @@ public class Handler extends Thread
             // If user has left, inform other users of exit
             while ((inputLine = in.readLine()) != null)
             {
-                if (inputLine.equals("END"))
+                lastHeard = server.clock.millis();
+                if (inputLine.equals(ServerKeyExchange.PONG))
+                {
+                    // Only shows the client is still there
+                } else if (inputLine.equals("END"))
                 {
                     // Trash cleanup
                     // Get rid of this Handler and its name from the server's pool of names and Handlers
+                    // It left on purpose, so can't resume
+                    server.revokeTicket(this);
                     server.clientLeft(this);
                     break;
-                } else
+                } else if (inputLine.startsWith(ServerKeyExchange.WRAP + " "))
+                {
+                    // New key for Clients joining, if this client was asked for one
+                    server.wrapped(this, inputLine);
+                } else if (withinLimit(inputLine))
                 {
-                    server.sendMessage(inputLine);
+                    server.relay(this, inputLine);
+                } else if (limiter.action == RateLimiter.Action.DISCONNECT)
+                {
+                    // It would only resume and carry on
+                    send(ServerKeyExchange.LIMITED);
+                    outbox.drain(Server.ROUND_TIMEOUT);
+                    server.revokeTicket(this);
+                    server.evict(this);
+                    break;
                 }
             }
 
         } catch (IOException e)
         {
-            e.printStackTrace();
+            // Connection lost or closed by the Server
+        } catch (InterruptedException e)
+        {
+            // Server closed while throttling
+        } finally
+        {
+            // Does nothing if the client already left or was evicted
+            server.clientLeft(this);
+            outbox.close();
         }
     }
+
+    /**
+     * Get a unique name from the client and add it to the chat.
+     * @throws IOException
+     */
+    private void negotiateName() throws IOException
+    {
+        NameEvent event = new NameEvent();
+        event.begin();
+
+        String n     = in.readLine();
+        int attempts = 1;
+
+        if (n != null) {
+            // Get name from client, and make sure it does not already exist in the chat
+            // Continues to prompt for name until unique name is given
+            while (!server.reserveName(n)) {
+                send("NO");
+                n = in.readLine();
+                attempts++;
+                if (n == null) {
+                    this.interrupt();
+                    break;
+                }
+            }
+        } else {
+            this.interrupt();
+        }
+        send("OK");
+
+        if (event.shouldCommit())
+        {
+            event.attempts     = attempts;
+            event.participants = server.nameCount();
+            event.accepted     = n != null;
+            event.commit();
+        }
+
+        try {
+            // Set name of Thread to name from client
+            // Name was added to the server's pool of names when it was reserved
+            this.setName(n);
+            admit();
+        } catch (Exception e) {}
+    }
+
+    /**
+     * Add the client to the chat once it has a name and the key.
+     * It is given a ticket, and sent any messages it missed while away.
+     */
+    void admit()
+    {
+        joined = true;
+        server.clientJoined(this);
+        server.issueTicket(this);
+        if (inbox > 0) server.deliver(this, inbox);
+        startHeartbeat();
+    }
+
+    /**
+     * Start checking that the client is still there, once it is in the chat.
+     * Not before, since the user may take a while to choose a name.
+     */
+    synchronized void startHeartbeat()
+    {
+        if (server.idleTime <= 0) return;
+        lastHeard = server.clock.millis();
+        heartbeat = server.wheel.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                checkAlive();
+            }
+        }, server.idleTime);
+    }
+
+    /**
+     * Stop checking that the client is still there
+     */
+    synchronized void stopHeartbeat()
+    {
+        if (heartbeat != null) server.wheel.cancel(heartbeat);
+        heartbeat = null;
+    }
+
+    /**
+     * Check that the client is still there, on the Server's TimerWheel.
+     * Only looks at when the client last sent something, so reading lines costs nothing more.
+     * A client silent for the idle time is sent PING, and evicted if it still sends nothing.
+     */
+    void checkAlive()
+    {
+        synchronized (this)
+        {
+            if (heartbeat == null) return;
+
+            Runnable check = heartbeat.task;
+            long now       = server.clock.millis();
+            long heard     = lastHeard;
+            if (heard >= pingedAt)
+            {
+                pingedAt  = Long.MIN_VALUE;
+                long idle = now - heard;
+                if (idle < server.idleTime)
+                {
+                    // Heard from since the last check; check again when it could next be idle
+                    heartbeat = server.wheel.schedule(check, server.idleTime - idle);
+                } else
+                {
+                    pingedAt  = now;
+                    send(ServerKeyExchange.PING);
+                    heartbeat = server.wheel.schedule(check, server.pongTimeout);
+                }
+                return;
+            }
+            heartbeat = null;
+        }
+        // Dead or unreachable; stop sending it messages and waiting for it in key exchanges
+        // Not while holding this Handler, since the Server stops heartbeats while holding itself
+        server.evict(this);
+    }
+
+    /**
+     * Check a message from the client against its rate limits before it is relayed.
+     * If it is over them and the client is throttled, waits until it is within them.
+     * @param line  message from the client
+     * @return      true if the message can be relayed
+     * @throws InterruptedException
+     */
+    boolean withinLimit(String line) throws InterruptedException
+    {
+        if (limiter == null) return true;
+
+        long wait = limiter.check(line.length());
+        if (wait == 0) return true;
+
+        RateLimitEvent event = new RateLimitEvent();
+        if (event.shouldCommit())
+        {
+            event.client = getName();
+            event.action = limiter.action.name();
+            event.wait   = wait;
+            event.commit();
+        }
+
+        if (limiter.action != RateLimiter.Action.THROTTLE) return false;
+        while (wait > 0)
+        {
+            server.clock.sleep(TimeUnit.NANOSECONDS.toMillis(wait + 999999));
+            wait = limiter.check(line.length());
+        }
+        return true;
+    }
+
+    /**
+     * Close the connection to the client
+     */
+    public void close()
+    {
+        outbox.close();
+        try
+        {
+            clientSocket.close();
+        } catch (IOException e) {}
+    }
 }
\ No newline at end of file
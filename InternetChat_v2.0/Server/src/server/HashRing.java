@@ -0,0 +1,89 @@
+package server;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Places rooms on the nodes of a cluster by consistent hashing.
+ * Each node has REPLICAS points on a ring of hashes, and a room goes to the node of the first point after its hash,
+ * so rooms are spread evenly, and adding or removing a node only moves the rooms next to its points.
+ * Every node with the same nodes places every room the same way.
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+
+public class HashRing
+{
+    /**
+     * Points on the ring for each node
+     */
+    public static final int REPLICAS = 64;
+
+    /**
+     * Nodes by the hashes of their points
+     */
+    TreeMap<Long, String> ring = new TreeMap<>();
+
+    /**
+     * Add a node
+     * @param node  name of the node
+     */
+    public synchronized void add(String node)
+    {
+        for (int i = 0; i < REPLICAS; i++)
+        {
+            ring.put(hash(node + "#" + i), node);
+        }
+    }
+
+    /**
+     * Remove a node; its rooms go to the nodes after its points
+     * @param node  name of the node
+     */
+    public synchronized void remove(String node)
+    {
+        for (int i = 0; i < REPLICAS; i++)
+        {
+            ring.remove(hash(node + "#" + i), node);
+        }
+    }
+
+    /**
+     * Node a room is placed on
+     * @param room  name of the room
+     * @return      name of the node, or null if there are none
+     */
+    public synchronized String owner(String room)
+    {
+        if (ring.isEmpty()) return null;
+        Map.Entry<Long, String> e = ring.ceilingEntry(hash(room));
+        return e != null ? e.getValue() : ring.firstEntry().getValue();
+    }
+
+    /**
+     * Hash a name onto the ring
+     * @param s name
+     * @return  first 8 bytes of the MD5 digest of the name
+     */
+    static long hash(String s)
+    {
+        try
+        {
+            byte[] d = MessageDigest.getInstance("MD5").digest(s.getBytes(StandardCharsets.UTF_8));
+            long h   = 0;
+            for (int i = 0; i < 8; i++)
+            {
+                h = (h << 8) | (d[i] & 0xff);
+            }
+            return h;
+        } catch (NoSuchAlgorithmException e)
+        {
+            // Every Java platform has MD5
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package server;
+
+/**
+ * Sends a client that was away the frames it missed, then lets it receive frames as they are broadcast.
+ * Frames are read from the Server's FrameLog and sent in batches, with a pause between batches,
+ * so a client that was away a long time does not hold up messages to everyone else.
+ * The client gets no new frames until it has caught up, so it gets every frame once and in order.
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+
+public class Inbox extends Thread
+{
+    /**
+     * Most frames sent at once
+     */
+    public static final int BATCH = 64;
+    /**
+     * Milliseconds between batches
+     */
+    public static final int PACE = 20;
+    /**
+     * Most frames a client is sent; older ones are skipped
+     */
+    public static final int LIMIT = 10000;
+
+    /**
+     * Server that broadcast the frames
+     */
+    Server server;
+    /**
+     * Handler of the client catching up
+     */
+    Handler handler;
+    /**
+     * Sequence number of the next frame to send
+     */
+    long next;
+
+    /**
+     * Constructor for Inbox
+     * @param server    Server that broadcast the frames
+     * @param handler   Handler of the client catching up
+     * @param from      sequence number of the first frame the client missed
+     */
+    public Inbox(Server server, Handler handler, long from)
+    {
+        this.server  = server;
+        this.handler = handler;
+        this.next    = from;
+        this.setName("Inbox" + handler.id);
+        this.setDaemon(true);
+    }
+
+    /**
+     * Send frames in batches until the client has caught up
+     */
+    @Override
+    public void run()
+    {
+        try
+        {
+            while (true)
+            {
+                long end;
+                synchronized (server)
+                {
+                    // Nothing more was broadcast, so the client can get frames as they are
+                    if (next >= server.frames.next() || !server.handlers.contains(handler))
+                    {
+                        handler.catchingUp = false;
+                        return;
+                    }
+                    end = Math.min(server.frames.next(), next + BATCH);
+                }
+
+                // One read and one write for the batch
+                String[] frames     = server.frames.get(next, end);
+                StringBuilder batch = new StringBuilder();
+                for (String frame : frames)
+                {
+                    if (frame != null)
+                    {
+                        if (batch.length() > 0) batch.append('\n');
+                        batch.append(next).append(' ').append(frame);
+                    }
+                    next++;
+                }
+                if (batch.length() > 0) handler.sendFrames(batch.toString());
+
+                server.clock.sleep(PACE);
+            }
+        } catch (InterruptedException e)
+        {
+            handler.catchingUp = false;
+        }
+    }
+}
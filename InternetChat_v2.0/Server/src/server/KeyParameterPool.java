@@ -0,0 +1,158 @@
+package server;
+
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Generates public values for key exchange in the background.
+ * Keeps a reserve of ready base and modulo pairs so key exchanges don't wait on generation.
+ * With no Threads, pairs are generated when asked for instead, one after another from the given Random,
+ * so a simulation with a seeded Random gets the same pairs every run.
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+
+public class KeyParameterPool
+{
+    /**
+     * Number of generating Threads by default
+     */
+    public static final int THREADS = 3;
+    /**
+     * Number of pairs kept ready by default; two full key exchanges
+     */
+    public static final int RESERVE = 18;
+
+    /**
+     * Threads generating pairs
+     */
+    ExecutorService workers;
+    /**
+     * Pairs ready to use
+     */
+    ArrayBlockingQueue<int[]> reserve;
+    /**
+     * Where the pairs come from
+     */
+    Random random;
+
+    /**
+     * Constructor for KeyParameterPool with default sizes
+     */
+    public KeyParameterPool()
+    {
+        this(THREADS, RESERVE);
+    }
+
+    /**
+     * Constructor for KeyParameterPool.
+     * Starts generating straight away.
+     * @param threads   number of generating Threads
+     * @param size      number of pairs kept ready
+     */
+    public KeyParameterPool(int threads, int size)
+    {
+        this(threads, size, new Random());
+    }
+
+    /**
+     * Constructor for KeyParameterPool with a given source of randomness.
+     * Starts generating straight away, unless there are no Threads.
+     * @param threads   number of generating Threads; 0 to generate each pair when it is asked for
+     * @param size      number of pairs kept ready
+     * @param random    where the pairs come from
+     */
+    public KeyParameterPool(int threads, int size, Random random)
+    {
+        this.random = random;
+        reserve     = new ArrayBlockingQueue<>(size);
+        if (threads == 0) return;
+
+        workers = Executors.newFixedThreadPool(threads, new ThreadFactory()
+        {
+            int count = 0;
+
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "KeyGen" + count++);
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+
+        for (int i = 0; i < threads; i++)
+        {
+            workers.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    generate();
+                }
+            });
+        }
+    }
+
+    /**
+     * Keep generating pairs, waiting while the reserve is full
+     */
+    void generate()
+    {
+        try
+        {
+            while (!Thread.currentThread().isInterrupted())
+            {
+                reserve.put(generateOne());
+            }
+        } catch (InterruptedException e)
+        {
+            // Pool was shut down
+        }
+    }
+
+    /**
+     * Generate one pair
+     * @return  base and modulo pair
+     */
+    int[] generateOne()
+    {
+        ServerKeyExchange k = new ServerKeyExchange();
+        k.generatePublicVal(random);
+        return k.inf;
+    }
+
+    /**
+     * Take a pair, waiting for one to be generated if none are ready
+     * @return  base and modulo pair
+     * @throws InterruptedException
+     */
+    public int[] take() throws InterruptedException
+    {
+        if (workers == null) return generateOne();
+        return reserve.take();
+    }
+
+    /**
+     * Take a pair if one is ready
+     * @return  base and modulo pair, or null if none are ready
+     */
+    public int[] poll()
+    {
+        if (workers == null) return generateOne();
+        return reserve.poll();
+    }
+
+    /**
+     * Stop generating pairs
+     */
+    public void shutdown()
+    {
+        if (workers != null) workers.shutdownNow();
+    }
+}
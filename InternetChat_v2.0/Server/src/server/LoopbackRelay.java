@@ -0,0 +1,56 @@
+package server;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Relay between ClusterNodes in the same process, so a cluster can be run and tested on one machine.
+ * Batches are handed straight to the receiving node on the sending RelayLink's Thread.
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+
+public class LoopbackRelay implements Relay
+{
+    /**
+     * Nodes bound, by name
+     */
+    ConcurrentHashMap<String, Receiver> nodes = new ConcurrentHashMap<>();
+
+    @Override
+    public void bind(String node, Receiver receiver)
+    {
+        nodes.put(node, receiver);
+    }
+
+    @Override
+    public void unbind(String node)
+    {
+        nodes.remove(node);
+    }
+
+    /**
+     * Deliver a batch to a node in this process
+     * @param from  node sending them
+     * @param to    node to deliver them to
+     * @param batch messages
+     * @throws IOException  ConnectException if the node isn't bound
+     */
+    @Override
+    public void send(String from, String to, List<String> batch) throws IOException
+    {
+        Receiver r = nodes.get(to);
+        if (r == null) throw new ConnectException("No node " + to);
+        r.received(from, new ArrayList<>(batch));
+    }
+
+    @Override
+    public String toString()
+    {
+        return "loopback relay";
+    }
+}
@@ -0,0 +1,105 @@
+package server;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Accepts connections made within the same process, with no port.
+ * Whatever connects calls connect() and gets its end of a PipeSocket pair; accept() returns the other end.
+ * Lets bots and tests run many Clients against a Server in one process.
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+
+public class MemoryServerSocket extends ServerSocket
+{
+    /**
+     * Put in the queue when closed, so accept() stops waiting
+     */
+    private static final PipeSocket CLOSED = PipeSocket.pair()[0];
+
+    /**
+     * Server ends of connections not yet accepted
+     */
+    LinkedBlockingQueue<PipeSocket> pending = new LinkedBlockingQueue<>();
+    /**
+     * Whether the MemoryServerSocket is closed
+     */
+    volatile boolean closed = false;
+
+    /**
+     * Constructor for MemoryServerSocket
+     * @throws IOException
+     */
+    public MemoryServerSocket() throws IOException
+    {
+        super();
+    }
+
+    /**
+     * Connect to the MemoryServerSocket
+     * @return  this end of the connection
+     * @throws IOException  ConnectException if the MemoryServerSocket is closed
+     */
+    public Socket connect() throws IOException
+    {
+        if (closed) throw new ConnectException("Connection refused");
+        PipeSocket[] ends = PipeSocket.pair();
+        pending.add(ends[1]);
+        return ends[0];
+    }
+
+    /**
+     * Wait for a connection
+     * @return  the server's end of the connection
+     * @throws IOException  SocketException if the MemoryServerSocket was closed
+     */
+    @Override
+    public Socket accept() throws IOException
+    {
+        try
+        {
+            PipeSocket s = pending.take();
+            if (s == CLOSED)
+            {
+                pending.add(CLOSED);
+                throw new SocketException("Socket is closed");
+            }
+            return s;
+        } catch (InterruptedException e)
+        {
+            throw new SocketException("Interrupted");
+        }
+    }
+
+    @Override
+    public boolean isClosed()
+    {
+        return closed;
+    }
+
+    /**
+     * Stop accepting connections, and close those not yet accepted
+     */
+    @Override
+    public void close()
+    {
+        closed = true;
+        for (PipeSocket s; (s = pending.poll()) != null; )
+        {
+            s.close();
+        }
+        pending.add(CLOSED);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "MemoryServerSocket@" + Integer.toHexString(hashCode());
+    }
+}
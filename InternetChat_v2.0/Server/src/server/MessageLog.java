@@ -0,0 +1,132 @@
+package server;
+
+import javax.swing.*;
+import javax.swing.text.BadLocationException;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayDeque;
+
+/**
+ * Shows lines in a JTextArea from any Thread.
+ * Lines are buffered and added to the JTextArea in batches on the event dispatch thread.
+ * Only the most recent lines are kept; older lines are removed from the top.
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+
+public class MessageLog
+{
+    /**
+     * Number of lines kept by default
+     */
+    public static final int MAX_LINES = 2000;
+    /**
+     * Milliseconds between batches by default
+     */
+    public static final int FLUSH_DELAY = 50;
+
+    /**
+     * Displays the lines
+     */
+    JTextArea area;
+    /**
+     * Most lines shown at once
+     */
+    int maxLines;
+    /**
+     * Lines not yet added to area.
+     * Guarded by itself.
+     */
+    ArrayDeque<String> pending = new ArrayDeque<>();
+    /**
+     * Adds pending lines to area on the event dispatch thread
+     */
+    Timer timer;
+
+    /**
+     * Constructor for MessageLog with default limits
+     * @param area  JTextArea to show lines in
+     */
+    public MessageLog(JTextArea area)
+    {
+        this(area, MAX_LINES, FLUSH_DELAY);
+    }
+
+    /**
+     * Constructor for MessageLog
+     * @param area      JTextArea to show lines in
+     * @param maxLines  most lines shown at once
+     * @param delay     milliseconds between batches
+     */
+    public MessageLog(JTextArea area, int maxLines, int delay)
+    {
+        this.area     = area;
+        this.maxLines = maxLines;
+
+        timer = new Timer(delay, new ActionListener()
+        {
+            @Override
+            public void actionPerformed(ActionEvent e)
+            {
+                flush();
+            }
+        });
+        timer.start();
+    }
+
+    /**
+     * Queue a line to be shown.
+     * Can be called from any Thread.
+     * @param line  line to show
+     */
+    public void append(String line)
+    {
+        synchronized (pending)
+        {
+            pending.add(line);
+            // Lines past the limit would be removed as soon as they are shown
+            if (pending.size() > maxLines) pending.poll();
+        }
+    }
+
+    /**
+     * Add pending lines to area in one batch, then trim the oldest lines.
+     * Runs on the event dispatch thread.
+     */
+    void flush()
+    {
+        StringBuilder batch = new StringBuilder();
+        synchronized (pending)
+        {
+            if (pending.isEmpty()) return;
+            for (String line : pending)
+            {
+                batch.append(line).append('\n');
+            }
+            pending.clear();
+        }
+        area.append(batch.toString());
+
+        // JTextArea counts the empty line after the last newline
+        int extra = area.getLineCount() - 1 - maxLines;
+        if (extra > 0)
+        {
+            try
+            {
+                area.replaceRange(null, 0, area.getLineStartOffset(extra));
+            } catch (BadLocationException e)
+            {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Stop adding lines to area
+     */
+    public void stop()
+    {
+        timer.stop();
+    }
+}
@@ -0,0 +1,37 @@
+package server;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for screen name negotiation in a Handler
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+
+@Name("server.Name")
+@Label("Name Negotiation")
+@Category({"InternetChat", "Connection"})
+@Description("Time from connection until a unique screen name is accepted")
+public class NameEvent extends Event
+{
+    /**
+     * Number of names sent by the Client, including the accepted one
+     */
+    @Label("Attempts")
+    int attempts;
+    /**
+     * Number of names already in use on the Server
+     */
+    @Label("Participants")
+    int participants;
+    /**
+     * Whether a name was accepted before the Client disconnected
+     */
+    @Label("Accepted")
+    boolean accepted;
+}
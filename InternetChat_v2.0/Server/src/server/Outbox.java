@@ -0,0 +1,331 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+
+/**
+ * Writes everything sent to one client on its own Thread, in two lanes.
+ * Control lines, such as key exchange signals, always go before frames waiting to be written,
+ * so they are not held up when the chat is busy.
+ * Frames waiting are kept in memory up to MEMORY_CHARS characters. Past that, with spill on,
+ * they are written to a file for the client, and read back in order once the client catches up,
+ * so a client that reads slowly only holds up itself, memory stays bounded however far behind it is,
+ * and it still gets everything. With spill off, add waits for room, as with writing directly,
+ * and offer doesn't, so a broadcast can pass a full client over and have it catch up from the FrameLog instead.
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+
+public class Outbox extends Thread
+{
+    /**
+     * Most characters waiting in memory
+     */
+    public static final int MEMORY_CHARS = 256 * 1024;
+    /**
+     * Bytes of the socket's send buffer; what doesn't fit waits here, in order of priority
+     */
+    public static final int SEND_BUFFER = 64 * 1024;
+    /**
+     * Most frames written to the client at once, after the control lines waiting
+     */
+    public static final int BATCH = 64;
+
+    /**
+     * Writes to the client's connection
+     */
+    PrintWriter out;
+    /**
+     * Whether frames that don't fit in memory are written to a file, rather than waited for room for
+     */
+    boolean spill;
+    /**
+     * Control lines waiting, oldest first; written before any frame
+     */
+    ArrayDeque<String> control = new ArrayDeque<>();
+    /**
+     * Frames waiting in memory, oldest first
+     */
+    ArrayDeque<String> queue = new ArrayDeque<>();
+    /**
+     * Characters in queue
+     */
+    long queued = 0;
+    /**
+     * Frames waiting in the file; null when nothing is
+     */
+    File file;
+    /**
+     * Appends to file
+     */
+    DataOutputStream fileOut;
+    /**
+     * Reads file back, only on this Thread
+     */
+    DataInputStream fileIn;
+    /**
+     * Number of frames written to file
+     */
+    long spilled = 0;
+    /**
+     * Number of frames read back from file
+     */
+    long unspilled = 0;
+    /**
+     * Whether texts taken from the lanes are being written
+     */
+    boolean writing = false;
+    /**
+     * Whether the Outbox is closed; nothing more is written
+     */
+    volatile boolean closed = false;
+
+    /**
+     * Constructor for Outbox
+     * @param name  name of the Thread
+     * @param out   writes to the client's connection
+     * @param spill true to write frames that don't fit in memory to a file;
+     *              false to wait for room for them
+     */
+    public Outbox(String name, PrintWriter out, boolean spill)
+    {
+        this.out   = out;
+        this.spill = spill;
+        this.setName(name);
+        this.setDaemon(true);
+    }
+
+    /**
+     * Queue a control line to write to the client before any frame waiting.
+     * Never waits for the client.
+     * @param line  line to write, without the new line
+     */
+    public synchronized void addControl(String line)
+    {
+        if (closed) return;
+        control.add(line);
+        notifyAll();
+    }
+
+    /**
+     * Queue frames to write to the client, after those already waiting, followed by a new line.
+     * With spill on, never waits for the client.
+     * @param text  one or more lines, without the last new line
+     * @throws InterruptedException
+     */
+    public synchronized void add(String text) throws InterruptedException
+    {
+        // Anything fits in an empty queue, so a long text can't wait forever
+        while (!spill && !closed && !queue.isEmpty() && queued + text.length() > MEMORY_CHARS) wait();
+        if (closed) return;
+
+        // Once frames are in the file, newer ones go after them
+        if (file == null && (queue.isEmpty() || queued + text.length() <= MEMORY_CHARS))
+        {
+            queue.add(text);
+            queued += text.length();
+        } else
+        {
+            spill(text);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Queue frames as add does, if there is room for them now.
+     * With spill on, there always is.
+     * @param text  one or more lines, without the last new line
+     * @return      true if they were queued, or the Outbox is closed; false if the frames lane is full
+     */
+    public synchronized boolean offer(String text)
+    {
+        if (!spill && !closed && !queue.isEmpty() && queued + text.length() > MEMORY_CHARS) return false;
+        try
+        {
+            add(text);
+        } catch (InterruptedException e)
+        {
+            // Never waits when there is room
+        }
+        return true;
+    }
+
+    /**
+     * Write text to the end of the file, creating it if nothing is waiting in it
+     * @param text  text to write
+     */
+    private void spill(String text)
+    {
+        try
+        {
+            if (file == null)
+            {
+                file = File.createTempFile("outbox", ".tmp");
+                file.deleteOnExit();
+                fileOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+                fileIn  = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            }
+            byte[] b = text.getBytes(StandardCharsets.UTF_8);
+            fileOut.writeInt(b.length);
+            fileOut.write(b);
+            spilled++;
+        } catch (IOException e)
+        {
+            // Can't keep up with the client any more; it can resume and get what it missed
+            e.printStackTrace();
+            close();
+        }
+    }
+
+    /**
+     * Write queued texts to the client until closed: control lines first, then frames, oldest first
+     */
+    @Override
+    public void run()
+    {
+        StringBuilder batch = new StringBuilder();
+        try
+        {
+            while (true)
+            {
+                long fromFile;
+                synchronized (this)
+                {
+                    writing = false;
+                    notifyAll();
+                    while (!closed && control.isEmpty() && queue.isEmpty() && unspilled == spilled) wait();
+                    if (closed) return;
+                    writing = true;
+
+                    while (!control.isEmpty())
+                    {
+                        batch.append(control.poll()).append('\n');
+                    }
+
+                    // Frames in memory are older than frames in the file
+                    int frames = 0;
+                    for (; frames < BATCH && !queue.isEmpty(); frames++)
+                    {
+                        String text = queue.poll();
+                        queued -= text.length();
+                        batch.append(text).append('\n');
+                    }
+                    fromFile = frames == 0 ? Math.min(BATCH, spilled - unspilled) : 0;
+                    if (fromFile > 0) fileOut.flush();
+                    // Room for frames waiting to be added
+                    if (frames > 0) notifyAll();
+                }
+
+                // Only this Thread reads the file, and only what was flushed
+                for (long i = 0; i < fromFile; i++)
+                {
+                    byte[] b = new byte[fileIn.readInt()];
+                    fileIn.readFully(b);
+                    batch.append(new String(b, StandardCharsets.UTF_8)).append('\n');
+                }
+                if (fromFile > 0) caughtUp(fromFile);
+
+                // Waits here if the client is slow, holding up nothing else
+                out.print(batch);
+                out.flush();
+                batch.setLength(0);
+            }
+        } catch (IOException e)
+        {
+            // The file is closed under this Thread when the Outbox is
+            if (!closed) e.printStackTrace();
+            close();
+        } catch (InterruptedException e)
+        {
+            close();
+        }
+    }
+
+    /**
+     * Count frames read back from the file, and delete it once everything in it has been read
+     * @param read  number of frames read
+     */
+    private synchronized void caughtUp(long read)
+    {
+        if (closed) return;
+        unspilled += read;
+        if (unspilled == spilled) deleteFile();
+    }
+
+    /**
+     * Close and delete the file
+     */
+    private void deleteFile()
+    {
+        try
+        {
+            if (fileOut != null) fileOut.close();
+            if (fileIn != null) fileIn.close();
+        } catch (IOException e) {}
+        if (file != null) file.delete();
+        file      = null;
+        fileOut   = null;
+        fileIn    = null;
+        spilled   = 0;
+        unspilled = 0;
+    }
+
+    /**
+     * Number of texts waiting to be written, in memory or in the file
+     * @return  control lines and frames not yet written
+     */
+    public synchronized long depth()
+    {
+        return control.size() + queue.size() + spilled - unspilled;
+    }
+
+    /**
+     * Number of characters of frames waiting in memory
+     * @return  characters queued
+     */
+    public synchronized long queuedChars()
+    {
+        return queued;
+    }
+
+    /**
+     * Wait until everything queued has been written to the client
+     * @param millis    most milliseconds to wait
+     * @return          true if everything was written
+     * @throws InterruptedException
+     */
+    public synchronized boolean drain(long millis) throws InterruptedException
+    {
+        long end = System.currentTimeMillis() + millis;
+        long left;
+        while (!closed && (writing || !control.isEmpty() || !queue.isEmpty() || unspilled < spilled))
+        {
+            if ((left = end - System.currentTimeMillis()) <= 0) return false;
+            wait(left);
+        }
+        return !closed;
+    }
+
+    /**
+     * Stop writing to the client, and forget everything waiting
+     */
+    public synchronized void close()
+    {
+        closed = true;
+        control.clear();
+        queue.clear();
+        queued = 0;
+        deleteFile();
+        notifyAll();
+    }
+}
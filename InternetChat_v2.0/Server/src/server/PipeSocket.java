@@ -0,0 +1,333 @@
+package server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+
+/**
+ * One end of a connection within the same process, made by a MemoryServerSocket.
+ * Bytes go through a buffer in memory in each direction, so no port or TCP stack is used.
+ * Supports streams, read timeouts and closing; TCP options are ignored.
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+
+public class PipeSocket extends Socket
+{
+    /**
+     * Bytes in each direction
+     */
+    public static final int BUFFER = 64 * 1024;
+
+    /**
+     * Bytes going one way, from the writing end to the reading end
+     */
+    static class Pipe
+    {
+        /**
+         * Bytes written and not yet read, starting at head
+         */
+        byte[] buffer;
+        /**
+         * Index of the first byte not yet read
+         */
+        int head = 0;
+        /**
+         * Number of bytes not yet read
+         */
+        int count = 0;
+        /**
+         * Whether the writing end is closed; the reading end gets the rest, then the end of the stream
+         */
+        boolean writerClosed = false;
+        /**
+         * Whether the reading end is closed; writing fails
+         */
+        boolean readerClosed = false;
+
+        /**
+         * Constructor for Pipe holding BUFFER bytes
+         */
+        Pipe()
+        {
+            this(BUFFER);
+        }
+
+        /**
+         * Constructor for Pipe
+         * @param size  most bytes written and not yet read
+         */
+        Pipe(int size)
+        {
+            buffer = new byte[size];
+        }
+
+        /**
+         * Read bytes, waiting until there are some
+         * @param b         array to read into
+         * @param off       index to start at
+         * @param len       most bytes to read
+         * @param timeout   most milliseconds to wait; 0 to wait forever
+         * @return          number of bytes read, or -1 at the end of the stream
+         * @throws IOException
+         */
+        synchronized int read(byte[] b, int off, int len, int timeout) throws IOException
+        {
+            long end = System.currentTimeMillis() + timeout;
+            while (count == 0 && !writerClosed && !readerClosed)
+            {
+                long left = end - System.currentTimeMillis();
+                if (timeout > 0 && left <= 0) throw new SocketTimeoutException("Read timed out");
+                try
+                {
+                    wait(timeout > 0 ? left : 0);
+                } catch (InterruptedException e)
+                {
+                    throw new SocketException("Interrupted");
+                }
+            }
+            if (readerClosed) throw new SocketException("Socket is closed");
+            if (count == 0) return -1;
+
+            int n = Math.min(len, Math.min(count, buffer.length - head));
+            System.arraycopy(buffer, head, b, off, n);
+            head   = (head + n) % buffer.length;
+            count -= n;
+            notifyAll();
+            return n;
+        }
+
+        /**
+         * Write bytes, waiting for room
+         * @param b     array to write from
+         * @param off   index to start at
+         * @param len   number of bytes to write
+         * @throws IOException
+         */
+        synchronized void write(byte[] b, int off, int len) throws IOException
+        {
+            while (len > 0)
+            {
+                while (count == buffer.length && !readerClosed && !writerClosed)
+                {
+                    try
+                    {
+                        wait();
+                    } catch (InterruptedException e)
+                    {
+                        throw new SocketException("Interrupted");
+                    }
+                }
+                if (writerClosed) throw new SocketException("Socket is closed");
+                if (readerClosed) throw new SocketException("Broken pipe");
+
+                int tail = (head + count) % buffer.length;
+                int n    = Math.min(len, Math.min(buffer.length - count, buffer.length - tail));
+                System.arraycopy(b, off, buffer, tail, n);
+                count += n;
+                off   += n;
+                len   -= n;
+                notifyAll();
+            }
+        }
+
+        /**
+         * Write bytes if there is room for all of them now; never waits
+         * @param b     array to write from
+         * @param off   index to start at
+         * @param len   number of bytes to write
+         * @return      true if they were written; false if the reader is too far behind
+         * @throws IOException  if either end is closed
+         */
+        synchronized boolean offer(byte[] b, int off, int len) throws IOException
+        {
+            if (writerClosed) throw new SocketException("Socket is closed");
+            if (readerClosed) throw new SocketException("Broken pipe");
+            if (buffer.length - count < len) return false;
+            write(b, off, len);
+            return true;
+        }
+
+        /**
+         * Close the writing end
+         */
+        synchronized void closeWriter()
+        {
+            writerClosed = true;
+            notifyAll();
+        }
+
+        /**
+         * Close the reading end
+         */
+        synchronized void closeReader()
+        {
+            readerClosed = true;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Bytes coming to this end
+     */
+    Pipe incoming;
+    /**
+     * Bytes going to the other end
+     */
+    Pipe outgoing;
+    /**
+     * Milliseconds a read waits before timing out; 0 to wait forever
+     */
+    volatile int timeout = 0;
+    /**
+     * Whether this end is closed
+     */
+    volatile boolean closed = false;
+    /**
+     * Reads incoming
+     */
+    InputStream in;
+    /**
+     * Writes outgoing
+     */
+    OutputStream out;
+
+    /**
+     * Constructor for PipeSocket
+     * @param incoming  bytes coming to this end
+     * @param outgoing  bytes going to the other end
+     */
+    PipeSocket(final Pipe incoming, final Pipe outgoing)
+    {
+        this.incoming = incoming;
+        this.outgoing = outgoing;
+
+        in = new InputStream()
+        {
+            @Override
+            public int read() throws IOException
+            {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException
+            {
+                if (len == 0) return 0;
+                return incoming.read(b, off, len, timeout);
+            }
+        };
+
+        out = new OutputStream()
+        {
+            @Override
+            public void write(int b) throws IOException
+            {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException
+            {
+                outgoing.write(b, off, len);
+            }
+        };
+    }
+
+    /**
+     * Make both ends of a connection
+     * @return  two PipeSockets, each reading what the other writes
+     */
+    public static PipeSocket[] pair()
+    {
+        Pipe a = new Pipe();
+        Pipe b = new Pipe();
+        return new PipeSocket[] {new PipeSocket(a, b), new PipeSocket(b, a)};
+    }
+
+    @Override
+    public InputStream getInputStream()
+    {
+        return in;
+    }
+
+    @Override
+    public OutputStream getOutputStream()
+    {
+        return out;
+    }
+
+    @Override
+    public void setSoTimeout(int timeout)
+    {
+        this.timeout = timeout;
+    }
+
+    @Override
+    public int getSoTimeout()
+    {
+        return timeout;
+    }
+
+    @Override
+    public void setSendBufferSize(int size) {}
+
+    @Override
+    public void setTcpNoDelay(boolean on) {}
+
+    @Override
+    public void setKeepAlive(boolean on) {}
+
+    @Override
+    public void shutdownInput()
+    {
+        incoming.closeReader();
+    }
+
+    @Override
+    public void shutdownOutput()
+    {
+        outgoing.closeWriter();
+    }
+
+    @Override
+    public boolean isConnected()
+    {
+        return true;
+    }
+
+    @Override
+    public SocketAddress getRemoteSocketAddress()
+    {
+        return null;
+    }
+
+    @Override
+    public boolean isClosed()
+    {
+        return closed;
+    }
+
+    /**
+     * Close this end; the other end reads what was written, then the end of the stream, and can't write
+     */
+    @Override
+    public void close()
+    {
+        closed = true;
+        incoming.closeReader();
+        outgoing.closeWriter();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "PipeSocket@" + Integer.toHexString(hashCode());
+    }
+}
@@ -0,0 +1,39 @@
+package server;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event for a message from a Client that was over its rate limit
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+
+@Name("server.RateLimit")
+@Label("Rate Limit")
+@Category({"InternetChat", "Messages"})
+@Description("A message over its Client's rate limit was throttled, dropped, or got the Client disconnected")
+public class RateLimitEvent extends Event
+{
+    /**
+     * Name of the Client
+     */
+    @Label("Client")
+    String client;
+    /**
+     * THROTTLE, DROP or DISCONNECT
+     */
+    @Label("Action")
+    String action;
+    /**
+     * Time the message would have had to wait to be within the limit
+     */
+    @Label("Wait")
+    @Timespan
+    long wait;
+}
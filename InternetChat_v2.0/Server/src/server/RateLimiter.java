@@ -0,0 +1,125 @@
+package server;
+
+/**
+ * Limits how many messages, and how many characters, one client can send per second.
+ * Each limit is a token bucket: it refills at the rate per second, up to BURST seconds' worth,
+ * and each message takes one message token and a token for each character.
+ * Buckets are only refilled when a message is checked, so there is no timer.
+ * Time comes from a Clock, so a simulation can limit clients in virtual time.
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+
+public class RateLimiter
+{
+    /**
+     * What to do with a message over the limit
+     */
+    public enum Action
+    {
+        /**
+         * Wait until it is within the limit before relaying it; the client is not read from meanwhile
+         */
+        THROTTLE,
+        /**
+         * Don't relay it
+         */
+        DROP,
+        /**
+         * Disconnect the client
+         */
+        DISCONNECT
+    }
+
+    /**
+     * Seconds' worth of messages and characters that can be sent at once after a pause
+     */
+    public static final double BURST = 2;
+
+    /**
+     * Messages per second; 0 for no limit
+     */
+    double messageRate;
+    /**
+     * Characters per second; 0 for no limit
+     */
+    double charRate;
+    /**
+     * What to do with a message over the limit
+     */
+    Action action;
+    /**
+     * Messages that can be sent now
+     */
+    double messageTokens;
+    /**
+     * Characters that can be sent now
+     */
+    double charTokens;
+    /**
+     * Where the time comes from
+     */
+    Clock clock;
+    /**
+     * Time in nanoseconds of the clock the buckets were last refilled
+     */
+    long last;
+
+    /**
+     * Constructor for RateLimiter on the wall clock.
+     * Buckets start full.
+     * @param messageRate   messages per second; 0 for no limit
+     * @param charRate      characters per second; 0 for no limit
+     * @param action        what to do with a message over the limit
+     */
+    public RateLimiter(double messageRate, double charRate, Action action)
+    {
+        this(messageRate, charRate, action, Clock.SYSTEM);
+    }
+
+    /**
+     * Constructor for RateLimiter.
+     * Buckets start full.
+     * @param messageRate   messages per second; 0 for no limit
+     * @param charRate      characters per second; 0 for no limit
+     * @param action        what to do with a message over the limit
+     * @param clock         where the time comes from
+     */
+    public RateLimiter(double messageRate, double charRate, Action action, Clock clock)
+    {
+        this.messageRate = messageRate;
+        this.charRate    = charRate;
+        this.action      = action;
+        this.clock       = clock;
+        messageTokens    = messageRate * BURST;
+        charTokens       = charRate * BURST;
+        last             = clock.nanoTime();
+    }
+
+    /**
+     * Check a message against the limits, and take its tokens if it is within them
+     * @param length    length of the message in characters
+     * @return          0 if the message is within the limits;
+     *                  otherwise nanoseconds until it would be
+     */
+    public long check(int length)
+    {
+        long now       = clock.nanoTime();
+        double seconds = (now - last) / 1e9;
+        last           = now;
+        messageTokens  = Math.min(messageRate * BURST, messageTokens + seconds * messageRate);
+        charTokens     = Math.min(charRate * BURST, charTokens + seconds * charRate);
+
+        // A message longer than the bucket only has to wait until the bucket is full
+        double chars = Math.min(length, charRate * BURST);
+        double wait  = 0;
+        if (messageRate > 0 && messageTokens < 1) wait = (1 - messageTokens) / messageRate;
+        if (charRate > 0 && charTokens < chars) wait = Math.max(wait, (chars - charTokens) / charRate);
+        if (wait > 0) return (long) (wait * 1e9) + 1;
+
+        messageTokens -= 1;
+        charTokens    -= chars;
+        return 0;
+    }
+}
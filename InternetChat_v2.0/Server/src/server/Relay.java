@@ -0,0 +1,78 @@
+package server;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Carries batches of messages between the ClusterNodes of a cluster, such as over a network or within one process.
+ * Each message is one line. A node passes a connection for a room placed on another node to that node
+ * with OPEN, then the lines of the connection go back and forth as IN and OUT, until CLOSE or SHUT.
+ * RelayLinks batch messages to each node, so a Relay only has to deliver each batch whole and in order.
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+
+public interface Relay
+{
+    /**
+     * Message to the node a room is on, followed by a stream number, the URL encoded room and the first line
+     * of a connection from a Client; the node takes the connection as if the Client had connected to it.
+     * Stream numbers are chosen by the node the Client connected to, and only mean something between the two nodes.
+     */
+    String OPEN = "OPEN";
+    /**
+     * Message to the node a room is on, followed by a stream number and a line from the Client
+     */
+    String IN = "IN";
+    /**
+     * Message from the node a room is on, followed by stream numbers separated by commas and a line for their Clients.
+     * A frame broadcast to many Clients connected to the same node goes once for all of them.
+     */
+    String OUT = "OUT";
+    /**
+     * Message to the node a room is on, followed by a stream number, once the Client closed its connection
+     */
+    String CLOSE = "CLOSE";
+    /**
+     * Message from the node a room is on, followed by a stream number, once it closed the connection;
+     * the Client is sent the lines before it first
+     */
+    String SHUT = "SHUT";
+
+    /**
+     * Takes batches sent to a node
+     */
+    interface Receiver
+    {
+        /**
+         * Take a batch of messages, in the order they were sent
+         * @param from  node that sent them
+         * @param batch messages
+         */
+        void received(String from, List<String> batch);
+    }
+
+    /**
+     * Start delivering batches sent to a node
+     * @param node      name of the node
+     * @param receiver  takes the batches
+     * @throws IOException  if the node can't be reached through this Relay
+     */
+    void bind(String node, Receiver receiver) throws IOException;
+
+    /**
+     * Stop delivering batches to a node
+     * @param node  name of the node
+     */
+    void unbind(String node);
+
+    /**
+     * Deliver a batch of messages to a node, after any batch sent to it before
+     * @param from  node sending them
+     * @param to    node to deliver them to
+     * @param batch messages
+     * @throws IOException  if the node can't be reached
+     */
+    void send(String from, String to, List<String> batch) throws IOException;
+}
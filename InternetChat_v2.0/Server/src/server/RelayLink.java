@@ -0,0 +1,204 @@
+package server;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * Sends messages from one ClusterNode to another through a Relay on its own Thread, in batches.
+ * Everything waiting when the last batch went goes in the next, so the busier the link the larger the batches.
+ * OUT messages in a row with the same line, as when a frame is broadcast to many Clients on the other node,
+ * go as one message for all of their streams.
+ * At most MEMORY characters wait at once: lines from or to a Client wait for room, and a Client whose lines
+ * find none in time is disconnected, rather than the queue growing without end. Other messages never wait.
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+
+public class RelayLink extends Thread
+{
+    /**
+     * Most messages in one batch
+     */
+    public static final int BATCH = 256;
+    /**
+     * Most characters of messages waiting before lines from or to Clients wait for room
+     */
+    public static final int MEMORY = 1 << 20;
+
+    /**
+     * Node sending
+     */
+    ClusterNode node;
+    /**
+     * Node sent to
+     */
+    String to;
+    /**
+     * Messages waiting, oldest first
+     */
+    ArrayDeque<String> queue = new ArrayDeque<>();
+    /**
+     * Characters of the messages waiting
+     */
+    long chars = 0;
+    /**
+     * Whether the RelayLink is closed; nothing more is sent
+     */
+    boolean closed = false;
+
+    /**
+     * Batches sent
+     */
+    volatile long batches = 0;
+    /**
+     * Messages sent, counting each OUT message once however many streams it is for
+     */
+    volatile long messages = 0;
+    /**
+     * Messages added
+     */
+    volatile long added = 0;
+
+    /**
+     * Constructor for RelayLink
+     * @param node  node sending
+     * @param to    node sent to
+     */
+    public RelayLink(ClusterNode node, String to)
+    {
+        this.node = node;
+        this.to   = to;
+        this.setName("Relay" + node.id + "-" + to);
+        this.setDaemon(true);
+    }
+
+    /**
+     * Queue a message, after those already waiting, such as to open or close a stream.
+     * Never waits for the other node, or for room.
+     * @param message   message to send
+     */
+    public synchronized void add(String message)
+    {
+        if (closed) return;
+        queue.add(message);
+        chars += message.length();
+        added++;
+        notifyAll();
+    }
+
+    /**
+     * Queue a line from or to a Client, after those already waiting,
+     * waiting up to Server.ROUND_TIMEOUT for room if MEMORY characters are waiting
+     * @param message   IN or OUT message to send
+     * @return          true if it was queued; false if there was no room in time or the RelayLink is closed,
+     *                  so the stream should be closed
+     */
+    public synchronized boolean put(String message)
+    {
+        long end = System.currentTimeMillis() + Server.ROUND_TIMEOUT;
+        try
+        {
+            // A line longer than MEMORY still goes once nothing else is waiting
+            while (!closed && chars > 0 && chars + message.length() > MEMORY)
+            {
+                long left = end - System.currentTimeMillis();
+                if (left <= 0) return false;
+                wait(left);
+            }
+        } catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        if (closed) return false;
+        add(message);
+        return true;
+    }
+
+    /**
+     * Number of messages waiting
+     * @return  messages queued and not yet sent
+     */
+    public synchronized int depth()
+    {
+        return queue.size();
+    }
+
+    /**
+     * Send batches until closed
+     */
+    @Override
+    public void run()
+    {
+        ArrayList<String> batch = new ArrayList<>();
+        try
+        {
+            while (true)
+            {
+                synchronized (this)
+                {
+                    while (!closed && queue.isEmpty()) wait();
+                    if (closed) return;
+                    for (int i = 0; i < BATCH && !queue.isEmpty(); i++)
+                    {
+                        String message = queue.poll();
+                        chars         -= message.length();
+                        merge(batch, message);
+                    }
+                    // Lines waiting for room
+                    notifyAll();
+                }
+
+                try
+                {
+                    node.relay.send(node.id, to, batch);
+                    batches++;
+                    messages += batch.size();
+                } catch (IOException e)
+                {
+                    // Connections through the other node are lost; their Clients resume or join again
+                    node.lost(to);
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e)
+        {
+            close();
+        }
+    }
+
+    /**
+     * Add a message to a batch, or add its stream to the last message if that is the same line OUT
+     * @param batch     messages so far
+     * @param message   message to add
+     */
+    private static void merge(ArrayList<String> batch, String message)
+    {
+        if (message.startsWith(Relay.OUT + " ") && !batch.isEmpty())
+        {
+            String last = batch.get(batch.size() - 1);
+            int a       = message.indexOf(' ', Relay.OUT.length() + 1);
+            int b       = last.indexOf(' ', Relay.OUT.length() + 1);
+            if (last.startsWith(Relay.OUT + " ") && a > 0 && b > 0 && message.substring(a).equals(last.substring(b)))
+            {
+                batch.set(batch.size() - 1, last.substring(0, b) + "," +
+                        message.substring(Relay.OUT.length() + 1, a) + last.substring(b));
+                return;
+            }
+        }
+        batch.add(message);
+    }
+
+    /**
+     * Stop sending, and forget everything waiting
+     */
+    public synchronized void close()
+    {
+        closed = true;
+        queue.clear();
+        chars  = 0;
+        notifyAll();
+    }
+}
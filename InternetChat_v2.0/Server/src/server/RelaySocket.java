@@ -0,0 +1,230 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Connection from a Client that connected to another ClusterNode, on the node its room is on.
+ * What the Client sends arrives as IN messages and is read like any connection;
+ * each line written goes back as an OUT message on the RelayLink to the Client's node,
+ * and fails, closing the connection, if the RelayLink has no room for it in time.
+ * Lines from the Client wait for the reader in a buffer of their own; a Client that sends more than it holds
+ * is disconnected rather than holding up the other connections between the two nodes.
+ * Supports streams, read timeouts and closing; TCP options are ignored.
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+
+public class RelaySocket extends Socket
+{
+    /**
+     * Most bytes from the Client waiting to be read; past that, the connection is shut
+     */
+    public static final int BUFFER = 256 * 1024;
+
+    /**
+     * Node the room is on
+     */
+    ClusterNode node;
+    /**
+     * Sends to the Client's node
+     */
+    RelayLink link;
+    /**
+     * Stream number given by the Client's node
+     */
+    String stream;
+    /**
+     * Lines from the Client
+     */
+    PipeSocket.Pipe incoming = new PipeSocket.Pipe(BUFFER);
+    /**
+     * Milliseconds a read waits before timing out; 0 to wait forever
+     */
+    volatile int timeout = 0;
+    /**
+     * Whether this end is closed; guarded by this RelaySocket
+     */
+    boolean closed = false;
+    /**
+     * Reads incoming
+     */
+    InputStream in;
+    /**
+     * Sends lines written to the Client's node
+     */
+    OutputStream out;
+
+    /**
+     * Constructor for RelaySocket
+     * @param node      node the room is on
+     * @param link      sends to the Client's node
+     * @param stream    stream number given by the Client's node
+     */
+    RelaySocket(ClusterNode node, RelayLink link, String stream)
+    {
+        this.node   = node;
+        this.link   = link;
+        this.stream = stream;
+
+        in = new InputStream()
+        {
+            @Override
+            public int read() throws IOException
+            {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException
+            {
+                if (len == 0) return 0;
+                return incoming.read(b, off, len, timeout);
+            }
+        };
+
+        out = new OutputStream()
+        {
+            /**
+             * Current line so far
+             */
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+            @Override
+            public void write(int b) throws IOException
+            {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public synchronized void write(byte[] b, int off, int len) throws IOException
+            {
+                if (isClosed()) throw new IOException("Socket is closed");
+                for (int i = off; i < off + len; i++)
+                {
+                    if (b[i] == '\n')
+                    {
+                        String s = line.toString(StandardCharsets.UTF_8);
+                        if (s.endsWith("\r")) s = s.substring(0, s.length() - 1);
+                        line.reset();
+                        if (!RelaySocket.this.link.put(Relay.OUT + " " + RelaySocket.this.stream + " " + s))
+                        {
+                            // The RelayLink stayed full; the Client is disconnected rather than queueing without end
+                            close();
+                            throw new IOException("Relay link full");
+                        }
+                    } else
+                    {
+                        line.write(b[i]);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Pass on a line from the Client.
+     * Never waits, as it runs on the Thread carrying every stream between the two nodes:
+     * if the reader is BUFFER bytes behind, such as a Client being throttled, only this connection is shut.
+     * @param line  line without its line break
+     */
+    void deliver(String line)
+    {
+        try
+        {
+            byte[] b = (line + "\n").getBytes(StandardCharsets.UTF_8);
+            if (!incoming.offer(b, 0, b.length)) close();
+        } catch (IOException e)
+        {
+            // Closed here meanwhile; SHUT is already on its way
+        }
+    }
+
+    /**
+     * The Client closed its connection; the reader gets the rest, then the end of the stream
+     */
+    void end()
+    {
+        incoming.closeWriter();
+    }
+
+    @Override
+    public InputStream getInputStream()
+    {
+        return in;
+    }
+
+    @Override
+    public OutputStream getOutputStream()
+    {
+        return out;
+    }
+
+    @Override
+    public void setSoTimeout(int timeout)
+    {
+        this.timeout = timeout;
+    }
+
+    @Override
+    public int getSoTimeout()
+    {
+        return timeout;
+    }
+
+    @Override
+    public void setSendBufferSize(int size) {}
+
+    @Override
+    public void setTcpNoDelay(boolean on) {}
+
+    @Override
+    public void setKeepAlive(boolean on) {}
+
+    @Override
+    public boolean isConnected()
+    {
+        return true;
+    }
+
+    @Override
+    public SocketAddress getRemoteSocketAddress()
+    {
+        return null;
+    }
+
+    @Override
+    public synchronized boolean isClosed()
+    {
+        return closed;
+    }
+
+    /**
+     * Close this end; the Client is sent the lines already written, then its connection is closed
+     */
+    @Override
+    public void close()
+    {
+        synchronized (this)
+        {
+            if (closed) return;
+            closed = true;
+        }
+        incoming.closeReader();
+        node.forget(link.to, stream);
+        link.add(Relay.SHUT + " " + stream);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "RelaySocket " + link.to + "/" + stream;
+    }
+}
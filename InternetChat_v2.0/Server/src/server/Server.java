@@ -1,13 +1,26 @@
 package server;
 
-import javax.swing.*;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.URLEncoder;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Opens a server port for Clients to connect to for chats
+ * Opens a server port for Clients to connect to for chats.
+ * Does not keep or display messages itself; ServerListeners can be added to see what happens.
  *
  * @author Caroline Zeng
  * @version 2.0.1
@@ -15,6 +28,56 @@ import java.util.ArrayList;
 
 public class Server extends Thread
 {
+    /**
+     * Connection passed on by a ServerGroup or ClusterNode with its first line, waiting to be sorted
+     */
+    static class Arrival
+    {
+        /**
+         * Connection
+         */
+        Socket socket;
+        /**
+         * First line
+         */
+        String hello;
+    }
+
+    /**
+     * One change of key, as shown by an AdminServer
+     */
+    static class Rekey
+    {
+        /**
+         * Epoch of the new key
+         */
+        int epoch;
+        /**
+         * When the change started, in milliseconds of the Server's Clock
+         */
+        long at;
+        /**
+         * Milliseconds the change took, including rounds abandoned for stalled Clients
+         */
+        long millis;
+        /**
+         * Clients in the chat once it was done
+         */
+        int clients;
+        /**
+         * Clients let in by it
+         */
+        int joining;
+        /**
+         * Whether a sponsoring Client wrapped the key for the Clients joining
+         */
+        boolean wrapped;
+        /**
+         * Whether it was forced with rekey(), rather than for Clients joining
+         */
+        boolean forced;
+    }
+
     /**
      * All Handlers associated with Server.
      * Each Handler is associated with a Client connected to the Server.
@@ -25,13 +88,198 @@ public class Server extends Thread
      */
     ArrayList<ServerExchangeThread> exchange = new ArrayList<>();
     /**
-     * Sockets to connect with Client ExchangeThreads for key exchange
+     * Milliseconds to wait for more Clients to join before starting a key exchange
+     */
+    public static final int JOIN_WINDOW = 100;
+    /**
+     * Milliseconds every Client has to connect for one exchange.
+     * Clients that take longer are evicted, and the exchange is abandoned.
+     */
+    public static final int ROUND_TIMEOUT = 5000;
+    /**
+     * Milliseconds a Client has to answer a single step of an exchange.
+     * Only the Client that takes longer is evicted. A whole key exchange has budget() in all;
+     * past that the Clients that were slowest to answer are evicted instead.
+     */
+    public static final int STEP_TIMEOUT = 2000;
+    /**
+     * Default milliseconds a Client whose connection dropped can resume with its ticket
+     */
+    public static final int RESUME_WINDOW = 30000;
+    /**
+     * Default milliseconds a Client whose connection dropped can join again and be sent the messages it missed
+     */
+    public static final int INBOX_TIME = 600000;
+    /**
+     * Default milliseconds a Client in the chat can send nothing before it is sent PING
+     */
+    public static final int IDLE_TIME = 15000;
+    /**
+     * Default milliseconds a Client has to answer PING before it is evicted
+     */
+    public static final int PONG_TIMEOUT = 15000;
+    /**
+     * Number of the latest key changes kept in rekeys
+     */
+    public static final int REKEY_HISTORY = 32;
+
+    /**
+     * Handlers of Clients waiting to join
+     */
+    LinkedBlockingQueue<Handler> joins = new LinkedBlockingQueue<>();
+    /**
+     * Connections from Client ExchangeThreads waiting for a key exchange
+     */
+    LinkedBlockingQueue<ServerExchangeThread> exchangeSockets = new LinkedBlockingQueue<>();
+    /**
+     * Accepts connections and sorts them into joins and exchangeSockets; null in a ServerGroup, which does it instead
+     */
+    volatile Acceptor acceptor;
+    /**
+     * ServerGroup whose Threads this Server runs on; null if it has its own
+     */
+    ServerGroup group;
+    /**
+     * Connections passed on by the ServerGroup waiting to be sorted, oldest first; guarded by itself
+     */
+    ArrayDeque<Arrival> arrivals = new ArrayDeque<>();
+    /**
+     * Whether a Thread of the ServerGroup is sorting arrivals; guarded by arrivals
+     */
+    boolean sorting = false;
+    /**
+     * Number of connections passed on by the ServerGroup so far; guarded by arrivals
+     */
+    long arrived = 0;
+    /**
+     * Whether a Thread of the ServerGroup is letting Clients in; guarded by joins
+     */
+    boolean admitting = false;
+    /**
+     * Thread of the ServerGroup letting Clients in, if one is; guarded by joins
+     */
+    volatile Thread coordinator;
+    /**
+     * Held while Clients are let in or the key is changed, so a forced change waits for Clients joining
+     * and the other way round
+     */
+    final Object keyLock = new Object();
+    /**
+     * Latest key changes, oldest first; guarded by this Server
+     */
+    ArrayDeque<Rekey> rekeys = new ArrayDeque<>();
+    /**
+     * Whether the Server is draining; Clients connecting are turned away
+     */
+    volatile boolean draining = false;
+    /**
+     * Messages broadcast; guarded by this Server
+     */
+    long broadcasts = 0;
+    /**
+     * Characters of messages broadcast; guarded by this Server
+     */
+    long broadcastChars = 0;
+    /**
+     * Frames written to Clients, counting one for each Client a message is sent to; guarded by this Server
+     */
+    long deliveries = 0;
+    /**
+     * Id for the next Client to join
+     */
+    int nextId = 0;
+    /**
+     * Number of the key from the last finished key exchange
+     */
+    int epoch = 0;
+
+    /**
+     * Whether Clients joining get a key wrapped for them by a sponsoring Client,
+     * instead of a key exchange with every Client
+     */
+    boolean wrapJoins = false;
+    /**
+     * Client asked for a wrapped key; null if none is
      */
-    ArrayList<Socket> exchsockets = new ArrayList<>();
+    volatile Handler sponsor;
     /**
-     * Names of all connected Clients
+     * Number of sponsors chosen so far; picks the next sponsor in turn
      */
-    static ArrayList<String> names = new ArrayList<String>();
+    int sponsorTurn = 0;
+    /**
+     * Wrapped keys from sponsor
+     */
+    LinkedBlockingQueue<String> wraps = new LinkedBlockingQueue<>();
+    /**
+     * Whether Clients are joining or carrying out key exchange.
+     * Clients can't resume meanwhile, since they would miss the new key.
+     */
+    boolean rekeying = false;
+
+    /**
+     * Milliseconds a Client whose connection dropped can resume with its ticket; 0 to give no tickets
+     */
+    int resumeWindow = RESUME_WINDOW;
+    /**
+     * Milliseconds a Client whose connection dropped can join again with its ticket
+     * and be sent the messages it missed; 0 for never
+     */
+    int inboxTime = INBOX_TIME;
+    /**
+     * Milliseconds to wait for more Clients to join before starting a key exchange
+     */
+    int joinWindow = JOIN_WINDOW;
+    /**
+     * Milliseconds a Client in the chat can send nothing before it is sent PING; 0 to never check
+     */
+    int idleTime = IDLE_TIME;
+    /**
+     * Milliseconds a Client has to answer PING before it is evicted
+     */
+    int pongTimeout = PONG_TIMEOUT;
+    /**
+     * Checks whether Clients are still there; shared by a ServerGroup
+     */
+    TimerWheel wheel;
+    /**
+     * Time for key exchange deadlines, ticket windows, heartbeats and rate limits
+     */
+    Clock clock = Clock.SYSTEM;
+    /**
+     * Handlers of Clients that can resume, by ticket
+     */
+    HashMap<String, Handler> tickets = new HashMap<>();
+    /**
+     * Messages per second each Client can send; 0 for no limit
+     */
+    double messageLimit = 0;
+    /**
+     * Characters per second each Client can send; 0 for no limit
+     */
+    double charLimit = 0;
+    /**
+     * What to do with a message over a Client's limit
+     */
+    RateLimiter.Action overLimit = RateLimiter.Action.THROTTLE;
+    /**
+     * Whether each Client's Outbox keeps frames it hasn't read in a file, rather than passing the Client over
+     * until it catches up from the FrameLog
+     */
+    boolean spillOutbound = false;
+
+    /**
+     * Makes tickets
+     */
+    SecureRandom random = new SecureRandom();
+    /**
+     * Every frame broadcast, so Clients that resume can get the ones they missed
+     */
+    FrameLog frames = new FrameLog();
+
+    /**
+     * Names of all connected Clients; guarded by this Server
+     */
+    ArrayList<String> names = new ArrayList<String>();
 
     /**
      * Server's port number
@@ -48,62 +296,269 @@ public class Server extends Thread
      */
     ServerSocket serverSocket;
     /**
-     * Matrix of public values for key exchange
+     * Matrix of public value pairs (base and mod) for key exchange
+     */
+    int[][][] ex = new int[3][3][];
+    /**
+     * Generates public values in the background; shared by a ServerGroup
      */
-    ServerKeyExchange[][] ex = new ServerKeyExchange[3][3];
+    KeyParameterPool parameters;
 
     /**
-     * Displays messages of all Clients
+     * Receive messages and Clients joining and leaving
      */
-    JTextArea messageArea;
+    CopyOnWriteArrayList<ServerListener> listeners = new CopyOnWriteArrayList<>();
 
     /**
      * Default constructor for server
      */
     public Server() throws IOException
     {
-        portNumber   = 4000;
-        serverSocket = new ServerSocket(portNumber);
+        this(4000);
+    }
+
+    /**
+     * Constructor for server.
+     * The port is opened with a channel, so first lines are read with a Selector instead of a Thread each.
+     * @param portNumber    Port the server is connected to
+     */
+    public Server(int portNumber) throws IOException
+    {
+        this(listen(portNumber));
     }
 
     /**
-     * Constructor for server
-     * Set portNumber to default port
-     * @param messageArea   Component for Handlers to send information to
+     * Constructor for server taking connections from any ServerSocket,
+     * such as a UnixServerSocket or a MemoryServerSocket
+     * @param serverSocket  Socket that opens connections; the Server closes it when it stops
      */
-    public Server(JTextArea messageArea) throws IOException
+    public Server(ServerSocket serverSocket) throws IOException
     {
-        portNumber       = 4000;
-        this.messageArea = messageArea;
-        serverSocket     = new ServerSocket(portNumber);
+        this(serverSocket, null);
     }
 
     /**
-     * Constructor for server
-     * Give server a Component to put information in and a port
-     * @param portNumber    Port the server is connected to
-     * @param messageArea   Component for Handlers to send information to
+     * Constructor for server, with its own Threads or on those of a ServerGroup
+     * @param serverSocket  Socket that opens connections; the Server closes it when it stops
+     * @param group         ServerGroup to run on, or null to have its own Threads
      */
-    public Server(int portNumber, JTextArea messageArea) throws IOException
+    Server(ServerSocket serverSocket, ServerGroup group) throws IOException
     {
-        this.portNumber  = portNumber;
-        this.messageArea = messageArea;
-        serverSocket     = new ServerSocket(portNumber);
+        this.serverSocket = serverSocket;
+        this.group        = group;
+        portNumber        = Math.max(0, serverSocket.getLocalPort());
+        parameters        = group != null ? group.parameters : new KeyParameterPool();
+        wheel             = group != null ? group.wheel : new TimerWheel("Timer" + portNumber);
 
         this.setName("Server" + portNumber);
     }
 
     /**
-     * Send out message to all currently connected Clients
+     * Open a port with a channel
+     * @param portNumber    port to open; 0 for any free port
+     * @return              ServerSocket of the channel, blocking until an Acceptor starts
+     * @throws IOException  if the port can't be opened
+     */
+    private static ServerSocket listen(int portNumber) throws IOException
+    {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        try
+        {
+            channel.bind(new InetSocketAddress(portNumber));
+            return channel.socket();
+        } catch (IOException e)
+        {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Set how Clients join
+     * @param wrapJoins true to have a sponsoring Client wrap a key for Clients joining;
+     *                  false to carry out key exchange with every Client
+     */
+    public void setWrapJoins(boolean wrapJoins)
+    {
+        this.wrapJoins = wrapJoins;
+    }
+
+    /**
+     * Set how long Clients whose connection dropped can get back into the chat without joining again
+     * @param resumeWindow  milliseconds a ticket is kept after the connection drops; 0 to give no tickets
+     */
+    public void setResumeWindow(int resumeWindow)
+    {
+        this.resumeWindow = resumeWindow;
+    }
+
+    /**
+     * Set how long Clients whose connection dropped are sent the messages they missed when they join again
+     * @param inboxTime milliseconds a ticket is kept for joining again after the connection drops; 0 for never
+     */
+    public void setInboxTime(int inboxTime)
+    {
+        this.inboxTime = inboxTime;
+    }
+
+    /**
+     * Set where the time comes from for key exchange deadlines, ticket windows, heartbeats and rate limits.
+     * Must be set before the Server starts. A Server of a ServerGroup keeps the group's TimerWheel,
+     * which runs on the wall clock.
+     * @param clock Clock.SYSTEM, or virtual time in a simulation
+     */
+    public void setClock(Clock clock)
+    {
+        this.clock = clock;
+        if (group == null) wheel = new TimerWheel("Timer" + portNumber, clock);
+    }
+
+    /**
+     * Set where the public values for key exchange come from, instead of the Server's own KeyParameterPool.
+     * A simulation gives one generating from a seeded Random, so a run sends the same values every time.
+     * Must be set before the Server starts, and not on a Server of a ServerGroup, which shares the group's.
+     * @param parameters    generates public values; the Server shuts it down when it closes
+     */
+    public void setKeyParameterPool(KeyParameterPool parameters)
+    {
+        if (group != null) throw new IllegalStateException("Shares the ServerGroup's KeyParameterPool");
+        this.parameters.shutdown();
+        this.parameters = parameters;
+    }
+
+    /**
+     * Set how long to wait for more Clients to join before starting a key exchange.
+     * Clients already waiting join together even with 0, which a simulation uses so that
+     * who joins together doesn't depend on the wall clock.
+     * @param joinWindow    milliseconds to wait
+     */
+    public void setJoinWindow(int joinWindow)
+    {
+        this.joinWindow = joinWindow;
+    }
+
+    /**
+     * Set how long Clients in the chat can be silent before they are checked, and evicted if they don't answer.
+     * Applies to Clients that join afterwards.
+     * @param idleTime      milliseconds a Client can send nothing before it is sent PING; 0 to never check
+     * @param pongTimeout   milliseconds a Client has to answer PING
+     */
+    public void setHeartbeat(int idleTime, int pongTimeout)
+    {
+        this.idleTime    = idleTime;
+        this.pongTimeout = pongTimeout;
+    }
+
+    /**
+     * Set how much each Client can send.
+     * Applies to Clients that connect afterwards.
+     * @param messageLimit  messages per second; 0 for no limit
+     * @param charLimit     characters per second; 0 for no limit
+     * @param overLimit     what to do with a message over the limit
+     */
+    public void setRateLimit(double messageLimit, double charLimit, RateLimiter.Action overLimit)
+    {
+        this.messageLimit = messageLimit;
+        this.charLimit    = charLimit;
+        this.overLimit    = overLimit;
+    }
+
+    /**
+     * Set what happens to frames a slow Client hasn't read yet, once there are too many to keep in memory.
+     * Applies to Clients that connect afterwards.
+     * @param spillOutbound true to keep them in a file, and send them in order as the Client catches up;
+     *                      false to stop sending it frames until it does, then send it those it missed
+     *                      from the FrameLog. Either way, a slow Client holds up nothing else.
+     */
+    public void setSpillOutbound(boolean spillOutbound)
+    {
+        this.spillOutbound = spillOutbound;
+    }
+
+    /**
+     * Make a RateLimiter for a Client connecting
+     * @return  RateLimiter with the current limits, or null if there are none
+     */
+    public RateLimiter newRateLimiter()
+    {
+        if (messageLimit <= 0 && charLimit <= 0) return null;
+        return new RateLimiter(messageLimit, charLimit, overLimit, clock);
+    }
+
+    /**
+     * Add a listener for messages and Clients joining and leaving
+     * @param l listener to add
+     */
+    public void addListener(ServerListener l)
+    {
+        listeners.add(l);
+    }
+
+    /**
+     * Remove a listener added with addListener
+     * @param l listener to remove
+     */
+    public void removeListener(ServerListener l)
+    {
+        listeners.remove(l);
+    }
+
+    /**
+     * Send out message to all currently connected Clients.
+     * It is sent after the next sequence number, and kept so Clients that miss it can get it again.
+     * Clients still catching up, or too far behind to take it now, get it from their Inbox instead.
      * @param m Message sent
      */
     public synchronized void sendMessage(String m)
     {
+        BroadcastEvent event = new BroadcastEvent();
+        event.begin();
+
+        long seq     = frames.append(m);
+        String frame = seq + " " + m;
+        broadcasts++;
+        broadcastChars += m.length();
         for (Handler h : handlers)
         {
-            h.out.println(m);
+            if (h.catchingUp) continue;
+            // Never waits while holding this Server: a client with no room catches up from the FrameLog instead,
+            // on an Inbox of its own, and gets frames as they are broadcast again once it has
+            if (!h.offerFrames(frame)) deliver(h, seq);
+            deliveries++;
+        }
+        for (ServerListener l : listeners)
+        {
+            l.messageSent(frame);
+        }
+
+        if (event.shouldCommit())
+        {
+            event.recipients = handlers.size();
+            event.length     = m.length();
+            event.commit();
+        }
+    }
+
+    /**
+     * Send out a message from a client, unless it was already sent.
+     * Clients number their messages, and send them again after resuming if they aren't sure they arrived.
+     * @param h     the Handler associated to the client
+     * @param line  number of the message, then the message
+     */
+    public synchronized void relay(Handler h, String line)
+    {
+        int space = line.indexOf(' ');
+        try
+        {
+            long key = Long.parseLong(line.substring(0, Math.max(space, 0)));
+            if (key <= h.lastKey) return;
+            h.lastKey = key;
+        } catch (NumberFormatException e)
+        {
+            // Not a numbered message
+            return;
         }
-        messageArea.append(m + "\n");
+        sendMessage(line.substring(space + 1));
     }
 
     /**
@@ -112,7 +567,7 @@ public class Server extends Thread
      * @return true if not already in list
      *              false if already in list
      */
-    public static synchronized boolean addName(String name)
+    public synchronized boolean addName(String name)
     {
         for (String n : names)
         {
@@ -122,149 +577,885 @@ public class Server extends Thread
     }
 
     /**
-     * Sends out to currently connected Clients that another client has left
-     * @param h the Handler associated to the client
+     * Keep a name for a client, if it isn't in use
+     * @param name  name the client would take
+     * @return      true if the name was free, and is now in use
      */
-    public void clientLeft(Handler h)
+    public synchronized boolean reserveName(String name)
     {
-        // Trash cleanup
-        handlers.remove(h);
-        names.remove(h.getName());
+        if (!addName(name)) return false;
+        names.add(name);
+        return true;
     }
 
     /**
-     * Close the server without throwing error to end the program
+     * Number of names in use
+     * @return  number of names of Clients connected or joining
      */
-    public void close()
+    public synchronized int nameCount()
     {
-        for (Handler h : handlers)
-        {
-            h.out.println("CLOSED");
-        }
-        try
-        {
-            serverSocket.close();
-        } catch (IOException e)
+        return names.size();
+    }
+
+    /**
+     * Informs listeners that a client has joined
+     * @param h the Handler associated to the client
+     */
+    public void clientJoined(Handler h)
+    {
+        for (ServerListener l : listeners)
         {
-            System.out.println(e.getStackTrace());
+            l.clientJoined(h.getName());
         }
-        interrupt();
     }
 
     /**
-     * Carries out key exchange for all Clients with associated ServerKeyExchange
-     * @param i x-coordinate of associated ServerKeyExchange
-     * @param j y-coordinate of associated ServerKeyExchange
-     * @throws IOException
-     * @throws InterruptedException
+     * Sends out to currently connected Clients that another client has left
+     * @param h the Handler associated to the client
      */
-    public void doExchange(int i, int j) throws IOException, InterruptedException
+    public synchronized void clientLeft(Handler h)
     {
-        // Clears leftover stuff from last exchange
-        exchange.clear();
-        exchsockets.clear();
+        // Trash cleanup
+        // Only tell listeners once, however many ways the client is found to be gone
+        if (!handlers.remove(h)) return;
+        names.remove(h.getName());
+        h.stopHeartbeat();
+        // Its ticket can be used from now until the windows are over, unless it is revoked
+        long now   = clock.millis();
+        h.resumeBy = now + resumeWindow;
+        h.inboxBy  = now + inboxTime;
 
-        // Makes Sockets and ServerExchangeThreads for each Handler/Client connected
-        int c = 0;
-        for (int k = 0; k < handlers.size(); k++)
+        for (ServerListener l : listeners)
         {
-            Socket exchangeSocket = serverSocket.accept();
-            exchsockets.add(exchangeSocket);
-
-            ServerExchangeThread exch =
-                    new ServerExchangeThread(this, exchsockets.get(k));
-
-            exch.setName("E" + c);
-            exchange.add(exch);
-            c++;
+            l.clientLeft(h.getName());
         }
+    }
+
+    /**
+     * Receive a wrapped key from a client
+     * @param h     the Handler associated to the client
+     * @param line  the WRAP line it sent
+     */
+    public void wrapped(Handler h, String line)
+    {
+        if (h == sponsor) wraps.add(line);
+    }
 
-        // Transfer to Array
-        ServerExchangeThread[] exchangeThreads = new ServerExchangeThread[exchange.size()];
+    /**
+     * Disconnect a client that stalled or left during a key exchange
+     * @param h the Handler associated to the client
+     */
+    public synchronized void evict(Handler h)
+    {
+        // It misses the new key, so can't resume, but can join again with its ticket
+        clientLeft(h);
+        h.close();
+    }
 
-        for (int k = 0; k < exchange.size(); k++)
+    /**
+     * Disconnect a client for good, such as from an AdminServer.
+     * It is told it was kicked, so it doesn't resume or join again, and its ticket is revoked.
+     * @param name  name of the client
+     * @return      true if a client of that name was in the chat
+     * @throws InterruptedException
+     */
+    public boolean kick(String name) throws InterruptedException
+    {
+        Handler h = null;
+        synchronized (this)
         {
-            exchangeThreads[k] = exchange.get(k);
+            for (Handler c : handlers)
+            {
+                if (c.getName().equals(name)) h = c;
+            }
         }
+        if (h == null) return false;
 
-        // Create ExchangeTree, start ExchangeThreads, do the key exchange
-        ExchangeTreeNode root =
-                new ExchangeTreeNode(exchangeThreads);
-        ExchangeTree t = new ExchangeTree(root, ex[i][j].inf);
+        h.send(ServerKeyExchange.KICKED);
+        h.outbox.drain(ROUND_TIMEOUT);
+        revokeTicket(h);
+        evict(h);
+        return true;
+    }
+
+    /**
+     * Give a client that has joined a ticket to resume or join again with if its connection drops.
+     * Expired tickets are forgotten.
+     * @param h the Handler associated to the client
+     */
+    public synchronized void issueTicket(Handler h)
+    {
+        if (resumeWindow <= 0 && inboxTime <= 0) return;
 
-        for (ServerExchangeThread e : exchange)
+        long now = clock.millis();
+        for (Iterator<Handler> it = tickets.values().iterator(); it.hasNext(); )
         {
-            e.start();
+            Handler t = it.next();
+            if (t.resumeBy < now && t.inboxBy < now) it.remove();
         }
 
-        this.sleep(10);
-        t.doExchange();
+        byte[] b = new byte[16];
+        random.nextBytes(b);
+        h.ticket = Base64.getUrlEncoder().withoutPadding().encodeToString(b);
+        tickets.put(h.ticket, h);
+        h.send(ServerKeyExchange.TICKET + " " + h.ticket + " " + resumeWindow);
     }
 
     /**
-     * Run the server.
-     * Receive clients and relegate handling clients to handler threads.
+     * Stop a client's ticket from being used
+     * @param h the Handler associated to the client
      */
-    @Override
-    public void run()
+    public synchronized void revokeTicket(Handler h)
+    {
+        if (h.ticket != null) tickets.remove(h.ticket);
+    }
+
+    /**
+     * Let a client whose connection dropped back into the chat with the same name and key, without a key exchange.
+     * It is told the number of the last message it sent that was relayed, then sent the frames it missed.
+     * Tickets can only be used once; the client is given a new one.
+     * If the client can't resume, it can still use its ticket to join again.
+     * @param socket        new connection from the client
+     * @param ticket        ticket the client was given
+     * @param clientEpoch   epoch of the client's key
+     * @param lastSeq       sequence number of the last frame the client received
+     * @return              true if the client is back in the chat;
+     *                      false if the ticket is unknown or expired, or the client doesn't have the current key
+     * @throws IOException
+     */
+    public synchronized boolean resumeClient(Socket socket, String ticket, int clientEpoch, long lastSeq)
+            throws IOException
+    {
+        Handler old = tickets.get(ticket);
+        if (!open || old == null || rekeying || clientEpoch != epoch ||
+                old.resumeBy < clock.millis()) return false;
+        tickets.remove(ticket);
+
+        // The old connection dropped without the server noticing yet
+        if (handlers.contains(old)) clientLeft(old);
+        old.close();
+        if (!reserveName(old.getName())) return false;
+
+        Handler h = new Handler(socket, this);
+        h.id      = old.id;
+        h.lastKey = old.lastKey;
+        h.fromSeq = old.fromSeq;
+        h.setName(old.getName());
+        h.joined  = true;
+        handlers.add(h);
+
+        h.send(ServerKeyExchange.RESUMED + " " + h.lastKey);
+        issueTicket(h);
+        deliver(h, Math.max(lastSeq + 1, h.fromSeq));
+        h.startHeartbeat();
+        h.start();
+        clientJoined(h);
+        return true;
+    }
+
+    /**
+     * Set up a client joining again after its connection dropped, to be sent the messages it missed once it is in.
+     * Only messages sent since the client first joined are sent; it can't decrypt older ones.
+     * Does nothing if the ticket is unknown or expired.
+     * @param h         the Handler associated to the client joining
+     * @param ticket    ticket the client was given
+     * @param lastSeq   sequence number of the last frame the client received
+     */
+    public synchronized void returning(Handler h, String ticket, long lastSeq)
+    {
+        Handler old = tickets.get(ticket);
+        if (old == null || old.inboxBy < clock.millis()) return;
+        tickets.remove(ticket);
+
+        // The old connection dropped without the server noticing yet
+        if (handlers.contains(old)) clientLeft(old);
+        old.close();
+
+        h.lastKey    = old.lastKey;
+        h.fromSeq    = old.fromSeq;
+        h.inbox      = Math.max(lastSeq + 1, old.fromSeq);
+        h.catchingUp = true;
+    }
+
+    /**
+     * Send a client the frames it missed, in batches, before any new frame
+     * @param h     the Handler associated to the client
+     * @param from  sequence number of the first frame it missed
+     */
+    public synchronized void deliver(Handler h, long from)
+    {
+        h.catchingUp = true;
+        new Inbox(this, h, Math.max(from, frames.next() - Inbox.LIMIT)).start();
+    }
+
+    /**
+     * Close the server without throwing error to end the program
+     */
+    public synchronized void close()
+    {
+        open = false;
+        for (Handler h : handlers)
+        {
+            h.send("CLOSED");
+        }
+        try
+        {
+            serverSocket.close();
+        } catch (IOException e)
+        {
+            System.out.println(e.getStackTrace());
+        }
+        if (group == null)
+        {
+            parameters.shutdown();
+            wheel.interrupt();
+            Acceptor a = acceptor;
+            if (a != null) a.interrupt();
+        } else
+        {
+            // Let the ServerGroup forget the port
+            group.selector.wakeup();
+        }
+        frames.close();
+        interrupt();
+        Thread c = coordinator;
+        if (c != null) c.interrupt();
+    }
+
+    /**
+     * Use newly generated public values where they are ready.
+     * Only waits for generation if there are no values yet.
+     * @throws InterruptedException
+     */
+    public void refreshParameters() throws InterruptedException
     {
-        // Generate key exchange public values
         for (int i = 0; i < 3; i++)
         {
             for (int j = 0; j < 3; j++)
             {
-                ex[i][j] = new ServerKeyExchange();
-                ex[i][j].start();
+                int[] inf = ex[i][j] == null ? parameters.take() : parameters.poll();
+                if (inf != null) ex[i][j] = inf;
+            }
+        }
+    }
+
+    /**
+     * Carries out key exchange for all Clients with associated ServerKeyExchange.
+     * Every Client must connect within ROUND_TIMEOUT, then answer each of its own steps within STEP_TIMEOUT.
+     * Clients that don't are evicted, and the exchange is abandoned.
+     * If the deadline passes first, the Clients that were slowest to answer are evicted.
+     * @param i             x-coordinate of associated ServerKeyExchange
+     * @param j             y-coordinate of associated ServerKeyExchange
+     * @param participants  Handlers of the Clients taking part
+     * @param end           Clock time in nanoseconds the whole key exchange must be over by
+     * @return              true if every Client finished the exchange
+     * @throws InterruptedException
+     */
+    public boolean doExchange(int i, int j, ArrayList<Handler> participants, long end)
+            throws InterruptedException
+    {
+        ExchangeEvent event = new ExchangeEvent();
+        event.begin();
+        long startTime = clock.nanoTime();
+        long deadline  = Math.min(startTime + TimeUnit.MILLISECONDS.toNanos(ROUND_TIMEOUT), end);
+        int round      = i * 3 + j;
+
+        // Clears leftover stuff from last exchange
+        exchange.clear();
+
+        // Clients taking part, by id, unless they have left
+        HashMap<Integer, Handler> waiting = new HashMap<>();
+        synchronized (this)
+        {
+            for (Handler h : participants)
+            {
+                if (handlers.contains(h)) waiting.put(h.id, h);
+            }
+        }
+        if (waiting.isEmpty()) return true;
+
+        // Takes one ServerExchangeThread from each Handler/Client connected
+        long left;
+        while (!waiting.isEmpty() && (left = deadline - clock.nanoTime()) > 0)
+        {
+            ServerExchangeThread exch = clock.poll(exchangeSockets, left);
+            if (exch == null) break;
+
+            Handler h = exch.round == round ? waiting.remove(exch.id) : null;
+            if (h == null)
+            {
+                // Left over from an abandoned exchange, or from a Client not taking part
+                exch.close();
+                continue;
+            }
+
+            exch.handler  = h;
+            exch.deadline = end;
+            exch.setName("E" + exchange.size());
+            exchange.add(exch);
+        }
+        long accepted = clock.nanoTime();
+
+        int evicted = 0;
+        boolean done = false;
+
+        if (!waiting.isEmpty())
+        {
+            // Clients that never connected
+            for (Handler h : waiting.values())
+            {
+                evict(h);
+                evicted++;
+            }
+            for (ServerExchangeThread e : exchange)
+            {
+                e.close();
+            }
+        } else
+        {
+            // Create ExchangeTree, start ExchangeThreads, do the key exchange
+            ServerExchangeThread[] exchangeThreads = exchange.toArray(new ServerExchangeThread[0]);
+            ExchangeTreeNode root = new ExchangeTreeNode(exchangeThreads);
+            ExchangeTree t        = new ExchangeTree(root, ex[i][j]);
+
+            for (ServerExchangeThread e : exchange)
+            {
+                e.start();
+            }
+
+            try
+            {
+                clock.sleep(10);
+                t.doExchange();
+                done = true;
+            } catch (IOException f)
+            {
+                // A Client stalled or left; the others can't finish without it
+                for (ServerExchangeThread e : exchange)
+                {
+                    if (e.failed)
+                    {
+                        evict(e.handler);
+                        evicted++;
+                    }
+                }
+                // Or time ran out with every Client answering its steps, just slowly
+                if (evicted == 0)
+                {
+                    for (ServerExchangeThread e : slowest(exchange))
+                    {
+                        evict(e.handler);
+                        evicted++;
+                    }
+                }
+            } finally
+            {
+                // Let the ExchangeThreads end
+                t.unlockAll(root);
+                for (ServerExchangeThread e : exchange)
+                {
+                    e.close();
+                }
             }
         }
-        // Wait for all values to be generated
+
+        if (event.shouldCommit())
+        {
+            event.port         = portNumber;
+            event.row          = i;
+            event.column       = j;
+            event.participants = exchange.size() + waiting.size();
+            event.acceptTime   = accepted - startTime;
+            event.evicted      = evicted;
+            event.commit();
+        }
+        return done;
+    }
+
+    /**
+     * Choose the ExchangeThreads whose Clients to evict when a key exchange runs out of time:
+     * those taking at least twice as long to answer as most do, or if there are none, the slower half,
+     * so each try either loses the few holding it up or has half as many Clients to wait for
+     * @param threads   ExchangeThreads of the exchange
+     * @return          ExchangeThreads of the slowest Clients
+     */
+    static ArrayList<ServerExchangeThread> slowest(ArrayList<ServerExchangeThread> threads)
+    {
+        ArrayList<ServerExchangeThread> sorted = new ArrayList<>(threads);
+        sorted.sort(new Comparator<ServerExchangeThread>()
+        {
+            @Override
+            public int compare(ServerExchangeThread a, ServerExchangeThread b)
+            {
+                return Long.compare(b.pace(), a.pace());
+            }
+        });
+        long median = sorted.get(sorted.size() / 2).pace();
+
+        ArrayList<ServerExchangeThread> slow = new ArrayList<>();
+        for (ServerExchangeThread e : sorted)
+        {
+            if (e.pace() > 0 && e.pace() >= median * 2) slow.add(e);
+        }
+        if (slow.isEmpty() && sorted.get(0).pace() > 0)
+        {
+            slow.addAll(sorted.subList(0, (sorted.size() + 1) / 2));
+        }
+        return slow;
+    }
+
+    /**
+     * Nanoseconds a key exchange may take in all: STEP_TIMEOUT for each level of the ExchangeTree
+     * in each of its 9 exchanges, with ROUND_TIMEOUT to spare
+     * @param clients   number of Clients taking part
+     * @return          time the key exchange has
+     */
+    static long budget(int clients)
+    {
+        int levels = 1;
+        for (int n = 1; n < clients; n *= 2)
+        {
+            levels++;
+        }
+        return TimeUnit.MILLISECONDS.toNanos(9L * STEP_TIMEOUT * levels + ROUND_TIMEOUT);
+    }
+
+    /**
+     * Carries out key exchange for all ServerKeyExchanges
+     * @param participants  Handlers of the Clients taking part
+     * @return              true if every exchange finished;
+     *                      false if one was abandoned because of a stalled Client
+     * @throws InterruptedException
+     */
+    public boolean exchangeAll(ArrayList<Handler> participants) throws InterruptedException
+    {
+        long end = clock.nanoTime() + budget(participants.size());
         for (int i = 0; i < 3; i++)
         {
             for (int j = 0; j < 3; j++)
             {
-                try {
-                    ex[i][j].join();
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
+                if (!doExchange(i, j, participants, end)) return false;
             }
         }
+        return true;
+    }
+
+    /**
+     * Signal Clients to start a key exchange
+     * @param participants  Handlers of the Clients taking part
+     * @param signal        KEY, or PAIR
+     */
+    public synchronized void signal(ArrayList<Handler> participants, String signal)
+    {
+        for (Handler h : participants)
+        {
+            h.send(signal);
+        }
+    }
+
+    /**
+     * Let Clients in without a key exchange with every Client.
+     * They carry out key exchange with one sponsoring Client, chosen in turn, which then sends a new key
+     * encrypted both with that exchange's key and with the current key. The server only passes it on.
+     * The time this takes does not depend on how many Clients are connected.
+     * @param joining   Handlers of the Clients joining
+     * @return          true if the new key was sent to every Client;
+     *                  false if there is no Client to sponsor, or the sponsor did not answer
+     * @throws InterruptedException
+     */
+    public boolean wrapJoin(ArrayList<Handler> joining) throws InterruptedException
+    {
+        Handler s;
+        synchronized (this)
+        {
+            // Only Clients in the chat have a key, and aren't busy choosing a name
+            ArrayList<Handler> members = new ArrayList<>();
+            for (Handler h : handlers)
+            {
+                if (h.joined) members.add(h);
+            }
+            if (members.isEmpty()) return false;
+            s = members.get(sponsorTurn++ % members.size());
+        }
+
+        ArrayList<Handler> participants = new ArrayList<>(joining);
+        participants.add(s);
+        signal(participants, ServerKeyExchange.PAIR);
+
+        refreshParameters();
+        if (!exchangeAll(participants)) return false;
+
+        // Ask the sponsor for the new key
+        wraps.clear();
+        sponsor = s;
+        s.send(ServerKeyExchange.WRAP);
+        String wrapped = clock.poll(wraps, TimeUnit.MILLISECONDS.toNanos(ROUND_TIMEOUT));
+        sponsor = null;
+
+        if (wrapped == null)
+        {
+            evict(s);
+            return false;
+        }
+        signal(handlers, wrapped);
+        return true;
+    }
+
+    /**
+     * Wait for a Client to join, then for any others joining within the join window,
+     * and take any still waiting once it is over
+     * @return  Handlers of Clients joining together
+     * @throws InterruptedException
+     */
+    public ArrayList<Handler> takeJoins() throws InterruptedException
+    {
+        ArrayList<Handler> batch = new ArrayList<>();
+        batch.add(joins.take());
+
+        long end = clock.nanoTime() + TimeUnit.MILLISECONDS.toNanos(joinWindow);
+        long left;
+        while ((left = end - clock.nanoTime()) > 0)
+        {
+            Handler h = clock.poll(joins, left);
+            if (h == null) break;
+            batch.add(h);
+        }
+        joins.drainTo(batch);
+        return batch;
+    }
+
+    /**
+     * Run the server.
+     * Receive clients and relegate handling clients to handler threads.
+     * Clients joining at about the same time are let in together with one key exchange.
+     */
+    @Override
+    public void run()
+    {
+        // Public values are generated by parameters in the background,
+        // so Clients can connect straight away
+        acceptor = new Acceptor(this);
+        acceptor.start();
+        wheel.start();
 
         try
         {
             while (open)
             {
-                // Connect with Client
-                Socket clientSocket = serverSocket.accept();
-                Handler handler     = new Handler(clientSocket, this);
+                admit(takeJoins());
+            }
+        } catch (InterruptedException e) {
+            // Expected when the Server is closed
+            if (open) e.printStackTrace();
+        }
+    }
 
-                // Key Exchange
-                for (Handler h : handlers)
+    /**
+     * Take a connection with its first line from the ServerGroup or a ClusterNode, never waiting on this Server.
+     * Connections for a key exchange go straight to exchangeSockets; the rest are sorted on a Thread of the
+     * ServerGroup, as sorting them takes this Server's locks, which a slow Client can hold up.
+     * @param socket    connection
+     * @param hello     first line
+     */
+    void arrive(Socket socket, String hello)
+    {
+        synchronized (arrivals)
+        {
+            arrived++;
+        }
+        if (hello.startsWith(ServerKeyExchange.EXCHANGE + " "))
+        {
+            Acceptor.sort(this, socket, hello);
+            return;
+        }
+
+        Arrival a = new Arrival();
+        a.socket  = socket;
+        a.hello   = hello;
+        synchronized (arrivals)
+        {
+            arrivals.add(a);
+            if (sorting) return;
+            sorting = true;
+        }
+        group.coordinators.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                sortAll();
+            }
+        });
+    }
+
+    /**
+     * Number of connections passed on so far, if no Client is in the chat or on its way in, such as for
+     * a ClusterNode to tell when a room is no longer used
+     * @return  connections that arrived, or -1 if a Client is connected, joining or being sorted
+     */
+    long emptyMark()
+    {
+        long mark;
+        synchronized (arrivals)
+        {
+            if (sorting || !arrivals.isEmpty()) return -1;
+            mark = arrived;
+        }
+        synchronized (joins)
+        {
+            if (admitting || !joins.isEmpty()) return -1;
+        }
+        synchronized (this)
+        {
+            if (!handlers.isEmpty()) return -1;
+        }
+        return mark;
+    }
+
+    /**
+     * Number of connections passed on so far
+     * @return  connections that arrived
+     */
+    long arrived()
+    {
+        synchronized (arrivals)
+        {
+            return arrived;
+        }
+    }
+
+    /**
+     * Sort connections that arrived until none are waiting, on a Thread of the ServerGroup,
+     * and have Clients joining let in
+     */
+    void sortAll()
+    {
+        while (true)
+        {
+            Arrival a;
+            synchronized (arrivals)
+            {
+                a = arrivals.poll();
+                if (a == null)
                 {
-                    h.out.println(ServerKeyExchange.KEY);
+                    sorting = false;
+                    return;
                 }
+            }
+            if (!open)
+            {
+                try
+                {
+                    a.socket.close();
+                } catch (IOException e) {}
+                continue;
+            }
+            Acceptor.sort(this, a.socket, a.hello);
+            admitJoins();
+        }
+    }
 
-                handler.start();
-                handlers.add(handler);
+    /**
+     * Have a Thread of the ServerGroup let in Clients waiting to join, unless one already is.
+     * Called after connections that arrived are sorted into joins.
+     */
+    void admitJoins()
+    {
+        synchronized (joins)
+        {
+            if (admitting || joins.isEmpty()) return;
+            admitting = true;
+        }
+        group.coordinators.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                admitAll();
+            }
+        });
+    }
 
-                for (int i = 0; i < 3; i++)
+    /**
+     * Let in Clients joining until none are waiting, on a Thread of the ServerGroup.
+     * Does what run() does, but gives the Thread back once there is nothing to do.
+     */
+    void admitAll()
+    {
+        synchronized (joins)
+        {
+            coordinator = Thread.currentThread();
+        }
+        try
+        {
+            while (true)
+            {
+                synchronized (joins)
                 {
-                    for (int j = 0; j < 3; j++)
+                    // Clients that join after this have another Thread started for them
+                    if (!open || joins.isEmpty())
                     {
-                        doExchange(i, j);
+                        coordinator = null;
+                        admitting   = false;
+                        return;
                     }
                 }
+                admit(takeJoins());
+            }
+        } catch (InterruptedException e)
+        {
+            // Expected when the Server is closed
+            if (open) e.printStackTrace();
+        } finally
+        {
+            synchronized (joins)
+            {
+                if (coordinator == Thread.currentThread())
+                {
+                    coordinator = null;
+                    admitting   = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Change the key now, with a key exchange with every Client, such as from an AdminServer.
+     * Waits for Clients being let in first.
+     * @return  true if the key was changed; false if there are no Clients or the Server is closed
+     * @throws InterruptedException
+     */
+    public boolean rekey() throws InterruptedException
+    {
+        synchronized (this)
+        {
+            if (!open || handlers.isEmpty()) return false;
+        }
+        admit(new ArrayList<Handler>());
+        return true;
+    }
+
+    /**
+     * Turn away Clients connecting, wait until every Client has been sent everything waiting for it,
+     * then close the Server, such as from an AdminServer
+     * @param millis    most milliseconds to wait, for every Client together
+     * @return          true if every Client was sent everything
+     * @throws InterruptedException
+     */
+    public boolean drain(long millis) throws InterruptedException
+    {
+        draining = true;
+        ArrayList<Handler> clients;
+        synchronized (this)
+        {
+            clients = new ArrayList<>(handlers);
+        }
+
+        // Clients are written to at once; waiting for each in turn only waits for the slowest
+        long end     = System.currentTimeMillis() + millis;
+        boolean sent = true;
+        for (Handler h : clients)
+        {
+            if (!h.outbox.drain(Math.max(1, end - System.currentTimeMillis()))) sent = false;
+        }
+        close();
+        return sent;
+    }
+
+    /**
+     * Keep a key change in rekeys, forgetting the oldest past REKEY_HISTORY
+     * @param started   when the change started, in milliseconds of the Clock
+     * @param joining   Clients let in by it
+     * @param wrapped   whether a sponsoring Client wrapped the key
+     */
+    private synchronized void recordRekey(long started, int joining, boolean wrapped)
+    {
+        Rekey r   = new Rekey();
+        r.epoch   = epoch;
+        r.at      = started;
+        r.millis  = clock.millis() - started;
+        r.clients = handlers.size();
+        r.joining = joining;
+        r.wrapped = wrapped;
+        r.forced  = joining == 0;
+        rekeys.add(r);
+        if (rekeys.size() > REKEY_HISTORY) rekeys.poll();
+    }
+
+    /**
+     * Let Clients in, with a key exchange
+     * @param joining   Handlers of Clients joining together
+     * @throws InterruptedException
+     */
+    void admit(ArrayList<Handler> joining) throws InterruptedException
+    {
+        synchronized (keyLock)
+        {
+            long started = clock.millis();
+
+            // Connect with Clients
+            for (Handler handler : joining)
+            {
+                handler.id = nextId++;
+            }
+
+            // Handlers relay messages through sendMessage while the list changes
+            synchronized (this)
+            {
+                rekeying = true;
+                for (Handler handler : joining)
+                {
+                    handler.fromSeq = frames.next();
+                    // A name kept for the client goes with its id, so it doesn't ask for one later
+                    handler.send(ServerKeyExchange.ID + " " + handler.id +
+                            (handler.named ? " " + URLEncoder.encode(handler.getName(), StandardCharsets.UTF_8) : ""));
+                    handler.start();
+                    handlers.add(handler);
+                }
+            }
+
+            // Key Exchange
+            // Joining Clients wait for the signal too, so their ExchangeThreads
+            // can't connect during an earlier exchange
+            // Start again with every Client, without any Client that stalled
+            boolean done    = wrapJoins && !joining.isEmpty() && wrapJoin(joining);
+            boolean wrapped = done;
+            while (!done)
+            {
+                ArrayList<ServerExchangeThread> abandoned = new ArrayList<>();
+                exchangeSockets.drainTo(abandoned);
+                for (ServerExchangeThread e : abandoned)
+                {
+                    e.close();
+                }
+
+                ArrayList<Handler> participants;
+                synchronized (this)
+                {
+                    participants = new ArrayList<>(handlers);
+                }
+                signal(participants, ServerKeyExchange.KEY);
+
+                refreshParameters();
+                done = exchangeAll(participants);
+            }
 
+            // Every Client has the new key; they all keep using the old one until told to change
+            synchronized (this)
+            {
+                epoch++;
+                // Clients that were given a name now have the key, so are in the chat
+                for (Handler h : joining)
+                {
+                    if (h.named && !h.joined && handlers.contains(h)) h.admit();
+                }
                 for (Handler h : handlers)
                 {
-                    if (h.isInterrupted()) clientLeft(h);
+                    h.send(ServerKeyExchange.EPOCH + " " + epoch);
                 }
+                rekeying = false;
+                recordRekey(started, joining.size(), wrapped);
             }
-        } catch (IOException e)
-        {
-            interrupt();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
         }
     }
-}
\ No newline at end of file
+}
@@ -1,11 +1,14 @@
 package server;
 
 import java.io.BufferedReader;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.Socket;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -20,6 +23,34 @@ import java.util.concurrent.locks.ReentrantLock;
 public class ServerExchangeThread extends Thread {
     Socket socket;
     Server server;
+    /**
+     * Id of the Client this connection came from
+     */
+    int id;
+    /**
+     * Number (0 to 8) of the exchange the Client ExchangeThread is for
+     */
+    int round;
+    /**
+     * Handler of the Client this connection came from
+     */
+    Handler handler;
+    /**
+     * Server's Clock.nanoTime() by which the whole key exchange must be over
+     */
+    long deadline = Long.MAX_VALUE;
+    /**
+     * Nanoseconds spent waiting for the Client's answers during the exchange
+     */
+    long waited = 0;
+    /**
+     * Number of lines the Server waited for from the Client during the exchange
+     */
+    int answers = 0;
+    /**
+     * Whether the Client missed its own step or left during the exchange
+     */
+    boolean failed = false;
     /**
      * Read incoming information from client
      */
@@ -43,18 +74,26 @@ public class ServerExchangeThread extends Thread {
     ReentrantLock lock;
 
     /**
-     * Constructor for ServerExchangeThread
+     * Constructor for ServerExchangeThread.
+     * Opens input and output streams.
      * @param server    Server carrying out key exchange
      * @param s         Socket receiving information from a client ExchangeThread
+     * @param id        Id of the Client the Socket came from
+     * @throws IOException
      */
-    public ServerExchangeThread(Server server, Socket s)
+    public ServerExchangeThread(Server server, Socket s, int id) throws IOException
     {
         this.server = server;
+        this.id     = id;
         socket      = s;
+        in          = new BufferedReader(new InputStreamReader((socket.getInputStream())));
+        out         = new PrintWriter(socket.getOutputStream(), true);
 
         try
         {
             socket.setKeepAlive(true);
+            // Exchange is many small back-and-forth writes; don't let them wait on delayed ACKs
+            socket.setTcpNoDelay(true);
         } catch (SocketException e)
         {
             e.printStackTrace();
@@ -64,27 +103,13 @@ public class ServerExchangeThread extends Thread {
     }
 
     /**
-     * Open input and output streams, and keep Socket open
+     * Keep Socket open until the exchange is over and the Server unlocks this ExchangeThread
      */
     @Override
     public void run()
     {
-        try
-        {
-            in  = new BufferedReader(new InputStreamReader((socket.getInputStream())));
-            out = new PrintWriter(socket.getOutputStream(), true);
-            lock.lock();
-            try
-            {
-                socket.setKeepAlive(false);
-            } catch (SocketException e)
-            {
-                e.printStackTrace();
-            }
-        } catch (Exception e)
-        {
-            e.printStackTrace();
-        }
+        lock.lock();
+        lock.unlock();
     }
 
     /**
@@ -98,24 +123,75 @@ public class ServerExchangeThread extends Thread {
     }
 
     /**
-     * Receive information from Client ExchangeThread
+     * Receive information from Client ExchangeThread.
+     * Gives up if the Client takes longer than Server.STEP_TIMEOUT, counted from when it was sent its turn,
+     * or the deadline passes; only the first marks this ExchangeThread as failed.
+     * @throws IOException  if the Client stalled, left, sent something that isn't a number, or time is up
      */
-    public void receiveFromClient()
+    public void receiveFromClient() throws IOException
     {
         try
         {
-            String inputLine = in.readLine();
-            int[] i          = new int[2];
-            i[0]             = Integer.parseInt(inputLine);
-            inputLine        = in.readLine();
-            i[1]             = Integer.parseInt(inputLine);
-            this.inf         = i;
-        } catch (IOException e)
+            int[] i   = new int[2];
+            i[0]      = Integer.parseInt(readLine());
+            i[1]      = Integer.parseInt(readLine());
+            this.inf  = i;
+        } catch (SocketTimeoutException e)
         {
-            e.printStackTrace();
+            // Past the deadline, the slowest Client is to blame rather than this one
+            failed = server.clock.nanoTime() < deadline;
+            throw e;
+        } catch (IOException | NumberFormatException e)
+        {
+            failed = true;
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
         }
     }
 
+    /**
+     * Read a line, waiting no longer than Server.STEP_TIMEOUT or the deadline
+     * @return  line read
+     * @throws IOException  if the time is up or the Client left
+     */
+    String readLine() throws IOException
+    {
+        long start = server.clock.nanoTime();
+        long left  = TimeUnit.NANOSECONDS.toMillis(deadline - start);
+        if (left <= 0) throw new SocketTimeoutException("Exchange deadline passed");
+
+        socket.setSoTimeout((int) Math.min(left, Server.STEP_TIMEOUT));
+        try
+        {
+            String line = in.readLine();
+            if (line == null) throw new EOFException("Client left during exchange");
+            return line;
+        } finally
+        {
+            waited += server.clock.nanoTime() - start;
+            answers++;
+        }
+    }
+
+    /**
+     * Average time the Client took to answer
+     * @return  nanoseconds for each line waited for, or 0 if none were
+     */
+    long pace()
+    {
+        return answers == 0 ? 0 : waited / answers;
+    }
+
+    /**
+     * Close the connection to the Client ExchangeThread
+     */
+    public void close()
+    {
+        try
+        {
+            socket.close();
+        } catch (IOException e) {}
+    }
+
     /**
      * Send information to Client ExchangeThread, and continue exchange
      * @param inf   information to send
@@ -0,0 +1,476 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs Servers on many ports in one process on the same Threads, so adding a port adds none.
+ * One Thread accepts connections on every port with a Selector and reads their first lines
+ * without waiting on any of them, then passes them to their Server, which sorts them as an Acceptor would
+ * on a Thread of its own, so the Selector never waits on a Server.
+ * Other ports, such as a ClusterNode's, can be served the same way through a Door.
+ * Once passed on, connections are blocking sockets like any other, with no Selectors of their own.
+ * The Servers share one TimerWheel and one KeyParameterPool, and let Clients in on a pool of Threads
+ * that are only kept while a Server has Clients joining, instead of each waiting on a Thread of its own.
+ * Clients still have their own Handlers once they are in.
+ * A Server with Threads of its own reads first lines on a ServerGroup of its own too, made only to listen.
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+
+public class ServerGroup extends Thread
+{
+    /**
+     * Takes the connections of a port once their first lines have arrived
+     */
+    public interface Door
+    {
+        /**
+         * Number of lines each connection sends before it is passed on
+         * @return  number of lines, at least 1
+         */
+        int lines();
+
+        /**
+         * Whether connections are still taken
+         * @return  false once the port is closed for good
+         */
+        boolean isOpen();
+
+        /**
+         * Take a connection; on the Thread of the ServerGroup accepting every connection, so must never wait
+         * @param socket    connection, blocking
+         * @param lines     its first lines, in order
+         */
+        void enter(Socket socket, String[] lines);
+    }
+
+    /**
+     * A port to start accepting connections on
+     */
+    private static class Port
+    {
+        /**
+         * Channel of the port
+         */
+        ServerSocketChannel channel;
+        /**
+         * Takes its connections
+         */
+        Door door;
+    }
+
+    /**
+     * A connection whose first lines haven't all arrived yet
+     */
+    private static class Hello
+    {
+        /**
+         * Takes the connection
+         */
+        Door door;
+        /**
+         * Connection
+         */
+        SocketChannel channel;
+        /**
+         * First lines that have arrived
+         */
+        ArrayList<String> lines = new ArrayList<>();
+        /**
+         * Current line so far
+         */
+        StringBuilder line = new StringBuilder();
+        /**
+         * Closes the connection if the lines take longer than Acceptor.HELLO_TIMEOUT
+         */
+        TimerWheel.Timeout timeout;
+        /**
+         * Whether the connection was passed on or closed; guarded by this Hello
+         */
+        boolean done = false;
+    }
+
+    /**
+     * Waits for connections on every port, and for the first lines of connections
+     */
+    Selector selector;
+    /**
+     * Runs every Server's heartbeats and the timeouts of first lines
+     */
+    TimerWheel wheel;
+    /**
+     * Whether the TimerWheel is the ServerGroup's own, started and stopped with it, rather than a Server's
+     */
+    boolean ownWheel = true;
+    /**
+     * Generates public values for every Server; null for a ServerGroup only listening
+     */
+    KeyParameterPool parameters;
+    /**
+     * Let Clients in to Servers that have Clients joining; null for a ServerGroup only listening
+     */
+    ExecutorService coordinators;
+    /**
+     * Ports to start accepting connections on
+     */
+    LinkedBlockingQueue<Port> serving = new LinkedBlockingQueue<>();
+    /**
+     * Connections whose first lines have all arrived, to pass on once their keys are let go of
+     */
+    ArrayList<Hello> greeted = new ArrayList<>();
+    /**
+     * Reads first lines a byte at a time, so nothing after them is read
+     */
+    ByteBuffer one = ByteBuffer.allocate(1);
+
+    /**
+     * Constructor for ServerGroup
+     * @throws IOException
+     */
+    public ServerGroup() throws IOException
+    {
+        selector     = Selector.open();
+        wheel        = new TimerWheel("Timer");
+        parameters   = new KeyParameterPool();
+        coordinators = Executors.newCachedThreadPool(new ThreadFactory()
+        {
+            int count = 0;
+
+            @Override
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "Coordinator" + count++);
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        this.setName("Listener");
+        this.setDaemon(true);
+    }
+
+    /**
+     * Constructor for a ServerGroup that only reads first lines, for a Server with Threads of its own.
+     * It times them out on the Server's TimerWheel, which the Server starts and stops,
+     * and opens no Servers, so has no KeyParameterPool or coordinators.
+     * @param wheel TimerWheel of the Server
+     * @throws IOException  if the Selector can't be opened
+     */
+    ServerGroup(TimerWheel wheel) throws IOException
+    {
+        selector   = Selector.open();
+        this.wheel = wheel;
+        ownWheel   = false;
+        this.setName("Listener");
+        this.setDaemon(true);
+    }
+
+    /**
+     * Open a Server on a port.
+     * It takes no connections until it is passed to serve, so it can be set up first.
+     * @param portNumber    port to open; 0 for any free port
+     * @return              Server on the port
+     * @throws IOException  if the port can't be opened
+     */
+    public Server open(int portNumber) throws IOException
+    {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        try
+        {
+            channel.bind(new InetSocketAddress(portNumber));
+            channel.configureBlocking(false);
+            return new Server(channel.socket(), this);
+        } catch (IOException e)
+        {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Open a Server with no port, such as for a room of a ClusterNode, which passes it connections itself.
+     * Its Clients are let in on the ServerGroup's Threads as with any other; it needs no serve.
+     * @return  Server with no port
+     * @throws IOException
+     */
+    public Server openRoom() throws IOException
+    {
+        return new Server(new MemoryServerSocket(), this);
+    }
+
+    /**
+     * Start taking connections for a Server opened by this ServerGroup.
+     * Use instead of Server.start(); Server.close() stops it.
+     * @param server    Server from open
+     */
+    public void serve(final Server server)
+    {
+        serve(server.serverSocket.getChannel(), new Door()
+        {
+            @Override
+            public int lines()
+            {
+                return 1;
+            }
+
+            @Override
+            public boolean isOpen()
+            {
+                return server.open;
+            }
+
+            @Override
+            public void enter(Socket socket, String[] lines)
+            {
+                server.arrive(socket, lines[0]);
+            }
+        });
+    }
+
+    /**
+     * Start taking connections on a port for a Door; closing the channel stops it
+     * @param channel   bound channel of the port
+     * @param door      takes its connections
+     */
+    public void serve(ServerSocketChannel channel, Door door)
+    {
+        Port p    = new Port();
+        p.channel = channel;
+        p.door    = door;
+        serving.add(p);
+        selector.wakeup();
+    }
+
+    /**
+     * Accept connections and read their first lines until interrupted
+     */
+    @Override
+    public void run()
+    {
+        if (ownWheel) wheel.start();
+        try
+        {
+            while (!isInterrupted())
+            {
+                selector.select();
+                for (Port p; (p = serving.poll()) != null; )
+                {
+                    try
+                    {
+                        p.channel.configureBlocking(false);
+                        p.channel.register(selector, SelectionKey.OP_ACCEPT, p.door);
+                    } catch (IOException e)
+                    {
+                        // Closed before it started
+                    }
+                }
+
+                for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext(); )
+                {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    try
+                    {
+                        if (key.isAcceptable()) accept(key);
+                        else if (key.isReadable()) read((Hello) key.attachment(), key);
+                    } catch (CancelledKeyException e)
+                    {
+                        // Its port or connection was closed meanwhile
+                    }
+                }
+
+                if (!greeted.isEmpty())
+                {
+                    // Lets go of their cancelled keys, so they can be made blocking
+                    selector.selectNow();
+                    for (Hello h : greeted)
+                    {
+                        pass(h);
+                    }
+                    greeted.clear();
+                }
+            }
+        } catch (IOException e)
+        {
+            e.printStackTrace();
+        } finally
+        {
+            try
+            {
+                selector.close();
+            } catch (IOException e) {}
+        }
+    }
+
+    /**
+     * Accept every connection waiting on a port, and wait for their first lines
+     * @param key   key of the port's channel
+     */
+    private void accept(SelectionKey key)
+    {
+        Door door                    = (Door) key.attachment();
+        ServerSocketChannel listener = (ServerSocketChannel) key.channel();
+        try
+        {
+            SocketChannel channel;
+            while ((channel = listener.accept()) != null)
+            {
+                final Hello h = new Hello();
+                h.door        = door;
+                h.channel     = channel;
+                channel.configureBlocking(false);
+                channel.register(selector, SelectionKey.OP_READ, h);
+                h.timeout = wheel.schedule(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        expire(h);
+                    }
+                }, Acceptor.HELLO_TIMEOUT);
+            }
+        } catch (IOException e)
+        {
+            // Port closed, or out of file descriptors; try again on the next select
+            if (door.isOpen()) e.printStackTrace();
+            else key.cancel();
+        }
+    }
+
+    /**
+     * Read what has arrived of a connection's first lines, and pass the connection on once they are all there
+     * @param h     connection
+     * @param key   key of the connection's channel
+     */
+    private void read(Hello h, SelectionKey key)
+    {
+        try
+        {
+            while (true)
+            {
+                one.clear();
+                int n = h.channel.read(one);
+                if (n == 0) return;
+                if (n < 0)
+                {
+                    finish(h, key, false);
+                    return;
+                }
+
+                char c = (char) (one.get(0) & 0xff);
+                if (c == '\n')
+                {
+                    h.lines.add(h.line.toString());
+                    h.line.setLength(0);
+                    if (h.lines.size() < h.door.lines()) continue;
+                    finish(h, key, true);
+                    return;
+                }
+                if (c != '\r') h.line.append(c);
+                // Hello lines are short
+                if (h.line.length() > Acceptor.HELLO_LENGTH)
+                {
+                    finish(h, key, false);
+                    return;
+                }
+            }
+        } catch (IOException e)
+        {
+            finish(h, key, false);
+        }
+    }
+
+    /**
+     * Stop waiting for a connection's first lines, and have it passed on after this select, or close it
+     * @param h         connection
+     * @param key       key of the connection's channel
+     * @param complete  whether its lines are all there; false to close the connection
+     */
+    private void finish(Hello h, SelectionKey key, boolean complete)
+    {
+        synchronized (h)
+        {
+            // Timed out meanwhile
+            if (h.done) return;
+            h.done = true;
+        }
+        key.cancel();
+        wheel.cancel(h.timeout);
+        if (complete && h.door.isOpen())
+        {
+            greeted.add(h);
+            return;
+        }
+        try
+        {
+            h.channel.close();
+        } catch (IOException e) {}
+    }
+
+    /**
+     * Pass a connection on as a blocking socket, whose reads can time out without a Selector
+     * @param h connection whose key was let go of
+     */
+    private void pass(Hello h)
+    {
+        try
+        {
+            h.channel.configureBlocking(true);
+            h.door.enter(h.channel.socket(), h.lines.toArray(new String[0]));
+        } catch (IOException | RuntimeException e)
+        {
+            // Includes a Door closed meanwhile
+            try
+            {
+                h.channel.close();
+            } catch (IOException f) {}
+        }
+    }
+
+    /**
+     * Close a connection that didn't send its first lines in time; on the TimerWheel
+     * @param h connection
+     */
+    private void expire(Hello h)
+    {
+        synchronized (h)
+        {
+            if (h.done) return;
+            h.done = true;
+        }
+        try
+        {
+            // Cancels its key; the Selector lets go of it on its next select
+            h.channel.close();
+        } catch (IOException e) {}
+        selector.wakeup();
+    }
+
+    /**
+     * Stop every Thread of the ServerGroup.
+     * Close its Servers first.
+     */
+    public void close()
+    {
+        interrupt();
+        selector.wakeup();
+        if (!ownWheel) return;
+        wheel.interrupt();
+        parameters.shutdown();
+        coordinators.shutdownNow();
+    }
+}
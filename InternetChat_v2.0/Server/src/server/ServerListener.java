@@ -0,0 +1,30 @@
+package server;
+
+/**
+ * Receives events from a Server.
+ * Methods are called on the Server's and Handlers' Threads.
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+
+public interface ServerListener
+{
+    /**
+     * Called for each message relayed to all Clients
+     * @param message   message as sent by the Client (encrypted)
+     */
+    void messageSent(String message);
+
+    /**
+     * Called when a Client's screen name has been accepted
+     * @param name  screen name of the Client
+     */
+    void clientJoined(String name);
+
+    /**
+     * Called when a Client leaves the Server
+     * @param name  screen name of the Client
+     */
+    void clientLeft(String name);
+}
@@ -1,15 +1,221 @@
 package server;
 
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+
 /**
- * Runs the Server
+ * Runs the Server.
+ * With no arguments, opens the ServerUI.
+ * With "--headless [port ...] [--wrap-joins] [--resume-window ms] [--inbox-time ms]
+ * [--rate-limit messages characters action] [--heartbeat idle pong] [--spill-outbound] [--unix path] [--cluster] [--admin port]", opens one Server on the port (default 4000) with no UI,
+ * and logs Clients joining and leaving to standard output.
+ * Given more than one port, opens a Server on each, all set up the same way and running on one ServerGroup,
+ * and logs the port with each Client.
+ * With "--wrap-joins", Clients joining get a key wrapped for them by another Client.
+ * With "--resume-window", Clients whose connection drops can resume for that many milliseconds
+ * (default Server.RESUME_WINDOW; 0 for never).
+ * With "--inbox-time", Clients whose connection drops and who join again within that many milliseconds
+ * are sent the messages they missed (default Server.INBOX_TIME; 0 for never).
+ * With "--rate-limit", each Client can send that many messages and characters per second (0 for no limit),
+ * and messages over the limit are throttled, dropped, or get the Client disconnected
+ * (action "throttle", "drop" or "disconnect").
+ * With "--heartbeat", Clients silent for idle milliseconds are sent PING, and evicted if they don't answer
+ * within pong milliseconds (defaults Server.IDLE_TIME and Server.PONG_TIMEOUT; idle 0 for never).
+ * With "--spill-outbound", frames a slow Client hasn't read yet are kept in a file once there are
+ * too many to keep in memory, rather than being sent again from the Server's FrameLog once it catches up.
+ * With "--unix", the Server takes connections on a Unix domain socket at the path instead of the port
+ * (Java 16 or later).
+ * With "--cluster", each port is instead a node of a cluster in this process, joined by a LoopbackRelay:
+ * Clients name a chat room when they connect to any of them, and each room is placed on one node,
+ * set up with the other options, and logs its name with each Client.
+ * With "--admin", an AdminServer on the port of the loopback interface shows every Server or room as JSON,
+ * and can kick Clients, drain rooms and change their keys.
  *
  * @author Caroline Zeng
  * @version 1.0.0
  */
 public class ServerRunner
 {
-    public static void main(String[] args)
+    /**
+     * Logs Clients joining and leaving a headless Server
+     */
+    private static class ConsoleLog implements ServerListener
     {
-        new ServerUI();
+        /**
+         * Put before each line, to tell the Servers of a ServerGroup apart
+         */
+        String prefix;
+
+        /**
+         * Constructor for ConsoleLog
+         * @param prefix    put before each line
+         */
+        ConsoleLog(String prefix)
+        {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public void messageSent(String message) {}
+
+        @Override
+        public void clientJoined(String name)
+        {
+            System.out.println(prefix + name + " has joined");
+        }
+
+        @Override
+        public void clientLeft(String name)
+        {
+            System.out.println(prefix + name + " has left");
+        }
+    }
+
+    /**
+     * Open a node of a cluster on each port, in this process, each room set up with the same options
+     * @param ports         ports of the nodes
+     * @param wrapJoins     whether Clients joining get a key wrapped for them
+     * @param resumeWindow  milliseconds Clients can resume for
+     * @param inboxTime     milliseconds missed messages are kept for
+     * @param messages      messages each Client can send per second
+     * @param chars         characters each Client can send per second
+     * @param overLimit     what happens to messages over the limit
+     * @param idleTime      milliseconds of silence before a ping
+     * @param pongTimeout   milliseconds to answer a ping
+     * @param spill         whether frames a slow Client hasn't read yet are kept in a file
+     * @param admin         AdminServer to show the rooms of every node, or null
+     * @throws IOException  if a port can't be opened
+     */
+    private static void openCluster(ArrayList<Integer> ports, final boolean wrapJoins, final int resumeWindow,
+                                    final int inboxTime, final double messages, final double chars,
+                                    final String overLimit, final int idleTime, final int pongTimeout,
+                                    final boolean spill, AdminServer admin) throws IOException
+    {
+        LoopbackRelay relay = new LoopbackRelay();
+        HashRing ring       = new HashRing();
+        for (int portNumber : ports)
+        {
+            ring.add(Integer.toString(portNumber));
+        }
+
+        for (int portNumber : ports)
+        {
+            ClusterNode node = new ClusterNode(Integer.toString(portNumber), portNumber, relay, ring);
+            node.setRoomSetup(new ClusterNode.RoomSetup()
+            {
+                @Override
+                public void setUp(String room, Server server)
+                {
+                    server.setWrapJoins(wrapJoins);
+                    server.setResumeWindow(resumeWindow);
+                    server.setInboxTime(inboxTime);
+                    server.setRateLimit(messages, chars, RateLimiter.Action.valueOf(overLimit.toUpperCase()));
+                    server.setHeartbeat(idleTime, pongTimeout);
+                    server.setSpillOutbound(spill);
+                    server.addListener(new ConsoleLog(room + ": "));
+                }
+            });
+            if (admin != null) admin.addNode(node);
+            node.start();
+            System.out.println("Cluster node open on port " + portNumber);
+        }
+    }
+
+    public static void main(String[] args) throws IOException
+    {
+        if (args.length > 0 && args[0].equals("--headless"))
+        {
+            ArrayList<Integer> ports = new ArrayList<>();
+            boolean wrapJoins = false;
+            int resumeWindow  = Server.RESUME_WINDOW;
+            int inboxTime     = Server.INBOX_TIME;
+            double messages   = 0;
+            double chars      = 0;
+            String overLimit  = "throttle";
+            int idleTime      = Server.IDLE_TIME;
+            int pongTimeout   = Server.PONG_TIMEOUT;
+            boolean spill     = false;
+            String unixPath   = null;
+            boolean cluster   = false;
+            int adminPort     = -1;
+            for (int i = 1; i < args.length; i++)
+            {
+                if (args[i].equals("--wrap-joins")) wrapJoins = true;
+                else if (args[i].equals("--resume-window")) resumeWindow = Integer.parseInt(args[++i]);
+                else if (args[i].equals("--spill-outbound")) spill = true;
+                else if (args[i].equals("--unix")) unixPath = args[++i];
+                else if (args[i].equals("--cluster")) cluster = true;
+                else if (args[i].equals("--admin")) adminPort = Integer.parseInt(args[++i]);
+                else if (args[i].equals("--inbox-time")) inboxTime = Integer.parseInt(args[++i]);
+                else if (args[i].equals("--rate-limit"))
+                {
+                    messages  = Double.parseDouble(args[++i]);
+                    chars     = Double.parseDouble(args[++i]);
+                    overLimit = args[++i];
+                } else if (args[i].equals("--heartbeat"))
+                {
+                    idleTime    = Integer.parseInt(args[++i]);
+                    pongTimeout = Integer.parseInt(args[++i]);
+                }
+                else ports.add(Integer.parseInt(args[i]));
+            }
+            if (ports.isEmpty()) ports.add(4000);
+
+            // On its own Threads, so admin requests take none from the Servers
+            AdminServer admin = null;
+            if (adminPort >= 0)
+            {
+                admin = new AdminServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), adminPort));
+                admin.start();
+                System.out.println("Admin open on port " + adminPort);
+            }
+
+            if (cluster)
+            {
+                openCluster(ports, wrapJoins, resumeWindow, inboxTime, messages, chars, overLimit,
+                        idleTime, pongTimeout, spill, admin);
+                return;
+            }
+
+            // Many ports share one set of Threads, which keep running until killed
+            ServerGroup group = unixPath == null && ports.size() > 1 ? new ServerGroup() : null;
+            if (group != null)
+            {
+                group.setDaemon(false);
+                group.start();
+            }
+
+            for (int portNumber : ports)
+            {
+                Server server;
+                if (unixPath != null) server = new Server(new UnixServerSocket(unixPath));
+                else if (group != null) server = group.open(portNumber);
+                else server = new Server(portNumber);
+
+                server.setWrapJoins(wrapJoins);
+                server.setResumeWindow(resumeWindow);
+                server.setInboxTime(inboxTime);
+                server.setRateLimit(messages, chars, RateLimiter.Action.valueOf(overLimit.toUpperCase()));
+                server.setHeartbeat(idleTime, pongTimeout);
+                server.setSpillOutbound(spill);
+                server.addListener(new ConsoleLog(group != null ? portNumber + ": " : ""));
+                if (admin != null) admin.addServer(unixPath != null ? unixPath : Integer.toString(portNumber), server);
+                if (group != null)
+                {
+                    group.serve(server);
+                } else
+                {
+                    server.setDaemon(false);
+                    server.start();
+                }
+                System.out.println(unixPath != null ? "Server open on " + unixPath : "Server open on port " + portNumber);
+                if (unixPath != null) break;
+            }
+        } else
+        {
+            new ServerUI();
+        }
     }
 }
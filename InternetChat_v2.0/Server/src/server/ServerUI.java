@@ -37,16 +37,25 @@ public class ServerUI extends JFrame {
      * Servers hosted on this device using this program
      */
     static ArrayList<ServerViewer> servers = new ArrayList<>();
+    /**
+     * Threads every Server opened here runs on, so opening more ports doesn't start more
+     */
+    static ServerGroup group;
 
     /**
-     * UI for individual Servers opened on ports on this machine
+     * UI for individual Servers opened on ports on this machine.
+     * Shows messages the Server relays.
      */
-    private static class ServerViewer extends JFrame
+    private static class ServerViewer extends JFrame implements ServerListener
     {
         /**
          * Displays messages for associated Server
          */
         JTextArea messageArea = new JTextArea(8, 40);
+        /**
+         * Adds messages to messageArea from the Server's Threads
+         */
+        MessageLog log        = new MessageLog(messageArea);
         /**
          * Closes associated Server
          */
@@ -69,8 +78,9 @@ public class ServerUI extends JFrame {
          * Constructor for ServerViewer
          * @param s             List of ServerViewers that this ServerViewer is contained in
          * @param portNumber    Port the server is connected to
+         * @param group         Threads the server runs on
          */
-        public ServerViewer(int portNumber, ArrayList<ServerViewer> s)
+        public ServerViewer(int portNumber, ArrayList<ServerViewer> s, ServerGroup group)
         {
             this.portNumber = portNumber;
             servers         = s;
@@ -78,8 +88,9 @@ public class ServerUI extends JFrame {
             // Open a connection
             try
             {
-                server = new Server(portNumber, messageArea);
-                server.start();
+                server = group.open(portNumber);
+                server.addListener(this);
+                group.serve(server);
             } catch (IOException e)
             {
                 // If it doesn't work, get rid of this JFrame
@@ -119,11 +130,24 @@ public class ServerUI extends JFrame {
             setVisible(true);
         }
 
+        @Override
+        public void messageSent(String message)
+        {
+            log.append(message);
+        }
+
+        @Override
+        public void clientJoined(String name) {}
+
+        @Override
+        public void clientLeft(String name) {}
+
         /**
          * Close this ServerViewer and associated server
          */
         public void quit()
         {
+            log.stop();
             try
             {
                 server.close();
@@ -136,8 +160,11 @@ public class ServerUI extends JFrame {
     /**
      * Constructor for ServerUI
      */
-    public ServerUI()
+    public ServerUI() throws IOException
     {
+        group = new ServerGroup();
+        group.start();
+
         JPanel p = new JPanel();
         p.setLayout(new BoxLayout(p, BoxLayout.X_AXIS));
         p.add(portLabel);
@@ -159,7 +186,7 @@ public class ServerUI extends JFrame {
 
                 if (availablePort)
                 {
-                    ServerViewer s = new ServerViewer(portNumber, servers);
+                    ServerViewer s = new ServerViewer(portNumber, servers, group);
                     servers.add(s);
                 }
             }
@@ -0,0 +1,233 @@
+package server;
+
+/**
+ * Runs tasks after a delay, for any number of tasks, on one Thread.
+ * Tasks are kept in a ring of slots, one slot per tick, and each tick only looks at its own slot,
+ * so scheduling and cancelling take constant time however many tasks there are.
+ * Tasks more than one turn of the ring away wait in their slot for the turns left.
+ * Tasks run on the TimerWheel's Thread, so should be quick.
+ * Ticks keep to a Clock, so a simulation can run tasks in virtual time; with no tasks, it doesn't tick.
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+
+public class TimerWheel extends Thread
+{
+    /**
+     * Milliseconds per tick by default
+     */
+    public static final int TICK = 100;
+    /**
+     * Number of slots by default
+     */
+    public static final int SLOTS = 512;
+
+    /**
+     * A task waiting in a slot
+     */
+    public static class Timeout
+    {
+        /**
+         * Task to run
+         */
+        Runnable task;
+        /**
+         * Turns of the ring left before it runs
+         */
+        long rounds;
+        /**
+         * Slot it is in
+         */
+        int slot;
+        /**
+         * Neighbours in its slot's list
+         */
+        Timeout prev, next;
+        /**
+         * Whether it was cancelled or has run
+         */
+        boolean done = false;
+    }
+
+    /**
+     * First Timeout in each slot
+     */
+    Timeout[] slots;
+    /**
+     * Number of tasks waiting in slots
+     */
+    int pending = 0;
+    /**
+     * Milliseconds per tick
+     */
+    int tick;
+    /**
+     * Where the time comes from
+     */
+    Clock clock;
+    /**
+     * Number of the next tick
+     */
+    long ticks = 0;
+    /**
+     * Time in nanoseconds of tick 0; tick k is run once tick k + 1 starts
+     */
+    long start;
+
+    /**
+     * Constructor for TimerWheel on the wall clock, with default tick and slots
+     * @param name  name of the Thread
+     */
+    public TimerWheel(String name)
+    {
+        this(name, Clock.SYSTEM);
+    }
+
+    /**
+     * Constructor for TimerWheel with default tick and slots
+     * @param name  name of the Thread
+     * @param clock where the time comes from
+     */
+    public TimerWheel(String name, Clock clock)
+    {
+        this(name, TICK, SLOTS, clock);
+    }
+
+    /**
+     * Constructor for TimerWheel
+     * @param name  name of the Thread
+     * @param tick  milliseconds per tick
+     * @param slots number of slots
+     * @param clock where the time comes from
+     */
+    public TimerWheel(String name, int tick, int slots, Clock clock)
+    {
+        this.tick  = tick;
+        this.slots = new Timeout[slots];
+        this.clock = clock;
+        this.start = clock.nanoTime();
+        this.setName(name);
+        this.setDaemon(true);
+    }
+
+    /**
+     * Run a task after a delay.
+     * It runs on the tick after the delay is over, so up to one tick late.
+     * @param task  task to run
+     * @param delay milliseconds to wait
+     * @return      Timeout that can be cancelled
+     */
+    public synchronized Timeout schedule(Runnable task, long delay)
+    {
+        // First tick run after the delay is over, by the clock, in case ticks are behind
+        long nanos = tick * 1000000L;
+        long now   = clock.nanoTime() - start;
+        long due   = (now + Math.max(0, delay) * 1000000L + nanos - 1) / nanos - 1;
+        // Not ticking while idle; start again from the current tick
+        if (pending == 0) ticks = Math.max(ticks, now / nanos);
+        long wait  = Math.max(0, due - ticks);
+
+        Timeout t = new Timeout();
+        t.task    = task;
+        t.rounds  = wait / slots.length;
+        t.slot    = (int) ((ticks + wait) % slots.length);
+
+        t.next = slots[t.slot];
+        if (t.next != null) t.next.prev = t;
+        slots[t.slot] = t;
+        if (pending++ == 0) notifyAll();
+        return t;
+    }
+
+    /**
+     * Stop a task from running, if it has not run yet
+     * @param t Timeout returned by schedule
+     */
+    public synchronized void cancel(Timeout t)
+    {
+        if (t.done) return;
+        t.done = true;
+        unlink(t);
+    }
+
+    /**
+     * Take a Timeout out of its slot
+     * @param t Timeout to take out
+     */
+    private void unlink(Timeout t)
+    {
+        if (t.prev != null) t.prev.next = t.next;
+        else slots[t.slot] = t.next;
+        if (t.next != null) t.next.prev = t.prev;
+        t.prev = null;
+        t.next = null;
+        pending--;
+    }
+
+    /**
+     * Take the Timeouts due this tick out of its slot, and count down the others
+     * @return  first of the Timeouts due, linked by next
+     */
+    private synchronized Timeout advance()
+    {
+        int slot    = (int) (ticks++ % slots.length);
+        Timeout due = null;
+        Timeout t   = slots[slot];
+        while (t != null)
+        {
+            Timeout next = t.next;
+            if (t.rounds == 0)
+            {
+                unlink(t);
+                t.done = true;
+                t.next = due;
+                due    = t;
+            } else
+            {
+                t.rounds--;
+            }
+            t = next;
+        }
+        return due;
+    }
+
+    /**
+     * Tick until interrupted, running tasks that are due; with no tasks, wait for one instead
+     */
+    @Override
+    public void run()
+    {
+        try
+        {
+            while (true)
+            {
+                long wait;
+                synchronized (this)
+                {
+                    while (pending == 0)
+                    {
+                        wait();
+                    }
+                    // Ticks keep to the clock even if tasks take a while
+                    wait = start + (ticks + 1) * tick * 1000000L - clock.nanoTime();
+                }
+                if (wait > 0) clock.sleep((wait + 999999) / 1000000);
+
+                for (Timeout t = advance(); t != null; t = t.next)
+                {
+                    try
+                    {
+                        t.task.run();
+                    } catch (RuntimeException e)
+                    {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        } catch (InterruptedException e)
+        {
+            // Server closed
+        }
+    }
+}
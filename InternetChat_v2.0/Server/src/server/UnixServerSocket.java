@@ -0,0 +1,94 @@
+package server;
+
+import java.io.IOException;
+import java.net.ProtocolFamily;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Accepts connections on a Unix domain socket, for Clients, bots and bridges on the same machine,
+ * which then skip the TCP stack. Connections are ChannelSockets.
+ * Needs Java 16 or later at run time.
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+
+public class UnixServerSocket extends ServerSocket
+{
+    /**
+     * Channel accepting connections
+     */
+    ServerSocketChannel channel;
+    /**
+     * Path of the socket file; deleted when closed
+     */
+    Path path;
+
+    /**
+     * Constructor for UnixServerSocket.
+     * Fails if the socket file already exists.
+     * @param path  path of the socket file
+     * @throws IOException
+     */
+    public UnixServerSocket(String path) throws IOException
+    {
+        this.path = Paths.get(path);
+        try
+        {
+            // Only opened by family from Java 15, and the project builds for Java 11
+            channel = (ServerSocketChannel) ServerSocketChannel.class.getMethod("open", ProtocolFamily.class)
+                    .invoke(null, ChannelSocket.unixFamily());
+        } catch (ReflectiveOperationException e)
+        {
+            throw new IOException("Unix domain sockets need Java 16 or later", e);
+        }
+        channel.bind(ChannelSocket.unixAddress(path));
+    }
+
+    /**
+     * Wait for a connection
+     * @return  ChannelSocket for the connection
+     * @throws IOException  SocketException if the UnixServerSocket was closed
+     */
+    @Override
+    public Socket accept() throws IOException
+    {
+        try
+        {
+            return new ChannelSocket(channel.accept());
+        } catch (ClosedChannelException e)
+        {
+            throw new SocketException("Socket is closed");
+        }
+    }
+
+    @Override
+    public boolean isClosed()
+    {
+        return !channel.isOpen();
+    }
+
+    /**
+     * Stop accepting connections and delete the socket file
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+        Files.deleteIfExists(path);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "UnixServerSocket[" + path + "]";
+    }
+}
@@ -0,0 +1,493 @@
+package sim;
+
+import client.Transport;
+import server.ServerKeyExchange;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Network between a Server and its Clients in a simulation, with latency, drops and stalls decided by a seed.
+ * The Server accepts connections from it as a ServerSocket, and Clients connect through it as a Transport.
+ * Each direction of each connection has its own Random, so what happens to a line depends only on the seed
+ * and how many lines went that way before it.
+ * Also measures each key change: how long it takes in virtual time, and what it sends.
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+
+public class SimNetwork extends ServerSocket implements Transport
+{
+    /**
+     * Direction from a Client to the server
+     */
+    public static final int UP = 0;
+    /**
+     * Direction from the server to a Client
+     */
+    public static final int DOWN = 1;
+
+    /**
+     * One connection
+     */
+    class Link
+    {
+        /**
+         * Number of the connection, in the order they were opened
+         */
+        int id;
+        /**
+         * Client's end
+         */
+        SimSocket client;
+        /**
+         * Server's end
+         */
+        SimSocket server;
+        /**
+         * Decides latency, drops and stalls in each direction
+         */
+        Random[] random = new Random[2];
+        /**
+         * Virtual time the last line in each direction is delivered; later lines can't arrive before it
+         */
+        long[] last = new long[2];
+        /**
+         * Whether the connection is being dropped; nothing more is delivered
+         */
+        boolean dropped = false;
+        /**
+         * Whether the Client opened the connection for key exchange
+         */
+        boolean exchange = false;
+        /**
+         * Whether any line has gone up yet
+         */
+        boolean greeted = false;
+
+        /**
+         * Constructor for Link
+         * @param id    number of the connection
+         */
+        Link(int id)
+        {
+            this.id   = id;
+            client    = new SimSocket(this, UP, clock);
+            server    = new SimSocket(this, DOWN, clock);
+            random[0] = new Random(seed * 31 + id * 2L);
+            random[1] = new Random(seed * 31 + id * 2L + 1);
+        }
+
+        /**
+         * Stream of events going one way
+         * @param direction UP or DOWN
+         * @return          stream for the VirtualClock
+         */
+        long stream(int direction)
+        {
+            return id * 4L + direction;
+        }
+
+        /**
+         * Stream of read timeouts at one end
+         * @param direction direction of what the end writes
+         * @return          stream for the VirtualClock
+         */
+        long timeouts(int direction)
+        {
+            return id * 4L + 2 + direction;
+        }
+
+        /**
+         * End a line going one way is delivered to
+         * @param direction UP or DOWN
+         * @return          reading end
+         */
+        SimSocket to(int direction)
+        {
+            return direction == UP ? server : client;
+        }
+
+        /**
+         * Virtual time something sent now arrives, after latency and maybe a stall
+         * @param direction UP or DOWN
+         * @return          virtual time of delivery
+         */
+        long arrival(int direction)
+        {
+            Random r = random[direction];
+            long t   = clock.now() + latency + r.nextInt(jitter + 1);
+            if (r.nextDouble() < stallRate) t += stallTime;
+            t = Math.max(t, last[direction]);
+            last[direction] = t;
+            return t;
+        }
+
+        /**
+         * Send a line to the other end
+         * @param direction UP or DOWN
+         * @param line      bytes of the line
+         */
+        synchronized void send(final int direction, final byte[] line)
+        {
+            if (dropped) return;
+            String kind       = kind(line);
+            final Rekey rekey = count(this, direction, kind, line.length);
+
+            long t = arrival(direction);
+            if (random[direction].nextDouble() < dropRate)
+            {
+                drop(t, direction);
+                return;
+            }
+            final SimSocket s = to(direction);
+            clock.schedule(t, stream(direction), kind, new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    if (dropped) return;
+                    s.deliver(line);
+                    if (rekey != null) delivered(rekey, line);
+                }
+            });
+        }
+
+        /**
+         * Tell the other end this end closed, after everything it wrote
+         * @param direction UP or DOWN
+         */
+        synchronized void close(int direction)
+        {
+            if (dropped) return;
+            final SimSocket s = to(direction);
+            clock.schedule(arrival(direction), stream(direction), "FIN", new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    if (!dropped) s.deliverEof();
+                }
+            });
+        }
+
+        /**
+         * Drop the connection; each end finds out at the time, one after the other
+         * @param time      virtual time it drops
+         * @param direction direction of the line that was lost
+         */
+        void drop(long time, int direction)
+        {
+            final SimSocket first  = to(direction);
+            final SimSocket second = to(1 - direction);
+            clock.schedule(time, stream(direction), "RESET", new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    dropped = true;
+                    drops++;
+                    first.deliverReset();
+                }
+            });
+            clock.schedule(time, stream(direction), "RESET", new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    second.deliverReset();
+                }
+            });
+        }
+    }
+
+    /**
+     * One key change, from the server signalling it until the last Client is told the new epoch
+     */
+    public static class Rekey
+    {
+        /**
+         * Virtual time the server signalled the key change
+         */
+        long start;
+        /**
+         * Virtual time the last Client was told the new epoch
+         */
+        long end = -1;
+        /**
+         * Whether the server has sent the new epoch
+         */
+        boolean announced = false;
+        /**
+         * Epoch of the new key
+         */
+        int epoch;
+        /**
+         * Clients told the new epoch
+         */
+        int participants;
+        /**
+         * Connections opened for key exchange
+         */
+        int connections;
+        /**
+         * Lines sent over them, both ways
+         */
+        long lines;
+        /**
+         * Bytes sent over them, both ways
+         */
+        long bytes;
+    }
+
+    /**
+     * Clock delivering everything
+     */
+    VirtualClock clock;
+    /**
+     * Seed of every Random
+     */
+    long seed;
+    /**
+     * Least virtual milliseconds a line takes
+     */
+    int latency;
+    /**
+     * Most virtual milliseconds a line takes on top of latency
+     */
+    int jitter;
+    /**
+     * Chance of a line dropping its connection
+     */
+    double dropRate;
+    /**
+     * Chance of a line stalling its connection
+     */
+    double stallRate;
+    /**
+     * Virtual milliseconds a stall holds up a connection
+     */
+    int stallTime;
+
+    /**
+     * Number of connections opened; guarded by this SimNetwork
+     */
+    int links = 0;
+    /**
+     * Server's ends of connections not yet accepted
+     */
+    LinkedBlockingQueue<Socket> pending = new LinkedBlockingQueue<>();
+    /**
+     * Put in the queue when closed, so accept() stops waiting
+     */
+    private final Socket closedMarker = new Socket();
+    /**
+     * Whether the server stopped accepting connections
+     */
+    volatile boolean closed = false;
+
+    /**
+     * Key changes so far; guarded by this SimNetwork
+     */
+    ArrayList<Rekey> rekeys = new ArrayList<>();
+    /**
+     * Lines sent, both ways; guarded by this SimNetwork
+     */
+    long lines = 0;
+    /**
+     * Bytes sent, both ways; guarded by this SimNetwork
+     */
+    long bytes = 0;
+    /**
+     * Connections dropped
+     */
+    int drops = 0;
+
+    /**
+     * Constructor for SimNetwork
+     * @param clock     clock delivering everything
+     * @param seed      seed of every Random
+     * @param latency   least virtual milliseconds a line takes
+     * @param jitter    most virtual milliseconds a line takes on top of latency
+     * @param dropRate  chance of a line dropping its connection
+     * @param stallRate chance of a line stalling its connection
+     * @param stallTime virtual milliseconds a stall holds up a connection
+     * @throws IOException
+     */
+    public SimNetwork(VirtualClock clock, long seed, int latency, int jitter,
+                      double dropRate, double stallRate, int stallTime) throws IOException
+    {
+        super();
+        this.clock     = clock;
+        this.seed      = seed;
+        this.latency   = latency;
+        this.jitter    = jitter;
+        this.dropRate  = dropRate;
+        this.stallRate = stallRate;
+        this.stallTime = stallTime;
+    }
+
+    /**
+     * Open a connection to the server; it is accepted after the latency
+     * @param timeout   ignored; connecting never fails while the server is open
+     * @return          Client's end
+     * @throws IOException  ConnectException if the server is closed
+     */
+    @Override
+    public Socket connect(int timeout) throws IOException
+    {
+        if (closed) throw new ConnectException("Connection refused");
+        final Link l;
+        synchronized (this)
+        {
+            l = new Link(++links);
+        }
+        clock.touch();
+        synchronized (l)
+        {
+            clock.schedule(l.arrival(UP), l.stream(UP), "SYN", new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    pending.add(l.server);
+                }
+            });
+        }
+        return l.client;
+    }
+
+    /**
+     * Wait for a connection
+     * @return  server's end
+     * @throws IOException  SocketException if closed
+     */
+    @Override
+    public Socket accept() throws IOException
+    {
+        try
+        {
+            Socket s = pending.take();
+            if (s == closedMarker)
+            {
+                pending.add(s);
+                throw new SocketException("Socket is closed");
+            }
+            clock.touch();
+            return s;
+        } catch (InterruptedException e)
+        {
+            throw new SocketException("Interrupted");
+        }
+    }
+
+    @Override
+    public boolean isClosed()
+    {
+        return closed;
+    }
+
+    /**
+     * Stop accepting connections
+     */
+    @Override
+    public void close()
+    {
+        closed = true;
+        pending.add(closedMarker);
+    }
+
+    /**
+     * What a line is, for the trace: its first word, or # if that is a number, as in frames and exchange values
+     * @param line  bytes of the line
+     * @return      kind of line
+     */
+    static String kind(byte[] line)
+    {
+        int n = 0;
+        while (n < line.length && n < 16 && line[n] != ' ' && line[n] != '\n' && line[n] != '\r') n++;
+        if (n == 0) return "";
+        if (line[0] == '-' || (line[0] >= '0' && line[0] <= '9')) return "#";
+        return new String(line, 0, n, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Count a line sent, towards the key change if it is part of one
+     * @param l         connection
+     * @param direction UP or DOWN
+     * @param kind      kind of line
+     * @param length    bytes of the line
+     * @return          key change the line announces the epoch of, or null if it doesn't
+     */
+    synchronized Rekey count(Link l, int direction, String kind, int length)
+    {
+        lines++;
+        bytes += length;
+
+        if (direction == UP && !l.greeted)
+        {
+            l.greeted  = true;
+            l.exchange = kind.equals(ServerKeyExchange.EXCHANGE);
+            if (l.exchange && current() != null) current().connections++;
+        }
+        if (direction == DOWN && (kind.equals(ServerKeyExchange.KEY) || kind.equals(ServerKeyExchange.PAIR)))
+        {
+            // A signal after the last key change was announced starts the next; before, it is a retry
+            if (rekeys.isEmpty() || rekeys.get(rekeys.size() - 1).announced)
+            {
+                Rekey r = new Rekey();
+                r.start = clock.now();
+                rekeys.add(r);
+            }
+        }
+        Rekey announces = null;
+        if (direction == DOWN && kind.equals(ServerKeyExchange.EPOCH) && !rekeys.isEmpty())
+        {
+            // Every Client is told the epoch before the next key change is signalled
+            announces           = rekeys.get(rekeys.size() - 1);
+            announces.announced = true;
+        }
+        if (l.exchange && current() != null)
+        {
+            current().lines++;
+            current().bytes += length;
+        }
+        return announces;
+    }
+
+    /**
+     * Note a new epoch delivered; the last one delivered ends the key change
+     * @param r     key change the line announces the epoch of
+     * @param line  bytes of the line
+     */
+    synchronized void delivered(Rekey r, byte[] line)
+    {
+        r.end   = clock.now();
+        r.epoch = Integer.parseInt(new String(line, StandardCharsets.UTF_8).trim().split(" ")[1]);
+        r.participants++;
+    }
+
+    /**
+     * Key change under way
+     * @return  the last Rekey, or null if its epoch has been sent or there hasn't been one
+     */
+    private Rekey current()
+    {
+        Rekey r = rekeys.isEmpty() ? null : rekeys.get(rekeys.size() - 1);
+        return r != null && !r.announced ? r : null;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "simulated network";
+    }
+}
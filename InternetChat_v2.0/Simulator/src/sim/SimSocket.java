@@ -0,0 +1,348 @@
+package sim;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+
+/**
+ * One end of a connection through a SimNetwork.
+ * What is written is cut into lines, and each line is delivered to the other end by an event on the VirtualClock,
+ * so it arrives after the latency of the connection however the Threads are scheduled.
+ * Writes never wait. Supports streams, read timeouts in virtual time, and closing; TCP options are ignored.
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+
+public class SimSocket extends Socket
+{
+    /**
+     * Connection this is one end of
+     */
+    SimNetwork.Link link;
+    /**
+     * Direction of what this end writes: SimNetwork.UP from a Client, SimNetwork.DOWN from the server
+     */
+    int direction;
+    /**
+     * Clock delivering to this end
+     */
+    VirtualClock clock;
+
+    /**
+     * Bytes delivered and not yet read, starting at head; guarded by this SimSocket
+     */
+    byte[] buffer = new byte[1024];
+    /**
+     * Index of the first byte not yet read
+     */
+    int head = 0;
+    /**
+     * Number of bytes not yet read
+     */
+    int count = 0;
+    /**
+     * Whether the other end closed, and everything it wrote has been delivered
+     */
+    boolean eof = false;
+    /**
+     * Whether the connection was dropped
+     */
+    volatile boolean reset = false;
+    /**
+     * Whether this end is closed
+     */
+    volatile boolean closed = false;
+    /**
+     * Threads waiting to read
+     */
+    int waiting = 0;
+    /**
+     * Whether a delivery woke the Threads waiting, and they haven't run yet
+     */
+    boolean woken = false;
+    /**
+     * Whether the read waiting timed out
+     */
+    boolean expired = false;
+    /**
+     * Bytes written since the last full line; guarded by out
+     */
+    ByteArrayOutputStream partial = new ByteArrayOutputStream();
+    /**
+     * Virtual milliseconds a read waits before timing out; 0 to wait forever
+     */
+    volatile int timeout = 0;
+
+    /**
+     * Reads what was delivered
+     */
+    InputStream in;
+    /**
+     * Sends lines to the other end
+     */
+    OutputStream out;
+
+    /**
+     * Constructor for SimSocket
+     * @param link      connection this is one end of
+     * @param direction direction of what this end writes
+     * @param clock     clock delivering to this end
+     */
+    SimSocket(SimNetwork.Link link, int direction, VirtualClock clock)
+    {
+        this.link      = link;
+        this.direction = direction;
+        this.clock     = clock;
+
+        in = new InputStream()
+        {
+            @Override
+            public int read() throws IOException
+            {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException
+            {
+                if (len == 0) return 0;
+                return take(b, off, len);
+            }
+        };
+
+        out = new OutputStream()
+        {
+            @Override
+            public void write(int b) throws IOException
+            {
+                write(new byte[] {(byte) b}, 0, 1);
+            }
+
+            @Override
+            public synchronized void write(byte[] b, int off, int len) throws IOException
+            {
+                if (closed) throw new SocketException("Socket is closed");
+                if (reset) throw new SocketException("Connection reset");
+                synchronized (SimSocket.this)
+                {
+                    if (eof) throw new SocketException("Broken pipe");
+                }
+                clock.touch();
+
+                // Each full line goes on its own, so how writes are split doesn't change what is delivered when
+                int start = off;
+                for (int i = off; i < off + len; i++)
+                {
+                    if (b[i] != '\n') continue;
+                    partial.write(b, start, i + 1 - start);
+                    link.send(direction, partial.toByteArray());
+                    partial.reset();
+                    start = i + 1;
+                }
+                partial.write(b, start, off + len - start);
+            }
+        };
+    }
+
+    /**
+     * Read bytes, waiting until some are delivered
+     * @param b     array to read into
+     * @param off   index to start at
+     * @param len   most bytes to read
+     * @return      number of bytes read, or -1 at the end of the stream
+     * @throws IOException
+     */
+    private synchronized int take(byte[] b, int off, int len) throws IOException
+    {
+        VirtualClock.Event timer = null;
+        try
+        {
+            while (count == 0 && !eof && !reset && !closed)
+            {
+                if (expired) throw new SocketTimeoutException("Read timed out");
+                if (timeout > 0 && timer == null)
+                {
+                    timer = clock.schedule(clock.now() + timeout, link.timeouts(direction), "TIMEOUT", new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            expire();
+                        }
+                    });
+                }
+
+                waiting++;
+                try
+                {
+                    wait();
+                } catch (InterruptedException e)
+                {
+                    throw new SocketException("Interrupted");
+                } finally
+                {
+                    waiting--;
+                    if (woken)
+                    {
+                        woken = false;
+                        clock.waking.decrementAndGet();
+                    }
+                }
+            }
+        } finally
+        {
+            if (timer != null) clock.cancel(timer);
+            expired = false;
+        }
+        if (closed) throw new SocketException("Socket is closed");
+        if (reset) throw new SocketException("Connection reset");
+        if (count == 0) return -1;
+
+        int n = Math.min(len, count);
+        System.arraycopy(buffer, head, b, off, n);
+        head  += n;
+        count -= n;
+        clock.touch();
+        return n;
+    }
+
+    /**
+     * Wake the Threads waiting to read, counting them as about to run until they do
+     */
+    private void wake()
+    {
+        if (waiting > 0 && !woken)
+        {
+            woken = true;
+            clock.waking.incrementAndGet();
+        }
+        notifyAll();
+    }
+
+    /**
+     * Time out the read waiting
+     */
+    synchronized void expire()
+    {
+        expired = true;
+        wake();
+    }
+
+    /**
+     * Deliver a line from the other end
+     * @param line  bytes of the line
+     */
+    synchronized void deliver(byte[] line)
+    {
+        if (closed) return;
+        if (head > 0)
+        {
+            System.arraycopy(buffer, head, buffer, 0, count);
+            head = 0;
+        }
+        if (count + line.length > buffer.length) buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, count + line.length));
+        System.arraycopy(line, 0, buffer, count, line.length);
+        count += line.length;
+        wake();
+    }
+
+    /**
+     * Deliver the other end closing, after everything it wrote
+     */
+    synchronized void deliverEof()
+    {
+        eof = true;
+        wake();
+    }
+
+    /**
+     * Deliver the connection being dropped; whatever wasn't read is lost
+     */
+    synchronized void deliverReset()
+    {
+        reset = true;
+        count = 0;
+        wake();
+    }
+
+    @Override
+    public InputStream getInputStream()
+    {
+        return in;
+    }
+
+    @Override
+    public OutputStream getOutputStream()
+    {
+        return out;
+    }
+
+    @Override
+    public void setSoTimeout(int timeout)
+    {
+        this.timeout = timeout;
+    }
+
+    @Override
+    public int getSoTimeout()
+    {
+        return timeout;
+    }
+
+    @Override
+    public void setSendBufferSize(int size) {}
+
+    @Override
+    public void setTcpNoDelay(boolean on) {}
+
+    @Override
+    public void setKeepAlive(boolean on) {}
+
+    @Override
+    public boolean isConnected()
+    {
+        return true;
+    }
+
+    @Override
+    public boolean isClosed()
+    {
+        return closed;
+    }
+
+    /**
+     * Close this end; the other end gets the rest of what was written, then the end of the stream
+     */
+    @Override
+    public void close()
+    {
+        synchronized (out)
+        {
+            if (closed) return;
+            closed = true;
+            if (!reset)
+            {
+                if (partial.size() > 0) link.send(direction, partial.toByteArray());
+                link.close(direction);
+            }
+        }
+        synchronized (this)
+        {
+            notifyAll();
+        }
+        clock.touch();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "SimSocket[" + link.id + (direction == SimNetwork.UP ? " client]" : " server]");
+    }
+}
@@ -0,0 +1,204 @@
+package sim;
+
+import client.Client;
+import client.ClientListener;
+import client.Message;
+import client.Sender;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * One user in a simulation.
+ * Once in the chat, sends its messages at virtual times chosen by its own Random,
+ * and records the virtual latency of every message it receives.
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+
+public class SimUser implements ClientListener
+{
+    /**
+     * Marks messages sent in a simulation; followed by the virtual send time in milliseconds
+     */
+    static final String MARK = "sim ";
+
+    /**
+     * Simulation the user is in
+     */
+    Simulator simulator;
+    /**
+     * Number of the user
+     */
+    int index;
+    /**
+     * Screen name asked for
+     */
+    String name;
+    /**
+     * Headless Client of this user
+     */
+    Client client;
+    /**
+     * Decides when messages are sent
+     */
+    Random random;
+    /**
+     * Whether the Client is in the chat
+     */
+    volatile boolean connected;
+    /**
+     * Whether the Client was ever in the chat
+     */
+    volatile boolean joined;
+    /**
+     * Why the Client couldn't connect or was last disconnected, if it isn't back in the chat since
+     */
+    volatile String failure;
+
+    /**
+     * Virtual latencies in milliseconds of messages received.
+     * Only written by the Client's Thread.
+     */
+    long[] latencies = new long[64];
+    /**
+     * Number of latencies recorded
+     */
+    int received;
+    /**
+     * Number of messages received that could not be read
+     */
+    int unreadable;
+    /**
+     * Number of messages sent
+     */
+    int sent;
+    /**
+     * Number of messages not yet due; whether they were sent or not, once they are due
+     */
+    volatile int unsent;
+
+    /**
+     * Constructor for SimUser
+     * @param simulator simulation the user is in
+     * @param index     number of the user
+     */
+    public SimUser(Simulator simulator, int index)
+    {
+        this.simulator = simulator;
+        this.index     = index;
+        this.name      = "user" + index;
+        this.random    = new Random(simulator.seed * 31 + ~index);
+        this.unsent    = simulator.messages;
+        client         = new Client(simulator.network, this);
+        client.setDaemon(true);
+        client.setRandom(new Random(simulator.seed * 41 + index));
+    }
+
+    /**
+     * Stream of this user's events on the VirtualClock; apart from those of every connection
+     * @return  stream number
+     */
+    long stream()
+    {
+        return -1 - index;
+    }
+
+    /**
+     * Send a message stamped with the virtual time
+     */
+    void send()
+    {
+        unsent--;
+        if (connected)
+        {
+            client.sendMessage(MARK + simulator.clock.now());
+            sent++;
+        }
+        simulator.check();
+    }
+
+    /**
+     * Whether the user has nothing left to do: it got into the chat and every message is due,
+     * or it failed to get in
+     * @return  true if it is done
+     */
+    boolean done()
+    {
+        return joined ? unsent == 0 : failure != null;
+    }
+
+    @Override
+    public String chooseName(String rejected)
+    {
+        return rejected == null ? name : rejected + "_";
+    }
+
+    @Override
+    public void connected(String name)
+    {
+        connected = true;
+        failure   = null;
+        // Joined again after losing the connection; its messages are already scheduled
+        if (joined) return;
+        joined = true;
+
+        // Messages go at random virtual times over the duration after joining
+        long now = simulator.clock.now();
+        for (int i = 0; i < simulator.messages; i++)
+        {
+            simulator.clock.schedule(now + random.nextInt(simulator.duration), stream(), "SEND", new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    send();
+                }
+            });
+        }
+        simulator.check();
+    }
+
+    @Override
+    public void messageReceived(Message m)
+    {
+        long now = simulator.clock.now();
+        // Decrypted messages are padded with spaces to a multiple of 3 characters
+        String message = m.getText().trim();
+        int i          = message.indexOf(": " + MARK);
+
+        if (i < 0)
+        {
+            // Join and leave messages are not simulated messages
+            if (!message.endsWith(" has joined") && !message.endsWith(" has left the chat")) unreadable++;
+            return;
+        }
+        try
+        {
+            long time = Long.parseLong(message.substring(i + 2 + MARK.length()));
+            if (received == latencies.length) latencies = Arrays.copyOf(latencies, received * 2);
+            latencies[received++] = now - time;
+        } catch (NumberFormatException e)
+        {
+            unreadable++;
+        }
+    }
+
+    @Override
+    public void messageStatus(long number, Sender.Status status) {}
+
+    @Override
+    public void disconnected(String reason)
+    {
+        connected = false;
+        failure   = reason;
+    }
+
+    @Override
+    public void connectionFailed(String reason)
+    {
+        failure = reason;
+        simulator.check();
+    }
+}
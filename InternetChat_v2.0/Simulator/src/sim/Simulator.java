@@ -0,0 +1,250 @@
+package sim;
+
+import server.KeyParameterPool;
+import server.Server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Runs a Server and many headless Clients in one process over a SimNetwork, in virtual time.
+ * Latency, drops and stalls come from the seed, and events run one at a time once every Thread has settled,
+ * so a run can be repeated with the same seed to get the same interleaving, and its trace checksum compared.
+ * Reports how long each key change took in virtual time and how much it sent, and the virtual latency of messages.
+ *
+ * The Server's key exchange deadlines and every read timeout run in virtual time, so stalls and drops get
+ * Clients evicted just as they would over a real network, and so does the heartbeat. Clients kept quiet by the
+ * heartbeat never run out of things to do, so with it on the run stops once every user has sent its messages
+ * or failed to get into the chat, and every user has been checked by the heartbeat once more.
+ * Key material comes from Randoms seeded from the seed too, so a run sends the same bytes every time.
+ *
+ * Arguments (all optional):
+ *   --seed number      seed of every Random (default 1)
+ *   --clients number   users (default 100)
+ *   --spacing ms       virtual time between users joining (default 0, all at once)
+ *   --messages number  messages sent by each user once in the chat (default 5)
+ *   --duration ms      virtual time over which each user sends them (default 10000)
+ *   --latency ms       least virtual time a line takes (default 20)
+ *   --jitter ms        most virtual time a line takes on top of that (default 10)
+ *   --drop p           chance of a line dropping its connection (default 0)
+ *   --stall p ms       chance of a line stalling its connection, and for how long (default 0)
+ *   --wrap-joins       have the Server wrap keys for joining users
+ *   --heartbeat idle pong  virtual ms a user can be silent before it is sent PING, and has to answer it
+ *                      (default Server.IDLE_TIME and Server.PONG_TIMEOUT; 0 0 for no heartbeat)
+ *   --until ms         virtual time to stop at (default when nothing is left to happen, or with the heartbeat, as above)
+ *   --settle us        wall clock microseconds every Thread must be idle before the next event
+ *                      (default VirtualClock.SETTLE); lower is quicker, but may let runs differ on a busy machine
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+
+public class Simulator implements Runnable
+{
+    long seed        = 1;
+    int clients      = 100;
+    int spacing      = 0;
+    int messages     = 5;
+    int duration     = 10000;
+    int latency      = 20;
+    int jitter       = 10;
+    double dropRate  = 0;
+    double stallRate = 0;
+    int stallTime    = 0;
+    boolean wrap     = false;
+    int idleTime     = Server.IDLE_TIME;
+    int pongTimeout  = Server.PONG_TIMEOUT;
+    long until       = Long.MAX_VALUE;
+    int settle       = VirtualClock.SETTLE;
+
+    /**
+     * Threads of the simulation
+     */
+    ThreadGroup group = new ThreadGroup("Simulation");
+    /**
+     * Virtual time; made once the settings are read
+     */
+    VirtualClock clock;
+    /**
+     * Network between the Server and users
+     */
+    SimNetwork network;
+    /**
+     * Users, in the order they join
+     */
+    ArrayList<SimUser> users = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception
+    {
+        Simulator s = new Simulator();
+        s.parse(args);
+
+        // Everything the simulation starts is in its ThreadGroup, so the VirtualClock can tell when it has settled
+        Thread t = new Thread(s.group, s, "Simulator");
+        t.start();
+        t.join();
+        System.exit(0);
+    }
+
+    /**
+     * Read settings from command line arguments
+     * @param args  command line arguments
+     */
+    void parse(String[] args)
+    {
+        for (int i = 0; i < args.length; i++)
+        {
+            switch (args[i])
+            {
+                case "--seed":     seed     = Long.parseLong(args[++i]);     break;
+                case "--clients":  clients  = Integer.parseInt(args[++i]);   break;
+                case "--spacing":  spacing  = Integer.parseInt(args[++i]);   break;
+                case "--messages": messages = Integer.parseInt(args[++i]);   break;
+                case "--duration": duration = Integer.parseInt(args[++i]);   break;
+                case "--latency":  latency  = Integer.parseInt(args[++i]);   break;
+                case "--jitter":   jitter   = Integer.parseInt(args[++i]);   break;
+                case "--drop":     dropRate = Double.parseDouble(args[++i]); break;
+                case "--stall":
+                    stallRate = Double.parseDouble(args[++i]);
+                    stallTime = Integer.parseInt(args[++i]);
+                    break;
+                case "--wrap-joins": wrap   = true;                          break;
+                case "--heartbeat":
+                    idleTime    = Integer.parseInt(args[++i]);
+                    pongTimeout = Integer.parseInt(args[++i]);
+                    break;
+                case "--until":    until    = Long.parseLong(args[++i]);     break;
+                case "--settle":   settle   = Integer.parseInt(args[++i]);   break;
+                default: throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+        if (duration < 1) throw new IllegalArgumentException("Duration must be at least 1 ms");
+        clock = new VirtualClock(group, settle);
+    }
+
+    /**
+     * Start the Server, schedule users joining, run every event, then print results
+     */
+    @Override
+    public void run()
+    {
+        try
+        {
+            network = new SimNetwork(clock, seed, latency, jitter, dropRate, stallRate, stallTime);
+            Server server = new Server(network);
+            server.setClock(clock);
+            server.setKeyParameterPool(new KeyParameterPool(0, KeyParameterPool.RESERVE, new Random(~seed)));
+            server.setWrapJoins(wrap);
+            server.setJoinWindow(0);
+            server.setHeartbeat(idleTime, pongTimeout);
+            server.start();
+
+            for (int i = 0; i < clients; i++)
+            {
+                final SimUser u = new SimUser(this, i);
+                users.add(u);
+                clock.schedule((long) i * spacing, u.stream(), "JOIN", new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        u.client.start();
+                    }
+                });
+            }
+
+            long start = System.nanoTime();
+            clock.run(until);
+            double real = (System.nanoTime() - start) / 1e9;
+
+            report(real);
+            network.close();
+        } catch (Exception e)
+        {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Once every user is done, stop after the heartbeat has had time to check each one again.
+     * Without the heartbeat, runs stop by themselves once nothing is left to happen.
+     */
+    void check()
+    {
+        if (idleTime <= 0) return;
+        for (SimUser u : users)
+        {
+            if (!u.done()) return;
+        }
+        clock.stopAt(clock.now() + idleTime + pongTimeout + latency + jitter);
+    }
+
+    /**
+     * Print the trace checksum, key changes and message latency
+     * @param real  wall clock seconds the simulation took
+     */
+    void report(double real)
+    {
+        int joined      = 0;
+        int failed      = 0;
+        long sent       = 0;
+        int received    = 0;
+        long unreadable = 0;
+        for (SimUser u : users)
+        {
+            if (u.joined) joined++;
+            if (u.failure != null) failed++;
+            sent       += u.sent;
+            received   += u.received;
+            unreadable += u.unreadable;
+        }
+
+        long[] all = new long[received];
+        int k      = 0;
+        for (SimUser u : users)
+        {
+            System.arraycopy(u.latencies, 0, all, k, u.received);
+            k += u.received;
+        }
+        Arrays.sort(all);
+
+        System.out.printf("Seed:         %d%n", seed);
+        System.out.printf("Users:        %d joined, %d failed or disconnected%n", joined, failed);
+        System.out.printf("Virtual time: %.3f s%n", clock.now() / 1e3);
+        System.out.printf("Events:       %d in %.2f s%n", clock.steps, real);
+        System.out.printf("Network:      %d connections, %d lines, %d bytes, %d dropped%n",
+                network.links, network.lines, network.bytes, network.drops);
+        System.out.printf("Trace:        %s%n", clock.trace());
+
+        System.out.println("Key changes:");
+        System.out.println("  epoch  clients  virtual ms  connections    lines      bytes");
+        for (SimNetwork.Rekey r : network.rekeys)
+        {
+            System.out.printf("  %5d  %7d  %10s  %11d  %7d  %9d%n", r.epoch, r.participants,
+                    r.end < 0 ? "unfinished" : Long.toString(r.end - r.start), r.connections, r.lines, r.bytes);
+        }
+
+        System.out.printf("Sent:         %d%n", sent);
+        System.out.printf("Delivered:    %d%n", received);
+        System.out.printf("Unreadable:   %d%n", unreadable);
+        if (received > 0)
+        {
+            System.out.printf("Latency p50:  %d ms%n", percentile(all, 0.50));
+            System.out.printf("Latency p99:  %d ms%n", percentile(all, 0.99));
+            System.out.printf("Latency max:  %d ms%n", all[all.length - 1]);
+        }
+    }
+
+    /**
+     * Find a percentile of sorted values
+     * @param sorted    values in ascending order
+     * @param p         percentile between 0 and 1
+     * @return          value at the percentile
+     */
+    static long percentile(long[] sorted, double p)
+    {
+        int i = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(i, sorted.length - 1))];
+    }
+}
@@ -0,0 +1,521 @@
+package sim;
+
+import server.Clock;
+
+import java.util.HashMap;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+/**
+ * Time in a simulation, and the events due at each time.
+ * Events run one at a time, in order of their time, then their stream, then the order they were scheduled
+ * in that stream, and only once every Thread of the simulation has nothing left to do.
+ * So the order things happen in depends only on the events, not on how Threads are scheduled,
+ * and virtual time jumps straight to the next event however long it is.
+ * Given to the Server as its Clock, so key exchange deadlines run out in virtual time too, and its pauses take virtual time.
+ *
+ * Telling that every Thread has nothing left to do is the cost of each event, so it is kept cheap:
+ * Thread states are read without stopping the Threads, and the Simulator only yields the processor
+ * while they look settled, parking only while some are busy.
+ *
+ * @author Caroline Zeng
+ * @version 1.0.0
+ */
+
+public class VirtualClock implements Clock
+{
+    /**
+     * Microseconds every Thread must be found with nothing left to do, over at least SAMPLES checks,
+     * before the next event runs, by default. Long enough for a Thread just woken on another processor to start.
+     */
+    public static final int SETTLE = 50;
+    /**
+     * Checks in a row that must find every Thread with nothing left to do
+     */
+    public static final int SAMPLES = 3;
+    /**
+     * Stream of timeouts of Clock.poll, which only the Server's own Thread calls
+     */
+    static final long TIMEOUTS = Long.MIN_VALUE;
+    /**
+     * First stream of pauses with Clock.sleep; each Thread's are in the stream of its name,
+     * so Threads pausing at once don't share one
+     */
+    static final long SLEEPS = Long.MIN_VALUE + 1;
+
+    /**
+     * Something due at a virtual time
+     */
+    static class Event implements Comparable<Event>
+    {
+        /**
+         * Virtual time in milliseconds
+         */
+        long time;
+        /**
+         * Where the event comes from, such as one direction of a connection; orders events due at the same time
+         */
+        long stream;
+        /**
+         * Order the event was scheduled in its stream
+         */
+        long seq;
+        /**
+         * What the event is, for the trace
+         */
+        String label;
+        /**
+         * What happens
+         */
+        Runnable action;
+        /**
+         * Whether the event was cancelled; it is skipped, and not traced
+         */
+        boolean cancelled = false;
+
+        @Override
+        public int compareTo(Event e)
+        {
+            if (time != e.time) return Long.compare(time, e.time);
+            if (stream != e.stream) return Long.compare(stream, e.stream);
+            return Long.compare(seq, e.seq);
+        }
+    }
+
+    /**
+     * Threads of the simulation; Threads they start join it too
+     */
+    ThreadGroup group;
+    /**
+     * Microseconds every Thread must be found with nothing left to do before the next event runs
+     */
+    int settle;
+    /**
+     * Threads of the simulation as last listed; listing them again checks every one is alive, which is slow
+     */
+    Thread[] threads = new Thread[64];
+    /**
+     * Number of Threads last listed
+     */
+    int listed = 0;
+    /**
+     * Whether a Thread listed has ended since; with the same number of Threads in the group,
+     * one may have started in its place
+     */
+    boolean stale = true;
+    /**
+     * Index in threads of the Thread last found busy, checked first next time
+     */
+    int busy = 0;
+    /**
+     * Virtual time in milliseconds of the event running
+     */
+    volatile long now = 0;
+    /**
+     * Events not yet run; guarded by this VirtualClock
+     */
+    PriorityQueue<Event> events = new PriorityQueue<>();
+    /**
+     * Events scheduled so far in each stream; guarded by this VirtualClock
+     */
+    HashMap<Long, Long> seqs = new HashMap<>();
+
+    /**
+     * Threads woken by an event that haven't run yet
+     */
+    AtomicInteger waking = new AtomicInteger();
+    /**
+     * Counts reads, writes and connections, to tell whether anything happened between two checks
+     */
+    AtomicLong activity = new AtomicLong();
+
+    /**
+     * Virtual time to stop at, if sooner than the one run was given; guarded by this VirtualClock
+     */
+    long end = Long.MAX_VALUE;
+
+    /**
+     * Number of events run
+     */
+    long steps = 0;
+    /**
+     * Checksum of every event run, in order; the same for two runs that happened the same way
+     */
+    CRC32 trace = new CRC32();
+
+    /**
+     * Constructor for VirtualClock with the default time to settle
+     * @param group Threads of the simulation
+     */
+    public VirtualClock(ThreadGroup group)
+    {
+        this(group, SETTLE);
+    }
+
+    /**
+     * Constructor for VirtualClock
+     * @param group     Threads of the simulation
+     * @param settle    microseconds every Thread must be found with nothing left to do before the next event runs;
+     *                  shorter is quicker, but on a machine slow to wake Threads can let runs with one seed differ
+     */
+    public VirtualClock(ThreadGroup group, int settle)
+    {
+        this.group  = group;
+        this.settle = settle;
+    }
+
+    /**
+     * Virtual time
+     * @return  milliseconds since the simulation started
+     */
+    public long now()
+    {
+        return now;
+    }
+
+    @Override
+    public long nanoTime()
+    {
+        return now * 1000000L;
+    }
+
+    /**
+     * Take from a queue, waiting if it is empty until something is added or virtual time is up
+     * @param queue queue to take from
+     * @param nanos most virtual nanoseconds to wait
+     * @param <E>   type of the elements
+     * @return      element taken, or null if the time was up first
+     * @throws InterruptedException
+     */
+    @Override
+    public <E> E poll(BlockingQueue<E> queue, long nanos) throws InterruptedException
+    {
+        return poll(queue, nanos, TIMEOUTS);
+    }
+
+    /**
+     * Pause in virtual time
+     * @param millis    virtual milliseconds to pause for
+     * @throws InterruptedException
+     */
+    @Override
+    public void sleep(long millis) throws InterruptedException
+    {
+        if (millis <= 0) return;
+        long stream = SLEEPS + (Thread.currentThread().getName().hashCode() & 0xffffffffL);
+        poll(new LinkedBlockingQueue<Object>(), millis * 1000000L, stream);
+    }
+
+    /**
+     * Take from a queue, waiting if it is empty until something is added or virtual time is up
+     * @param queue     queue to take from
+     * @param nanos     most virtual nanoseconds to wait
+     * @param stream    stream of the timeout; only one Thread at a time may wait in it
+     * @param <E>       type of the elements
+     * @return          element taken, or null if the time was up first
+     * @throws InterruptedException
+     */
+    private <E> E poll(BlockingQueue<E> queue, long nanos, long stream) throws InterruptedException
+    {
+        E e = queue.poll();
+        if (e != null || nanos <= 0) return e;
+
+        final Thread waiter = Thread.currentThread();
+        final boolean[] state = new boolean[2]; // done, fired; guarded by state
+        Event timeout = schedule(now + (nanos + 999999) / 1000000, stream, "TIMEOUT", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                synchronized (state)
+                {
+                    if (state[0]) return;
+                    state[1] = true;
+                    waking.incrementAndGet();
+                    waiter.interrupt();
+                }
+            }
+        });
+        try
+        {
+            return queue.take();
+        } catch (InterruptedException f)
+        {
+            synchronized (state)
+            {
+                if (!state[1]) throw f;
+            }
+            return null;
+        } finally
+        {
+            cancel(timeout);
+            synchronized (state)
+            {
+                state[0] = true;
+                if (state[1])
+                {
+                    // Fired as the element was taken; the interrupt was only for the timeout
+                    Thread.interrupted();
+                    waking.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Schedule an event
+     * @param time      virtual time it is due; no earlier than now
+     * @param stream    where it comes from; events from one stream must be scheduled by one Thread at a time
+     * @param label     what it is, for the trace
+     * @param action    what happens
+     * @return          the Event, which can be cancelled
+     */
+    public synchronized Event schedule(long time, long stream, String label, Runnable action)
+    {
+        Long seq = seqs.get(stream);
+        seq      = seq == null ? 0 : seq + 1;
+        seqs.put(stream, seq);
+
+        Event e  = new Event();
+        e.time   = Math.max(time, now);
+        e.stream = stream;
+        e.seq    = seq;
+        e.label  = label;
+        e.action = action;
+        events.add(e);
+        return e;
+    }
+
+    /**
+     * Stop an event from running, if it hasn't yet
+     * @param e event to cancel
+     */
+    public synchronized void cancel(Event e)
+    {
+        e.cancelled = true;
+    }
+
+    /**
+     * Stop running events after a virtual time, if it is sooner than run was given,
+     * such as once nothing is left to happen but heartbeats, which never run out
+     * @param time  virtual time to stop at; events due then still run
+     */
+    public synchronized void stopAt(long time)
+    {
+        end = Math.min(end, time);
+    }
+
+    /**
+     * Note a read, write or connection, so a check running meanwhile doesn't count as settled
+     */
+    void touch()
+    {
+        activity.incrementAndGet();
+    }
+
+    /**
+     * Run events until there are none left or virtual time is up.
+     * With none left, waits while a Thread is waiting with a timeout, since that can still do something.
+     * @param until virtual time to stop at
+     */
+    public void run(long until)
+    {
+        while (true)
+        {
+            settle();
+
+            Event e;
+            synchronized (this)
+            {
+                do
+                {
+                    e = events.poll();
+                } while (e != null && e.cancelled);
+                if (e != null && e.time > Math.min(until, end)) return;
+                if (e != null) now = e.time;
+            }
+            if (e == null)
+            {
+                // Only a timeout by the wall clock, such as a Client's, can do anything now
+                if (!timing()) return;
+                LockSupport.parkNanos(settle * 1000L);
+                continue;
+            }
+
+            record(e);
+            e.action.run();
+            steps++;
+        }
+    }
+
+    /**
+     * Add an event to the trace.
+     * Not its sequence number, which the order of the trace already gives, and which for timeouts
+     * counts every wait, including ones that didn't have to wait only because another Thread was quicker.
+     * @param e event run
+     */
+    private void record(Event e)
+    {
+        for (long l : new long[] {e.time, e.stream})
+        {
+            for (int i = 0; i < 8; i++)
+            {
+                trace.update((int) (l >>> (i * 8)));
+            }
+        }
+        for (int i = 0; i < e.label.length(); i++)
+        {
+            trace.update(e.label.charAt(i));
+        }
+    }
+
+    /**
+     * Wait until every Thread of the simulation has nothing left to do,
+     * checked several times in a row, over at least settle microseconds, with nothing happening in between.
+     * Between checks that find them settled, only yields the processor, so a Thread woken just now gets to run;
+     * while some are busy, parks to leave them the processor.
+     */
+    void settle()
+    {
+        int quiet  = 0;
+        long since = 0;
+        long last  = activity.get();
+        while (true)
+        {
+            long a = activity.get();
+            if (a == last && quiet())
+            {
+                long t = System.nanoTime();
+                if (quiet++ == 0) since = t;
+                else if (quiet >= SAMPLES && t - since >= settle * 1000L) return;
+            } else
+            {
+                quiet = 0;
+            }
+            last = a;
+            Thread.yield();
+        }
+    }
+
+    /**
+     * List the Threads of the simulation, again only if some started or ended since last time.
+     * A Thread that starts is counted in the group straight away, and one that ends is no longer counted,
+     * then found ended by a check, so with the same number and none found ended the list is still right.
+     * @return  number of Threads, at the start of threads
+     */
+    private int list()
+    {
+        if (!stale && group.activeCount() == listed) return listed;
+
+        int n;
+        while ((n = group.enumerate(threads)) == threads.length)
+        {
+            threads = new Thread[threads.length * 2];
+        }
+        listed = n;
+        stale  = false;
+        return n;
+    }
+
+    /**
+     * Whether every Thread of the simulation is waiting for something only an event can bring
+     * @return  true if no Thread is running, sleeping, or woken and about to run
+     */
+    boolean quiet()
+    {
+        if (waking.get() > 0) return false;
+
+        int n = list();
+        // A Thread busy last time is likely still busy
+        if (busy < n && busy(threads[busy])) return false;
+        for (int i = 0; i < n; i++)
+        {
+            if (busy(threads[i]))
+            {
+                busy = i;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether a Thread of the simulation has something to do
+     * @param t Thread
+     * @return  true if it is running, sleeping, or waiting for a lock
+     */
+    private boolean busy(Thread t)
+    {
+        if (t == Thread.currentThread()) return false;
+        switch (t.getState())
+        {
+            case RUNNABLE:
+            case BLOCKED:
+                return true;
+            case TIMED_WAITING:
+                // Waiting with a timeout is waiting for something, but sleeping is busy
+                return sleeping(t);
+            case TERMINATED:
+                stale = true;
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Whether any Thread of the simulation is waiting with a wall clock timeout, other than the Server's TimerWheel
+     * @return  true if a timeout can still wake a Thread
+     */
+    boolean timing()
+    {
+        int n = list();
+        for (int i = 0; i < n; i++)
+        {
+            Thread t = threads[i];
+            if (t != Thread.currentThread() && t.getState() == Thread.State.TIMED_WAITING && !ticking(t)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Whether a Thread is in Thread.sleep, other than the Server's TimerWheel.
+     * A Thread parked with a timeout on a queue or lock names what it waits for, so only the rest,
+     * which are few, have their stack looked at, which stops every Thread.
+     * @param t Thread waiting with a timeout
+     * @return  true if it is sleeping
+     */
+    private static boolean sleeping(Thread t)
+    {
+        if (LockSupport.getBlocker(t) != null || ticking(t)) return false;
+        for (StackTraceElement f : t.getStackTrace())
+        {
+            if (f.getClassName().equals("java.lang.Thread") && f.getMethodName().startsWith("sleep")) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Whether a Thread is the Server's TimerWheel, which sleeps between ticks forever
+     * @param t Thread
+     * @return  true if it is a TimerWheel
+     */
+    private static boolean ticking(Thread t)
+    {
+        return t.getClass().getName().equals("server.TimerWheel");
+    }
+
+    /**
+     * Checksum of the events run so far
+     * @return  CRC-32 of the trace, in hexadecimal
+     */
+    public String trace()
+    {
+        return String.format("%08x", trace.getValue());
+    }
+}